@@ -0,0 +1,47 @@
+package es.sandwatch.trim;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures complete runs against an in-process HTTP stub serving small, wide, deep and large
+ * array responses. Run with {@code -prof gc} to track the allocation rate.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EndToEndBenchmark{
+    @Param({"1", "4"})
+    public int concurrency;
+
+    private StubServer server;
+
+
+    @Setup
+    public void setUp() throws IOException{
+        server = new StubServer();
+    }
+
+    @TearDown
+    public void tearDown(){
+        server.stop();
+    }
+
+    @Benchmark
+    public Report run(){
+        Specification specification = new Specification().setMaxConcurrency(concurrency);
+        for (Class<?> model:StubServer.getModels()){
+            specification.addModel(model);
+        }
+        return Trim.run(specification);
+    }
+}
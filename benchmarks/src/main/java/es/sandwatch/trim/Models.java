@@ -0,0 +1,174 @@
+package es.sandwatch.trim;
+
+import es.sandwatch.trim.annotation.CollectionGenericType;
+import es.sandwatch.trim.annotation.Endpoint;
+import es.sandwatch.trim.annotation.UnusedSinceVersion;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+
+/**
+ * Synthetic model hierarchies used by the benchmarks.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+@SuppressWarnings("unused")
+class Models{
+    /**
+     * The number of scalar fields in the items of generated arrays.
+     */
+    static final int ITEM_WIDTH = 4;
+
+
+    /**
+     * Gets a model hierarchy by name.
+     *
+     * @param name one of flat, nested, inherited or cyclic.
+     * @return the root class of the hierarchy.
+     */
+    static @NotNull Class<?> get(@NotNull String name){
+        switch (name){
+            case "flat":
+                return Flat.class;
+
+            case "nested":
+                return Nested0.class;
+
+            case "inherited":
+                return Inherited.class;
+
+            case "cyclic":
+                return Node.class;
+
+            default:
+                throw new IllegalArgumentException("Unknown model hierarchy: " + name);
+        }
+    }
+
+
+    /**
+     * Matches the objects of generated payloads, only the first ten scalar fields are mapped.
+     */
+    static class Node{
+        private int f0;
+        private double f1;
+        private String f2;
+        private boolean f3;
+        private int f4;
+        private double f5;
+        private String f6;
+        private boolean f7;
+        private int f8;
+        @UnusedSinceVersion(1)
+        private double f9;
+        private Node child;
+        @CollectionGenericType(Item.class)
+        private List<Item> items;
+    }
+
+    /**
+     * Matches the items of the arrays in generated payloads.
+     */
+    static class Item{
+        private int f0;
+        private double f1;
+        private String f2;
+        private boolean f3;
+    }
+
+
+    /**
+     * A single class with many fields.
+     */
+    static class Flat{
+        private int f0, f1, f2, f3, f4, f5, f6, f7, f8, f9;
+        private double f10, f11, f12, f13, f14, f15, f16, f17, f18, f19;
+        private String f20, f21, f22, f23, f24, f25, f26, f27, f28, f29;
+        private boolean f30, f31, f32, f33, f34, f35, f36, f37, f38, f39;
+    }
+
+
+    /**
+     * A chain of distinct nested classes.
+     */
+    static class Nested0{
+        private int id;
+        private String name;
+        private Nested1 next;
+    }
+
+    static class Nested1{
+        private int id;
+        private String name;
+        private Nested2 next;
+    }
+
+    static class Nested2{
+        private int id;
+        private String name;
+        private Nested3 next;
+    }
+
+    static class Nested3{
+        private int id;
+        private String name;
+        private Nested4 next;
+    }
+
+    static class Nested4{
+        private int id;
+        private String name;
+        private Nested5 next;
+    }
+
+    static class Nested5{
+        private int id;
+        private String name;
+        @CollectionGenericType(Item.class)
+        private List<Item> items;
+    }
+
+
+    /**
+     * A chain of superclasses.
+     */
+    static class Base{
+        private int id;
+        private String createdAt;
+        private String updatedAt;
+    }
+
+    static class Named extends Base{
+        private String name;
+        private String description;
+    }
+
+    static class Owned extends Named{
+        private Item owner;
+        private boolean shared;
+    }
+
+    static class Inherited extends Owned{
+        private double score;
+        @CollectionGenericType(Item.class)
+        private List<Item> items;
+    }
+
+
+    /**
+     * The endpoints served by the {@link StubServer}.
+     */
+    @Endpoint(StubServer.URL + "/small")
+    static class SmallEndpoint extends Node{}
+
+    @Endpoint(StubServer.URL + "/wide")
+    static class WideEndpoint extends Node{}
+
+    @Endpoint(StubServer.URL + "/deep")
+    static class DeepEndpoint extends Node{}
+
+    @Endpoint(StubServer.URL + "/array")
+    static class ArrayEndpoint extends Node{}
+}
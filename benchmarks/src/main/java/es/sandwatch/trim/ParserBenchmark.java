@@ -0,0 +1,51 @@
+package es.sandwatch.trim;
+
+import es.sandwatch.trim.annotation.ArraySampling;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures parsing responses of different widths, depths and array sizes into shapes.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark{
+    @Param({"10", "100"})
+    public int width;
+
+    @Param({"1", "8"})
+    public int depth;
+
+    @Param({"10", "1000"})
+    public int arraySize;
+
+    private byte[] payload;
+    private ArraySampler firstTen;
+
+
+    @Setup
+    public void setUp(){
+        payload = Payloads.generate(width, depth, arraySize);
+        firstTen = ArraySampler.create(ArraySampling.Strategy.FIRST_N, 10);
+    }
+
+    @Benchmark
+    public Object parseJson(){
+        return Parser.parseJson(new ByteArrayInputStream(payload), ArraySampler.ALL);
+    }
+
+    @Benchmark
+    public Object parseJsonSampled(){
+        return Parser.parseJson(new ByteArrayInputStream(payload), firstTen);
+    }
+}
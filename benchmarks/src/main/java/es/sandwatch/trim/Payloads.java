@@ -0,0 +1,95 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+
+/**
+ * Generator of synthetic endpoint responses. Every object has a number of scalar fields named
+ * f0, f1, ... whose types cycle through int, float, string and boolean, matching the fields of
+ * {@link Models.Node}, plus a nested object and an array of objects. Payloads are deterministic for
+ * a given set of dimensions, so results are comparable between runs.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class Payloads{
+    /**
+     * Generates a payload.
+     *
+     * @param width the number of scalar fields in every object.
+     * @param depth the number of levels of nested objects under the root.
+     * @param arraySize the number of items in the array of every object.
+     * @return the payload, UTF-8 encoded.
+     */
+    static @NotNull byte[] generate(int width, int depth, int arraySize){
+        StringBuilder json = new StringBuilder();
+        appendObject(json, new Random(width*31L + depth*17L + arraySize), width, depth, arraySize);
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends an object, its nested object and its array.
+     *
+     * @param json the destination.
+     * @param random the source of field values.
+     * @param width the number of scalar fields in the object.
+     * @param depth the number of levels of nested objects under the object.
+     * @param arraySize the number of items in the object's array.
+     */
+    private static void appendObject(@NotNull StringBuilder json, @NotNull Random random, int width, int depth,
+                                     int arraySize){
+
+        json.append('{');
+        appendScalars(json, random, width);
+        json.append(",\"items\":[");
+        for (int i = 0; i < arraySize; i++){
+            if (i > 0){
+                json.append(',');
+            }
+            json.append('{');
+            appendScalars(json, random, Models.ITEM_WIDTH);
+            json.append('}');
+        }
+        json.append(']');
+        if (depth > 0){
+            json.append(",\"child\":");
+            appendObject(json, random, width, depth - 1, arraySize);
+        }
+        json.append('}');
+    }
+
+    /**
+     * Appends the scalar fields of an object.
+     *
+     * @param json the destination.
+     * @param random the source of field values.
+     * @param width the number of scalar fields.
+     */
+    private static void appendScalars(@NotNull StringBuilder json, @NotNull Random random, int width){
+        for (int i = 0; i < width; i++){
+            if (i > 0){
+                json.append(',');
+            }
+            json.append("\"f").append(i).append("\":");
+            switch (i%4){
+                case 0:
+                    json.append(random.nextInt(100000));
+                    break;
+
+                case 1:
+                    json.append(random.nextDouble()*1000);
+                    break;
+
+                case 2:
+                    json.append("\"value-").append(Long.toHexString(random.nextLong())).append('"');
+                    break;
+
+                default:
+                    json.append(random.nextBoolean());
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package es.sandwatch.trim;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures comparing response shapes against model schemas and printing and writing the resulting reports.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportBenchmark{
+    /**
+     * Writer that drops everything, so that only producing the output is measured.
+     */
+    private static final Writer DISCARD = new Writer(){
+        @Override
+        public void write(char[] buffer, int offset, int length){
+            //Nothing to do
+        }
+
+        @Override
+        public void write(int c){
+            //Nothing to do
+        }
+
+        @Override
+        public void write(String string, int offset, int length){
+            //Nothing to do
+        }
+
+        @Override
+        public void flush(){
+            //Nothing to do
+        }
+
+        @Override
+        public void close(){
+            //Nothing to do
+        }
+    };
+
+
+    @Param({"10", "100"})
+    public int width;
+
+    @Param({"1", "8"})
+    public int depth;
+
+    private Trim trim;
+    private Shape shape;
+    private Schema schema;
+    private int item;
+    private Report report;
+
+
+    @Setup
+    public void setUp() throws IOException{
+        Specification specification = new Specification().setCurrentApplicationVersion(3);
+        trim = new Trim(specification, null);
+        shape = Parser.parseJson(new ByteArrayInputStream(Payloads.generate(width, depth, 10)), ArraySampler.ALL);
+        schema = Parser.parseClass(Models.Node.class);
+        item = shape.findChild(Shape.ROOT, Symbols.intern("f0"));
+
+        //Reports hold request results, which only come from real requests
+        StubServer server = new StubServer();
+        try{
+            specification = new Specification();
+            for (Class<?> model:StubServer.getModels()){
+                specification.addModel(model);
+            }
+            report = Trim.run(specification);
+        }
+        finally{
+            server.stop();
+        }
+    }
+
+    @Benchmark
+    public Object createObjectReport(){
+        return trim.createObjectReport(shape, Shape.ROOT, schema);
+    }
+
+    @Benchmark
+    public Object createAttributeReport(){
+        return trim.createAttributeReport(shape, item, schema);
+    }
+
+    @Benchmark
+    public String reportToString(){
+        return report.toString();
+    }
+
+    @Benchmark
+    public void writeJsonLines() throws IOException{
+        report.write(DISCARD, Report.Format.JSON_LINES);
+    }
+
+    @Benchmark
+    public void writeCsv() throws IOException{
+        report.write(DISCARD, Report.Format.CSV);
+    }
+}
@@ -0,0 +1,41 @@
+package es.sandwatch.trim;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures turning model hierarchies into schemas, both by reflection and through the schema cache.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaBenchmark{
+    @Param({"flat", "nested", "inherited", "cyclic"})
+    public String model;
+
+    private Class<?> modelClass;
+
+
+    @Setup
+    public void setUp(){
+        modelClass = Models.get(model);
+    }
+
+    @Benchmark
+    public Object reflectClass(){
+        return Parser.reflectClass(modelClass);
+    }
+
+    @Benchmark
+    public Object parseClass(){
+        return Parser.parseClass(modelClass);
+    }
+}
@@ -0,0 +1,83 @@
+package es.sandwatch.trim;
+
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * In-process HTTP server answering the endpoints of {@link Models} with pre-generated payloads,
+ * so end to end benchmarks measure Trim rather than the network or a remote server.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class StubServer{
+    static final int PORT = 18765;
+    static final String URL = "http://localhost:18765";
+
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+
+    /**
+     * Starts the server.
+     *
+     * @throws IOException if the port can't be bound.
+     */
+    StubServer() throws IOException{
+        final Map<String, byte[]> payloads = new HashMap<>();
+        payloads.put("/small", Payloads.generate(10, 2, 10));
+        payloads.put("/wide", Payloads.generate(200, 1, 10));
+        payloads.put("/deep", Payloads.generate(10, 32, 2));
+        payloads.put("/array", Payloads.generate(10, 0, 5000));
+
+        executor = Executors.newFixedThreadPool(8);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT), 64);
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            byte[] payload = payloads.get(exchange.getRequestURI().getPath());
+            if (payload == null){
+                exchange.sendResponseHeaders(404, -1);
+            }
+            else{
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, payload.length);
+                try (OutputStream out = exchange.getResponseBody()){
+                    out.write(payload);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    /**
+     * Gets the models of every endpoint served.
+     *
+     * @return the models.
+     */
+    static @NotNull Class<?>[] getModels(){
+        return new Class<?>[]{
+                Models.SmallEndpoint.class, Models.WideEndpoint.class,
+                Models.DeepEndpoint.class, Models.ArrayEndpoint.class
+        };
+    }
+
+    /**
+     * Stops the server.
+     */
+    void stop(){
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
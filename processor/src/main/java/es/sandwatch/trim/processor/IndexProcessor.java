@@ -0,0 +1,113 @@
+package es.sandwatch.trim.processor;
+
+import es.sandwatch.trim.annotation.Endpoint;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+import java.util.TreeSet;
+
+
+/**
+ * Generates the index of the models in a compilation, a resource listing the binary names of the
+ * classes annotated with Endpoint, one per line and sorted, which Trim reads to add every model
+ * without scanning the class path.
+ *
+ * Incremental builds only compile some of the classes, so the index left by earlier builds is
+ * merged in: its entries are kept as long as they still name classes annotated with Endpoint. The
+ * processor runs on every compilation, with models or without them, so that models deleted since
+ * are dropped too.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+@SupportedAnnotationTypes("*")
+public class IndexProcessor extends AbstractProcessor{
+    private static final String INDEX_FILE = "META-INF/trim/endpoints";
+
+
+    private final Set<String> models = new TreeSet<>();
+
+
+    @Override
+    public SourceVersion getSupportedSourceVersion(){
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv){
+        if (roundEnv.processingOver()){
+            writeIndex();
+            return false;
+        }
+        for (Element element:roundEnv.getElementsAnnotatedWith(Endpoint.class)){
+            if (element instanceof TypeElement){
+                models.add(processingEnv.getElementUtils().getBinaryName((TypeElement)element).toString());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the index of every model found, along with the models in the existing index that are
+     * still annotated with Endpoint.
+     */
+    private void writeIndex(){
+        boolean existing = readIndex();
+        if (models.isEmpty() && !existing){
+            return;
+        }
+        try (Writer writer = processingEnv.getFiler()
+                .createResource(StandardLocation.CLASS_OUTPUT, "", INDEX_FILE).openWriter()){
+
+            for (String model:models){
+                writer.write(model);
+                writer.write('\n');
+            }
+        }
+        catch (IOException iox){
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Couldn't write " + INDEX_FILE + ": " + iox.getMessage());
+        }
+    }
+
+    /**
+     * Reads the index left in the class output by an earlier build, adding the models it lists that
+     * still exist and are still annotated with Endpoint.
+     *
+     * @return true if there was an index, false otherwise.
+     */
+    private boolean readIndex(){
+        Elements elements = processingEnv.getElementUtils();
+        try (BufferedReader reader = new BufferedReader(processingEnv.getFiler()
+                .getResource(StandardLocation.CLASS_OUTPUT, "", INDEX_FILE).openReader(true))){
+
+            String line;
+            while ((line = reader.readLine()) != null){
+                line = line.trim();
+                if (!line.isEmpty() && !models.contains(line)){
+                    //Binary names separate nested classes with a dollar sign
+                    TypeElement model = elements.getTypeElement(line.replace('$', '.'));
+                    if (model != null && model.getAnnotation(Endpoint.class) != null){
+                        models.add(line);
+                    }
+                }
+            }
+            return true;
+        }
+        catch (IOException | IllegalArgumentException x){
+            //There's no index yet
+            return false;
+        }
+    }
+}
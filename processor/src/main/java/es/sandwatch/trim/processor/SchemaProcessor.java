@@ -0,0 +1,495 @@
+package es.sandwatch.trim.processor;
+
+import es.sandwatch.trim.annotation.AttributeName;
+import es.sandwatch.trim.annotation.CollectionGenericType;
+import es.sandwatch.trim.annotation.Endpoint;
+import es.sandwatch.trim.annotation.Skip;
+import es.sandwatch.trim.annotation.UnusedSinceVersion;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+
+/**
+ * Generates the schemas of models at build time, so that Trim doesn't have to reflect them at
+ * runtime. Every class annotated with Endpoint, and every class reachable from one through its
+ * fields, gets a static schema class next to it holding its fields resolved the way Trim's parser
+ * resolves them by reflection. The schema classes of every package are listed in a registry,
+ * TrimSchemaRegistry, which is published as a service for Trim to find.
+ *
+ * Classes that can't be described faithfully or referenced from generated code are left to
+ * reflection: enums, interfaces, inner, local and anonymous classes, private classes, classes with
+ * fields of types inaccessible from their package and classes that aren't part of the compilation.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+@SupportedAnnotationTypes("es.sandwatch.trim.annotation.Endpoint")
+public class SchemaProcessor extends AbstractProcessor{
+    private static final String SCHEMA_SUFFIX = "_TrimSchema";
+    private static final String REGISTRY_NAME = "TrimSchemaRegistry";
+    private static final String SERVICE_FILE = "META-INF/services/es.sandwatch.trim.SchemaRegistry";
+
+
+    private final Set<String> sources = new HashSet<>();
+    private final Set<String> visited = new HashSet<>();
+    private final Map<String, Integer> registryCounts = new HashMap<>();
+    private final List<String> registries = new ArrayList<>();
+
+
+    @Override
+    public SourceVersion getSupportedSourceVersion(){
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv){
+        if (roundEnv.processingOver()){
+            writeServiceFile();
+            return false;
+        }
+
+        //Only classes compiled along with the models get schemas
+        for (Element element:roundEnv.getRootElements()){
+            if (element instanceof TypeElement){
+                sources.add(((TypeElement)element).getQualifiedName().toString());
+            }
+        }
+
+        Deque<TypeElement> pending = new ArrayDeque<>();
+        for (Element element:roundEnv.getElementsAnnotatedWith(Endpoint.class)){
+            if (element instanceof TypeElement){
+                pending.add((TypeElement)element);
+            }
+        }
+
+        //Schema class names by package, sorted so that the output doesn't depend on discovery order
+        Map<String, List<String>> schemas = new TreeMap<>();
+        while (!pending.isEmpty()){
+            TypeElement model = pending.poll();
+            if (visited.add(model.getQualifiedName().toString())){
+                String schema = generateSchema(model, pending);
+                if (schema != null){
+                    String packageName = getPackage(model).getQualifiedName().toString();
+                    schemas.computeIfAbsent(packageName, key -> new ArrayList<>()).add(schema);
+                }
+            }
+        }
+        for (Map.Entry<String, List<String>> entry:schemas.entrySet()){
+            generateRegistry(entry.getKey(), entry.getValue());
+        }
+        return false;
+    }
+
+    /**
+     * Generates the schema class of a model, if it can be described at build time, and queues the
+     * classes reachable from it.
+     *
+     * @param model the model.
+     * @param pending the queue of classes to generate schemas for.
+     * @return the simple name of the schema class, or null if none was generated.
+     */
+    private String generateSchema(TypeElement model, Deque<TypeElement> pending){
+        Elements elements = processingEnv.getElementUtils();
+        PackageElement packageElement = getPackage(model);
+        boolean describable = isDescribable(model) && isAccessible(model.asType(), packageElement);
+
+        //Fields in superclasses override fields in subclasses mapping to the same attribute
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (TypeElement current = model; current != null && !isObject(current); current = getSuperclass(current)){
+            for (VariableElement field:ElementFilter.fieldsIn(current.getEnclosedElements())){
+                if (field.getAnnotation(Skip.class) != null){
+                    continue;
+                }
+
+                AttributeName annotation = field.getAnnotation(AttributeName.class);
+                String name = annotation == null ? field.getSimpleName().toString() : annotation.value();
+
+                TypeMirror type = processingEnv.getTypeUtils().erasure(field.asType());
+                TypeMirror modelType = null;
+                if (shouldParseClass(type)){
+                    modelType = type;
+                }
+                if (isCollection(type)){
+                    TypeMirror genericType = getCollectionGenericType(field);
+                    if (genericType != null){
+                        modelType = processingEnv.getTypeUtils().erasure(genericType);
+                    }
+                }
+
+                UnusedSinceVersion unusedSinceVersion = field.getAnnotation(UnusedSinceVersion.class);
+
+                describable = describable && isAccessible(type, packageElement) &&
+                        (modelType == null || isAccessible(modelType, packageElement));
+                fields.put(name, ".addField(" + elements.getConstantExpression(name) + ", " + getClassLiteral(type) +
+                        ", " + (modelType == null ? "null" : getClassLiteral(modelType)) +
+                        ", " + (unusedSinceVersion == null ? -1 : unusedSinceVersion.value()) + ")");
+
+                if (modelType != null && modelType.getKind() == TypeKind.DECLARED){
+                    pending.add((TypeElement)((DeclaredType)modelType).asElement());
+                }
+            }
+        }
+        if (!describable){
+            return null;
+        }
+
+        String schemaName = getFlatName(model) + SCHEMA_SUFFIX;
+        StringBuilder source = new StringBuilder();
+        appendPackage(source, packageElement);
+        source.append("/**\n")
+                .append(" * Schema of {@link ").append(model.getQualifiedName())
+                .append("}, generated by the Trim annotation processor.\n")
+                .append(" */\n")
+                .append("final class ").append(schemaName).append("{\n")
+                .append("    static final es.sandwatch.trim.GeneratedSchema SCHEMA = ")
+                .append("new es.sandwatch.trim.GeneratedSchema(").append(model.getQualifiedName()).append(".class)");
+        for (String field:fields.values()){
+            source.append("\n            ").append(field);
+        }
+        source.append(";\n\n")
+                .append("    private ").append(schemaName).append("(){\n")
+                .append("    }\n")
+                .append("}\n");
+        write(getQualifiedName(packageElement, schemaName), source, model);
+        return schemaName;
+    }
+
+    /**
+     * Generates the registry of the schema classes of a package. Every round can only add files, so
+     * packages getting further schemas in later rounds get further registries, numbered from 2.
+     *
+     * @param packageName the name of the package.
+     * @param schemas the simple names of the schema classes.
+     */
+    private void generateRegistry(String packageName, List<String> schemas){
+        Integer count = registryCounts.get(packageName);
+        String registryName = count == null ? REGISTRY_NAME : REGISTRY_NAME + count;
+        registryCounts.put(packageName, count == null ? 2 : count + 1);
+
+        StringBuilder source = new StringBuilder();
+        appendPackage(source, processingEnv.getElementUtils().getPackageElement(packageName));
+        source.append("/**\n")
+                .append(" * Registry of the model schemas of this package, generated by the Trim annotation")
+                .append(" processor.\n")
+                .append(" */\n")
+                .append("public final class ").append(registryName)
+                .append(" implements es.sandwatch.trim.SchemaRegistry{\n")
+                .append("    @Override\n")
+                .append("    public java.util.List<es.sandwatch.trim.GeneratedSchema> getSchemas(){\n")
+                .append("        return java.util.Arrays.asList(");
+        for (int i = 0; i < schemas.size(); i++){
+            source.append(i == 0 ? "\n" : ",\n").append("                ").append(schemas.get(i)).append(".SCHEMA");
+        }
+        source.append(");\n")
+                .append("    }\n")
+                .append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? registryName : packageName + "." + registryName;
+        write(qualifiedName, source);
+        registries.add(qualifiedName);
+    }
+
+    /**
+     * Writes the service file listing every registry generated.
+     */
+    private void writeServiceFile(){
+        if (registries.isEmpty()){
+            return;
+        }
+        try (Writer writer = processingEnv.getFiler()
+                .createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE).openWriter()){
+
+            for (String registry:registries){
+                writer.write(registry);
+                writer.write('\n');
+            }
+        }
+        catch (IOException iox){
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Couldn't write " + SERVICE_FILE + ": " + iox.getMessage());
+        }
+    }
+
+    /**
+     * Writes a source file.
+     *
+     * @param qualifiedName the qualified name of the class in the file.
+     * @param source the source.
+     * @param originatingElements the elements the class was generated from.
+     */
+    private void write(String qualifiedName, CharSequence source, Element... originatingElements){
+        try (Writer writer = processingEnv.getFiler()
+                .createSourceFile(qualifiedName, originatingElements).openWriter()){
+
+            writer.append(source);
+        }
+        catch (IOException iox){
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Couldn't write " + qualifiedName + ": " + iox.getMessage());
+        }
+    }
+
+    /**
+     * Tells whether the fields of a class seen at build time are the ones reflection sees at runtime.
+     * The compiler adds fields to enums and inner classes, and classes that aren't being compiled
+     * can't get a schema class next to them.
+     *
+     * @param type the class.
+     * @return true if they are, false otherwise.
+     */
+    private boolean isDescribable(TypeElement type){
+        if (type.getKind() != ElementKind.CLASS || !sources.contains(getOutermost(type).getQualifiedName().toString())){
+            return false;
+        }
+        for (Element current = type; current instanceof TypeElement; current = current.getEnclosingElement()){
+            NestingKind nesting = ((TypeElement)current).getNestingKind();
+            if (nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS ||
+                    (nesting == NestingKind.MEMBER && !current.getModifiers().contains(Modifier.STATIC))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether a type can be referenced from code in a package.
+     *
+     * @param type the type.
+     * @param from the package.
+     * @return true if it can, false otherwise.
+     */
+    private boolean isAccessible(TypeMirror type, PackageElement from){
+        if (type.getKind() == TypeKind.ARRAY){
+            return isAccessible(((ArrayType)type).getComponentType(), from);
+        }
+        if (type.getKind().isPrimitive()){
+            return true;
+        }
+        if (type.getKind() != TypeKind.DECLARED){
+            return false;
+        }
+
+        TypeElement element = (TypeElement)((DeclaredType)type).asElement();
+        if (element.getNestingKind() == NestingKind.LOCAL || element.getNestingKind() == NestingKind.ANONYMOUS){
+            return false;
+        }
+        boolean samePackage = getPackage(element).equals(from);
+        for (Element current = element; current instanceof TypeElement; current = current.getEnclosingElement()){
+            Set<Modifier> modifiers = current.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE) || (!samePackage && !modifiers.contains(Modifier.PUBLIC))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether the target should be parsed and added to the hierarchy, just like the parser
+     * does at runtime. Primitives, primitive wrappers, CharSequences and Collections are not.
+     *
+     * @param type the erased type to be checked.
+     * @return true if it should, false otherwise.
+     */
+    private boolean shouldParseClass(TypeMirror type){
+        if (type.getKind().isPrimitive()){
+            return false;
+        }
+        Types types = processingEnv.getTypeUtils();
+        try{
+            types.unboxedType(type);
+            return false;
+        }
+        catch (IllegalArgumentException iax){
+            //Not a primitive wrapper
+        }
+        return !types.isAssignable(type, getType(CharSequence.class)) && !isCollection(type);
+    }
+
+    /**
+     * Tells whether a type is a Collection.
+     *
+     * @param type the erased type to be checked.
+     * @return true if it is, false otherwise.
+     */
+    private boolean isCollection(TypeMirror type){
+        return processingEnv.getTypeUtils().isAssignable(type, getType(java.util.Collection.class));
+    }
+
+    /**
+     * Gets the class set in the CollectionGenericType annotation of a field. Class values aren't
+     * available at build time, so the mirror of the class is taken from the exception.
+     *
+     * @param field the field.
+     * @return the class, or null if the field isn't annotated.
+     */
+    private TypeMirror getCollectionGenericType(VariableElement field){
+        CollectionGenericType annotation = field.getAnnotation(CollectionGenericType.class);
+        if (annotation == null){
+            return null;
+        }
+        try{
+            annotation.value();
+            return null;
+        }
+        catch (MirroredTypeException mtx){
+            return mtx.getTypeMirror();
+        }
+    }
+
+    /**
+     * Gets the class literal of an erased type.
+     *
+     * @param type the type, accessible from the generated code.
+     * @return the class literal.
+     */
+    private String getClassLiteral(TypeMirror type){
+        return getTypeName(type) + ".class";
+    }
+
+    /**
+     * Gets the canonical name of an erased type, leaving out any type annotations.
+     *
+     * @param type the type.
+     * @return the name.
+     */
+    private String getTypeName(TypeMirror type){
+        if (type.getKind() == TypeKind.ARRAY){
+            return getTypeName(((ArrayType)type).getComponentType()) + "[]";
+        }
+        if (type.getKind() == TypeKind.DECLARED){
+            return ((TypeElement)((DeclaredType)type).asElement()).getQualifiedName().toString();
+        }
+        return type.getKind().name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets the erased type of a class.
+     *
+     * @param type the class.
+     * @return the type.
+     */
+    private TypeMirror getType(Class<?> type){
+        Types types = processingEnv.getTypeUtils();
+        return types.erasure(processingEnv.getElementUtils().getTypeElement(type.getCanonicalName()).asType());
+    }
+
+    /**
+     * Gets the superclass of a class.
+     *
+     * @param type the class.
+     * @return the superclass, or null if there is none.
+     */
+    private TypeElement getSuperclass(TypeElement type){
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED){
+            return null;
+        }
+        return (TypeElement)((DeclaredType)superclass).asElement();
+    }
+
+    /**
+     * Tells whether a class is java.lang.Object.
+     *
+     * @param type the class.
+     * @return true if it is, false otherwise.
+     */
+    private boolean isObject(TypeElement type){
+        return type.getQualifiedName().contentEquals(Object.class.getName());
+    }
+
+    /**
+     * Gets the package of a class.
+     *
+     * @param type the class.
+     * @return the package.
+     */
+    private PackageElement getPackage(TypeElement type){
+        return processingEnv.getElementUtils().getPackageOf(type);
+    }
+
+    /**
+     * Gets the top level class enclosing a class.
+     *
+     * @param type the class.
+     * @return the top level class, the class itself if it is one.
+     */
+    private TypeElement getOutermost(TypeElement type){
+        TypeElement outermost = type;
+        while (outermost.getEnclosingElement() instanceof TypeElement){
+            outermost = (TypeElement)outermost.getEnclosingElement();
+        }
+        return outermost;
+    }
+
+    /**
+     * Gets the name of a class relative to its package, with enclosing classes joined by an underscore.
+     *
+     * @param type the class.
+     * @return the flat name.
+     */
+    private String getFlatName(TypeElement type){
+        String name = type.getSimpleName().toString();
+        for (Element current = type.getEnclosingElement(); current instanceof TypeElement;
+             current = current.getEnclosingElement()){
+
+            name = current.getSimpleName() + "_" + name;
+        }
+        return name;
+    }
+
+    /**
+     * Gets the qualified name of a class in a package.
+     *
+     * @param packageElement the package.
+     * @param simpleName the simple name of the class.
+     * @return the qualified name.
+     */
+    private String getQualifiedName(PackageElement packageElement, String simpleName){
+        return packageElement.isUnnamed() ? simpleName : packageElement.getQualifiedName() + "." + simpleName;
+    }
+
+    /**
+     * Appends the package declaration of a generated source file.
+     *
+     * @param source the source.
+     * @param packageElement the package.
+     */
+    private void appendPackage(StringBuilder source, PackageElement packageElement){
+        if (!packageElement.isUnnamed()){
+            source.append("package ").append(packageElement.getQualifiedName()).append(";\n\n");
+        }
+    }
+}
@@ -2,6 +2,7 @@ package es.sandwatch.trim.sample.model;
 
 import es.sandwatch.trim.annotation.CollectionGenericType;
 import es.sandwatch.trim.annotation.Endpoint;
+import es.sandwatch.trim.annotation.Paginated;
 
 import java.util.Collection;
 
@@ -9,6 +10,7 @@ import java.util.Collection;
  * A model representing a list of categories.
  */
 @Endpoint("http://app.tndata.org/api/categories/")
+@Paginated(maxPages = 5)
 public class CategoryList{
     private String next;
     @CollectionGenericType(Category.class)
@@ -0,0 +1,156 @@
+package es.sandwatch.trim;
+
+import es.sandwatch.trim.annotation.ArraySampling;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Decides which array items are inspected while reading a JSON document. Samplers are stateless,
+ * so a single instance can be shared by every array in every document. Their string form
+ * identifies the strategy and size, so it can be used as part of a cache key.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+abstract class ArraySampler{
+    /**
+     * The sampler used when nothing else is specified, inspects every item.
+     */
+    static final ArraySampler ALL = new ArraySampler(){
+        @Override
+        int slotFor(int index){
+            return 0;
+        }
+
+        @Override
+        public String toString(){
+            return "all";
+        }
+    };
+
+
+    /**
+     * Creates a sampler.
+     *
+     * @param strategy the sampling strategy.
+     * @param size the number of items to inspect per array, ignored by ALL.
+     * @return the sampler.
+     */
+    static @NotNull ArraySampler create(@NotNull ArraySampling.Strategy strategy, int size){
+        if (strategy != ArraySampling.Strategy.ALL && size < 1){
+            throw new IllegalArgumentException("Array sampling size must be at least 1, got " + size);
+        }
+        switch (strategy){
+            case FIRST_N:
+                return new FirstSampler(size);
+
+            case RESERVOIR:
+                return new ReservoirSampler(size);
+
+            default:
+                return ALL;
+        }
+    }
+
+    /**
+     * Creates a sampler from a model's annotation.
+     *
+     * @param annotation the annotation in the model.
+     * @return the sampler.
+     */
+    static @NotNull ArraySampler create(@NotNull ArraySampling annotation){
+        return create(annotation.value(), annotation.size());
+    }
+
+    /**
+     * Decides what to do with an array item. Items sharing a slot are merged as they are read,
+     * unless the sampler keeps slots, in which case an item replaces the one in its slot.
+     *
+     * @param index the index of the item in its array.
+     * @return the slot where the item's shape goes, or -1 if the item should be skipped.
+     */
+    abstract int slotFor(int index);
+
+    /**
+     * Tells whether items replace the item held in their slot rather than being merged into it.
+     *
+     * @return true if items replace each other, false if they are merged.
+     */
+    boolean keepsSlots(){
+        return false;
+    }
+
+
+    /**
+     * Inspects the first N items.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class FirstSampler extends ArraySampler{
+        private final int size;
+
+
+        /**
+         * Constructor.
+         *
+         * @param size the number of items to inspect.
+         */
+        private FirstSampler(int size){
+            this.size = size;
+        }
+
+        @Override
+        int slotFor(int index){
+            return index < size ? 0 : -1;
+        }
+
+        @Override
+        public String toString(){
+            return "first-" + size;
+        }
+    }
+
+
+    /**
+     * Inspects N items chosen uniformly at random using reservoir sampling, so that arrays of any
+     * length only ever hold N item shapes in memory.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class ReservoirSampler extends ArraySampler{
+        private final int size;
+
+
+        /**
+         * Constructor.
+         *
+         * @param size the number of items to inspect.
+         */
+        private ReservoirSampler(int size){
+            this.size = size;
+        }
+
+        @Override
+        int slotFor(int index){
+            if (index < size){
+                return index;
+            }
+            int slot = ThreadLocalRandom.current().nextInt(index + 1);
+            return slot < size ? slot : -1;
+        }
+
+        @Override
+        boolean keepsSlots(){
+            return true;
+        }
+
+        @Override
+        public String toString(){
+            return "reservoir-" + size;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+
+/**
+ * Process wide pool of the fixed size buffers response bodies are collected in. Bodies grow a
+ * buffer at a time instead of being copied into ever larger arrays, and their buffers go back to
+ * the pool once the response has been analyzed, so steady runs hardly allocate any. Buffers are
+ * heap buffers, so that the parser can scan their backing arrays in place. Only a bounded number
+ * of idle buffers is kept; the rest are left to the garbage collector.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+final class BufferPool{
+    /**
+     * The size of every buffer.
+     */
+    static final int BUFFER_SIZE = 64*1024;
+
+    /**
+     * The maximum number of idle buffers kept, 16 MiB worth of them.
+     */
+    private static final int MAX_IDLE = 256;
+
+    private static final Deque<ByteBuffer> idle = new ArrayDeque<>();
+
+
+    /**
+     * Takes a buffer from the pool, or creates one if the pool is empty.
+     *
+     * @return an empty buffer, BUFFER_SIZE bytes long.
+     */
+    static @NotNull ByteBuffer acquire(){
+        ByteBuffer buffer;
+        synchronized (BufferPool.class){
+            buffer = idle.poll();
+        }
+        if (buffer == null){
+            return ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        //Through Buffer, so that it links against the Java 8 signatures
+        ((Buffer)buffer).clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer, and any view of it, must not be used afterwards.
+     *
+     * @param buffer the buffer, taken from the pool.
+     */
+    static void release(@NotNull ByteBuffer buffer){
+        synchronized (BufferPool.class){
+            if (idle.size() < MAX_IDLE){
+                idle.push(buffer);
+            }
+        }
+    }
+
+
+    /**
+     * Constructor. Not instantiable.
+     */
+    private BufferPool(){
+
+    }
+}
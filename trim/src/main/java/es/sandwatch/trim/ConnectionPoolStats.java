@@ -0,0 +1,74 @@
+package es.sandwatch.trim;
+
+
+/**
+ * The use the connection pool saw during a run. Leased and pending connections are sampled as
+ * requests go out and come back, so the peaks are those seen at those points.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+public final class ConnectionPoolStats{
+    private final int max;
+    private final int available;
+    private final int peakLeased;
+    private final int peakPending;
+
+
+    /**
+     * Constructor.
+     *
+     * @param max the most connections the pool can hold.
+     * @param available the idle connections kept alive at the end of the run.
+     * @param peakLeased the most connections seen in use at once.
+     * @param peakPending the most requests seen waiting for a connection at once.
+     */
+    ConnectionPoolStats(int max, int available, int peakLeased, int peakPending){
+        this.max = max;
+        this.available = available;
+        this.peakLeased = peakLeased;
+        this.peakPending = peakPending;
+    }
+
+    /**
+     * Max getter.
+     *
+     * @return the most connections the pool can hold.
+     */
+    public int getMax(){
+        return max;
+    }
+
+    /**
+     * Available getter.
+     *
+     * @return the idle connections kept alive at the end of the run.
+     */
+    public int getAvailable(){
+        return available;
+    }
+
+    /**
+     * Peak leased getter.
+     *
+     * @return the most connections seen in use at once.
+     */
+    public int getPeakLeased(){
+        return peakLeased;
+    }
+
+    /**
+     * Peak pending getter.
+     *
+     * @return the most requests seen waiting for a connection at once.
+     */
+    public int getPeakPending(){
+        return peakPending;
+    }
+
+    @Override
+    public String toString(){
+        return "Max: " + max + ", available: " + available + ", peak leased: " + peakLeased
+                + ", peak pending: " + peakPending;
+    }
+}
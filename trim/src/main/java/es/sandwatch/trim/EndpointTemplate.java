@@ -0,0 +1,184 @@
+package es.sandwatch.trim;
+
+import es.sandwatch.trim.annotation.Endpoint;
+import es.sandwatch.trim.annotation.Parameters;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Describes an endpoint given as a URI template, whose only variable is expanded with every value
+ * of a parameter source into the concrete addresses to hit. Values are percent encoded as in
+ * simple string expansion, so every character but unreserved ones is encoded.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class EndpointTemplate{
+    /**
+     * Creates a template from a model's endpoint and annotation.
+     *
+     * @param endpoint the model's endpoint.
+     * @param annotation the annotation in the model.
+     * @return the template.
+     */
+    static @NotNull EndpointTemplate create(@NotNull String endpoint, @NotNull Parameters annotation){
+        return new EndpointTemplate(endpoint, annotation.name(), Arrays.asList(annotation.values()),
+                annotation.file().isEmpty() ? null : new File(annotation.file()),
+                annotation.from() == Void.class ? null : annotation.from(), annotation.path(), annotation.maxValues());
+    }
+
+
+    private final String template;
+    private final String variable;
+    private final List<String> values;
+    private final File file;
+    private final Class<?> sourceModel;
+    private final String[] path;
+    private final int maxValues;
+
+
+    /**
+     * Constructor. Exactly one of the sources must be set, and a source model's endpoint can't be a
+     * template itself.
+     *
+     * @param template the template.
+     * @param name the name of the template's variable.
+     * @param values the values listed inline, empty if they come from elsewhere.
+     * @param file the file listing the values, or null if they come from elsewhere.
+     * @param sourceModel the model whose endpoint's response holds the values, or null if they come from elsewhere.
+     * @param path the dot separated path of the fields holding the values in the source model's response.
+     * @param maxValues the maximum number of values to expand the template with.
+     */
+    EndpointTemplate(@NotNull String template, @NotNull String name, @NotNull List<String> values, @Nullable File file,
+                     @Nullable Class<?> sourceModel, @NotNull String path, int maxValues){
+
+        if (maxValues < 1){
+            throw new IllegalArgumentException("maxValues must be at least 1, got " + maxValues);
+        }
+        if ((values.isEmpty() ? 0 : 1) + (file == null ? 0 : 1) + (sourceModel == null ? 0 : 1) != 1){
+            throw new IllegalArgumentException("The parameters of " + template + " need exactly one source");
+        }
+        if (sourceModel != null && sourceModel.getAnnotation(Endpoint.class) == null){
+            throw new IllegalArgumentException("The source of the parameters of " + template + ", " + sourceModel
+                    + ", has no endpoint");
+        }
+        if (sourceModel != null && sourceModel.getAnnotation(Parameters.class) != null){
+            throw new IllegalArgumentException("The source of the parameters of " + template + ", " + sourceModel
+                    + ", is a template itself");
+        }
+        String variable = "{" + name + "}";
+        if (!template.contains(variable)){
+            throw new IllegalArgumentException("The endpoint " + template + " has no variable " + variable);
+        }
+        if (template.replace(variable, "").matches(".*[{}].*")){
+            throw new IllegalArgumentException("The endpoint " + template + " has variables other than " + variable);
+        }
+        this.template = template;
+        this.variable = variable;
+        this.values = values;
+        this.file = file;
+        this.sourceModel = sourceModel;
+        this.path = path.split("\\.");
+        this.maxValues = maxValues;
+    }
+
+    /**
+     * Source model getter.
+     *
+     * @return the model whose endpoint's response holds the values, or null if they are listed.
+     */
+    @Nullable Class<?> getSourceModel(){
+        return sourceModel;
+    }
+
+    /**
+     * Gets the values listed inline or in the file.
+     *
+     * @return the values, without blank lines or lines starting with a #.
+     * @throws UncheckedIOException if the file can't be read.
+     */
+    @NotNull List<String> getListedValues(){
+        if (file == null){
+            return values;
+        }
+        List<String> listed = new ArrayList<>();
+        try{
+            for (String line:Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)){
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")){
+                    listed.add(line);
+                }
+            }
+        }
+        catch (IOException iox){
+            throw new UncheckedIOException("Can't read the parameters of " + template + " in " + file, iox);
+        }
+        return listed;
+    }
+
+    /**
+     * Finds the values in the source model's response, reading no further than needed to find the
+     * maximum.
+     *
+     * @param body the body of the response.
+     * @return the distinct values of the fields at the path that are neither objects nor null, as
+     *         written and in document order, or an empty list if the body turns out not to be well
+     *         formed JSON before the maximum is reached.
+     */
+    @NotNull List<String> findValues(@NotNull ResponseBody body){
+        return Parser.findValues(body, path, maxValues);
+    }
+
+    /**
+     * Expands the template with every value, skipping repeated values, up to the maximum.
+     *
+     * @param values the values.
+     * @return the addresses, one per distinct value.
+     */
+    @NotNull List<String> getUrls(@NotNull List<String> values){
+        Set<String> urls = new LinkedHashSet<>();
+        for (String value:values){
+            if (urls.size() == maxValues){
+                break;
+            }
+            urls.add(template.replace(variable, encode(value)));
+        }
+        return new ArrayList<>(urls);
+    }
+
+    /**
+     * Percent encodes every character of a value but unreserved ones, letters, digits, dashes,
+     * dots, underscores and tildes.
+     *
+     * @param value the value.
+     * @return the encoded value.
+     */
+    private static @NotNull String encode(@NotNull String value){
+        StringBuilder encoded = new StringBuilder();
+        for (byte b:value.getBytes(StandardCharsets.UTF_8)){
+            char c = (char)(b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '.' || c == '_' || c == '~'){
+
+                encoded.append(c);
+            }
+            else{
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            }
+        }
+        return encoded.toString();
+    }
+}
@@ -0,0 +1,164 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.Map;
+
+
+/**
+ * Something that happened during a run, delivered to the {@link Trim.EventListener} set in the
+ * specification. Events are only created when there's a listener. Fields that don't apply to an
+ * event's type are null, -1 or empty.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+public final class Event{
+    /**
+     * The types of events.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    public enum Type{
+        /**
+         * A request is about to be sent. Carries the address and the headers.
+         */
+        REQUEST_SENT,
+
+        /**
+         * A response was received, or the request failed, in which case the status code is -1.
+         * Carries the address, the status code, the time the request took and the bytes on the wire.
+         */
+        RESPONSE_RECEIVED,
+
+        /**
+         * A response was parsed. Carries the time parsing took.
+         */
+        RESPONSE_PARSED,
+
+        /**
+         * The report of an endpoint was built. Carries the time building it took.
+         */
+        ENDPOINT_REPORTED
+    }
+
+
+    private final Type type;
+    private final Class<?> model;
+    private final String url;
+    private final Map<String, String> headers;
+    private final int statusCode;
+    private final long nanos;
+    private final long bytes;
+
+
+    /**
+     * Constructor.
+     *
+     * @param type the type of the event.
+     * @param model the model whose endpoint the event is about.
+     * @param url the address of the request, or null if the event isn't about one.
+     * @param headers the headers of the request.
+     * @param statusCode the status code of the response, or -1.
+     * @param nanos the time it took, in nanoseconds, or -1.
+     * @param bytes the number of bytes of the response on the wire, or -1.
+     */
+    Event(@NotNull Type type, @NotNull Class<?> model, @Nullable String url, @NotNull Map<String, String> headers,
+          int statusCode, long nanos, long bytes){
+
+        this.type = type;
+        this.model = model;
+        this.url = url;
+        this.headers = Collections.unmodifiableMap(headers);
+        this.statusCode = statusCode;
+        this.nanos = nanos;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Type getter.
+     *
+     * @return the type of the event.
+     */
+    public @NotNull Type getType(){
+        return type;
+    }
+
+    /**
+     * Model getter.
+     *
+     * @return the model whose endpoint the event is about.
+     */
+    public @NotNull Class<?> getModel(){
+        return model;
+    }
+
+    /**
+     * Url getter.
+     *
+     * @return the address of the request, or null if the event isn't about one.
+     */
+    public @Nullable String getUrl(){
+        return url;
+    }
+
+    /**
+     * Headers getter.
+     *
+     * @return the headers of the request, empty if the event isn't about one being sent.
+     */
+    public @NotNull Map<String, String> getHeaders(){
+        return headers;
+    }
+
+    /**
+     * Status code getter.
+     *
+     * @return the status code of the response, or -1 if there's none.
+     */
+    public int getStatusCode(){
+        return statusCode;
+    }
+
+    /**
+     * Nanos getter.
+     *
+     * @return the time it took, in nanoseconds, or -1 if the event isn't about something timed.
+     */
+    public long getNanos(){
+        return nanos;
+    }
+
+    /**
+     * Bytes getter.
+     *
+     * @return the number of bytes of the response on the wire, or -1 if the event isn't about one.
+     */
+    public long getBytes(){
+        return bytes;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder result = new StringBuilder().append(type).append(" model=").append(model.getName());
+        if (url != null){
+            result.append(" url=").append(url);
+        }
+        for (Map.Entry<String, String> header:headers.entrySet()){
+            result.append(" header.").append(header.getKey()).append("=").append(header.getValue());
+        }
+        if (statusCode != -1){
+            result.append(" status=").append(statusCode);
+        }
+        if (nanos != -1){
+            result.append(" time=").append(RequestTiming.format(nanos));
+        }
+        if (bytes != -1){
+            result.append(" bytes=").append(bytes);
+        }
+        return result.toString();
+    }
+}
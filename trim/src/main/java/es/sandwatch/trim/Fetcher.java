@@ -1,19 +1,43 @@
 package es.sandwatch.trim;
 
-import es.sandwatch.trim.annotation.Endpoint;
 import es.sandwatch.trim.annotation.Header;
 import es.sandwatch.trim.annotation.Headers;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.*;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.ssl.SSLContexts;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -22,30 +46,138 @@ import java.util.Map;
  * @author Ismael Alonso
  * @version 1.0.0
  */
-class Fetcher{
+class Fetcher implements ResponseSource{
+    /**
+     * Time after which an idle pooled connection is checked before being reused, in milliseconds.
+     */
+    private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+
+    /**
+     * The size of the buffer used to read response bodies.
+     */
+    private static final int BUFFER_SIZE = 16384;
+
+    /**
+     * The status code of throttled requests, missing from {@link HttpStatus}.
+     */
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * The longest a throttled host is waited for, in milliseconds, whatever its Retry-After says.
+     */
+    private static final long MAX_RETRY_AFTER = 120000;
+
+
     private Map<String, String> headers;
-    private HttpClient client;
+    private long spillThreshold;
+    private long maxResponseSize;
+    private File spillDirectory;
+    private ResponseCache responseCache;
+    private Trim.EventListener listener;
+    private HostThrottle throttle;
+    private int maxRetries;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient client;
+
+    /**
+     * The most connections seen leased and requests seen waiting for one at once.
+     */
+    private final AtomicInteger peakLeased = new AtomicInteger();
+    private final AtomicInteger peakPending = new AtomicInteger();
 
 
     /**
      * Constructor.
      *
-     * @param headers the headers that are common to all requests.
+     * @param specification the specification containing the common headers and transport settings.
+     * @param responseCache the cache to revalidate and store responses in, or null to always download them.
+     */
+    Fetcher(@NotNull Specification specification, @Nullable ResponseCache responseCache){
+        this.headers = specification.getHeaders();
+        this.responseCache = responseCache;
+        this.listener = specification.getEventListener();
+        this.spillThreshold = specification.getSpillThreshold();
+        this.maxResponseSize = specification.getMaxResponseSize();
+        this.spillDirectory = specification.getSpillDirectory();
+        this.throttle = new HostThrottle(specification.getMaxConnectionsPerHost(), specification.getRateLimit(),
+                specification.getRateBurst());
+        this.maxRetries = specification.getMaxRetries();
+
+        //Connections are pooled per host and kept alive between requests. Resolving, connecting and
+        //  the handshake are timed as connections are established
+        connectionManager = new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", new TimedPlainSocketFactory())
+                .register("https", new TimedSslSocketFactory())
+                .build(), new TimedDnsResolver());
+        connectionManager.setMaxTotal(specification.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(specification.getMaxConnectionsPerHost());
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(specification.getConnectTimeout())
+                .setSocketTimeout(specification.getReadTimeout())
+                .setConnectionRequestTimeout(specification.getPoolTimeout())
+                .build();
+
+        HttpClientBuilder builder = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(new KeepAliveStrategy(specification.getKeepAlive()))
+                .setRequestExecutor(new TimedRequestExecutor())
+                .addInterceptorFirst(new WireBytesInterceptor())
+                .evictExpiredConnections()
+                .evictIdleConnections(specification.getKeepAlive(), TimeUnit.MILLISECONDS);
+
+        //Gzip and deflate responses are requested and decoded transparently unless disabled
+        if (!specification.isCompressionEnabled()){
+            builder.disableContentCompression();
+        }
+        client = builder.build();
+    }
+
+    /**
+     * Gets the use the connection pool saw so far, across all hosts.
+     *
+     * @return the size of the pool, its idle connections and the peaks of leased and pending connections.
+     */
+    @Override
+    public @NotNull ConnectionPoolStats getPoolStats(){
+        PoolStats totals = connectionManager.getTotalStats();
+        return new ConnectionPoolStats(totals.getMax(), totals.getAvailable(), peakLeased.get(), peakPending.get());
+    }
+
+    /**
+     * Samples the connection pool, keeping the peaks of leased and pending connections.
      */
-    Fetcher(@NotNull Map<String, String> headers){
-        this.headers = headers;
-        client = HttpClientBuilder.create().build();
+    private void samplePool(){
+        PoolStats totals = connectionManager.getTotalStats();
+        peakLeased.accumulateAndGet(totals.getLeased(), Math::max);
+        peakPending.accumulateAndGet(totals.getPending(), Math::max);
+    }
+
+    /**
+     * Closes the client and every pooled connection.
+     */
+    @Override
+    public void close(){
+        try{
+            client.close();
+        }
+        catch (IOException iox){
+            iox.printStackTrace();
+        }
     }
 
     /**
-     * Hits an endpoint and returns the result.
+     * Hits an address on behalf of a model's endpoint, such as one of its pages, and returns the result.
+     * Requests wait for their host's throttle and are retried while the host throttles them.
      *
-     * @param model the model containing endpoint and header data.
+     * @param model the model containing header data.
+     * @param url the address to hit.
      * @return a bundle containing request code and result.
      */
-    @NotNull RequestResult getEndpointData(@NotNull Class<?> model){
-        //Create the request and add all the headers
-        HttpGet request = new HttpGet(model.getAnnotation(Endpoint.class).value());
+    @Override
+    public @NotNull RequestResult getEndpointData(@NotNull Class<?> model, @NotNull String url){
         Map<String, String> headers = new HashMap<>();
         //First, get all headers declared in the model
         Headers headersAnnotation = model.getAnnotation(Headers.class);
@@ -60,39 +192,153 @@ class Fetcher{
                 headers.put(header, this.headers.get(header));
             }
         }
-        //Finally, add the result to the request
+
+        for (int attempt = 0; ; attempt++){
+            RequestResult result;
+            try{
+                HostThrottle.Host host = throttle.acquire(url);
+                try{
+                    result = execute(model, url, headers, host);
+                }
+                finally{
+                    host.release();
+                }
+            }
+            catch (InterruptedException ix){
+                Thread.currentThread().interrupt();
+                return new RequestResult();
+            }
+
+            if (attempt == maxRetries || !isThrottled(result.getStatusCode())){
+                return result;
+            }
+
+            //A Retry-After holds the whole host in the throttle, so this waits for the longer of the two
+            result.release();
+            try{
+                TimeUnit.NANOSECONDS.sleep(HostThrottle.getBackoff(attempt));
+            }
+            catch (InterruptedException ix){
+                Thread.currentThread().interrupt();
+                return new RequestResult();
+            }
+        }
+    }
+
+    /**
+     * Performs a single request and lets the throttle of its host know how the host took it.
+     *
+     * @param model the model whose endpoint is being hit.
+     * @param url the address to hit.
+     * @param headers the headers of the request.
+     * @param host the throttle state of the host.
+     * @return a bundle containing request code and result.
+     */
+    private @NotNull RequestResult execute(@NotNull Class<?> model, @NotNull String url,
+                                           @NotNull Map<String, String> headers, @NotNull HostThrottle.Host host){
+
+        //Create the request and add all the headers
+        HttpGet request = new HttpGet(url);
         for (String header:headers.keySet()){
-            System.out.println(header + " -> " + headers.get(header));
             request.addHeader(header, headers.get(header));
         }
+        if (listener != null){
+            listener.onEvent(new Event(Event.Type.REQUEST_SENT, model, url, headers, -1, -1, -1));
+        }
+
+        //If there's a cached response, ask the server whether it is still good
+        String cacheKey = null;
+        ResponseCache.Entry cached = null;
+        if (responseCache != null){
+            cacheKey = ResponseCache.createKey(url, headers);
+            cached = responseCache.lookup(cacheKey);
+            if (cached != null){
+                if (cached.getEtag() != null){
+                    request.addHeader(HttpHeaders.IF_NONE_MATCH, cached.getEtag());
+                }
+                if (cached.getLastModified() != null){
+                    request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified());
+                }
+            }
+        }
 
         RequestResult result = null;
-        BufferedReader reader = null;
+        CloseableHttpResponse response = null;
+        InputStream content = null;
+        ResponseBody.Builder bodyBuilder = new ResponseBody.Builder(spillThreshold, maxResponseSize, spillDirectory);
+        RequestTiming timing = RequestTiming.start();
+        long sentAt = System.nanoTime();
         try{
-            long startTime = System.currentTimeMillis();
-            //Execute the request and create the reader
-            HttpResponse response = client.execute(request);
-            reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
+            //Execute the request and read the raw bytes of the body, sampling the pool on both sides of the wait
+            samplePool();
+            response = client.execute(request);
+            samplePool();
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (isThrottled(statusCode)){
+                host.onThrottled(sentAt, getRetryAfter(response));
+            }
+            else{
+                host.onAccepted();
+            }
 
-            //Fetch the result
-            StringBuilder stringBuilder = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null){
-                stringBuilder.append(line);
+            HttpEntity entity = response.getEntity();
+            long decodedBytes = 0;
+            if (entity != null){
+                content = entity.getContent();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = content.read(buffer)) != -1){
+                    decodedBytes += read;
+                    if (!bodyBuilder.write(buffer, 0, read)){
+                        //Past the size cap, drop the connection rather than draining the rest
+                        request.abort();
+                        break;
+                    }
+                }
             }
 
-            float timeSecs = (System.currentTimeMillis() - startTime)/1000f;
+            timing.finish(decodedBytes);
 
             //Create the result bundle
-            result = new RequestResult(timeSecs, response.getStatusLine().getStatusCode(), stringBuilder.toString());
+            if (statusCode == HttpStatus.SC_NOT_MODIFIED && cached != null){
+                result = new RequestResult(timing, cached.getStatusCode(), cached.getBody(), false, cacheKey, false,
+                        true);
+            }
+            else{
+                String contentType = getHeader(response, HttpHeaders.CONTENT_TYPE);
+                ResponseBody body = bodyBuilder.build(ResponseBody.charsetOf(contentType));
+                boolean truncated = bodyBuilder.isTruncated();
+                boolean stored = false;
+                if (responseCache != null && statusCode/100 == 2 && !truncated){
+                    //Only responses that can be revalidated are worth caching
+                    String etag = getHeader(response, HttpHeaders.ETAG);
+                    String lastModified = getHeader(response, HttpHeaders.LAST_MODIFIED);
+                    if (etag != null || lastModified != null){
+                        stored = responseCache.store(cacheKey, url, statusCode, etag, lastModified, body);
+                    }
+                }
+                result = new RequestResult(timing, statusCode, body, truncated, cacheKey, stored, false);
+            }
         }
         catch (IOException iox){
             iox.printStackTrace();
         }
         finally{
-            if (reader != null){
+            RequestTiming.unbind();
+            //Closing the fully read content returns the connection to the pool, closing the
+            //  response afterwards only discards the connection if something went wrong
+            bodyBuilder.close();
+            if (content != null){
                 try{
-                    reader.close();
+                    content.close();
+                }
+                catch (IOException iox){
+                    iox.printStackTrace();
+                }
+            }
+            if (response != null){
+                try{
+                    response.close();
                 }
                 catch (IOException iox){
                     iox.printStackTrace();
@@ -109,112 +355,250 @@ class Fetcher{
 
 
     /**
-     * Class containing the relevant information about the result of an HTTP request.
+     * Tells whether a status code means that the host is throttling requests.
+     *
+     * @param statusCode the status code.
+     * @return true if it is 429 Too Many Requests or 503 Service Unavailable, false otherwise.
+     */
+    private static boolean isThrottled(int statusCode){
+        return statusCode == TOO_MANY_REQUESTS || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE;
+    }
+
+    /**
+     * Gets how long a response asks to wait before retrying. Retry-After is either a number of
+     * seconds or a date; waits longer than the cap are cut down to it so that a run can't stall.
+     *
+     * @param response the response.
+     * @return the time to wait, in nanoseconds, or 0 if the response doesn't say.
+     */
+    private static long getRetryAfter(@NotNull HttpResponse response){
+        String value = getHeader(response, HttpHeaders.RETRY_AFTER);
+        if (value == null){
+            return 0;
+        }
+        long millis;
+        try{
+            millis = TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        }
+        catch (NumberFormatException nfx){
+            Date date = DateUtils.parseDate(value.trim());
+            if (date == null){
+                return 0;
+            }
+            millis = date.getTime() - System.currentTimeMillis();
+        }
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, Math.min(MAX_RETRY_AFTER, millis)));
+    }
+
+    /**
+     * Gets the value of a response header.
+     *
+     * @param response the response.
+     * @param name the name of the header.
+     * @return the value of the first header with the given name, or null if there's none.
+     */
+    private static @Nullable String getHeader(@NotNull HttpResponse response, @NotNull String name){
+        org.apache.http.Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+
+    /**
+     * Times the resolution of host addresses.
      *
      * @author Ismael Alonso
      * @version 1.0.0
      */
-    class RequestResult{
-        private final float requestTime;
-        private final int statusCode;
-        private final String response;
+    private static class TimedDnsResolver implements DnsResolver{
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException{
+            long start = System.nanoTime();
+            try{
+                return SystemDefaultDnsResolver.INSTANCE.resolve(host);
+            }
+            finally{
+                RequestTiming timing = RequestTiming.current();
+                if (timing != null){
+                    timing.addPhase(RequestTiming.Phase.DNS, System.nanoTime() - start);
+                }
+            }
+        }
+    }
 
 
-        /**
-         * Constructor. Call if the request failed.
-         */
-        private RequestResult(){
-            this(0F, -1, "Request failed");
-        }
+    /**
+     * Times the establishment of plain connections.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class TimedPlainSocketFactory extends PlainConnectionSocketFactory{
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+                                    InetSocketAddress localAddress, HttpContext context) throws IOException{
 
-        /**
-         * Constructor. Call if the request got through to the server.
-         *
-         * @param requestTime the time that took to complete the request.
-         * @param statusCode the status code of the request.
-         * @param response the response to the request.
-         */
-        private RequestResult(float requestTime, int statusCode, @NotNull String response){
-            this.requestTime = requestTime;
-            this.statusCode = statusCode;
-            this.response = response;
+            long start = System.nanoTime();
+            try{
+                return super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+            }
+            finally{
+                RequestTiming timing = RequestTiming.current();
+                if (timing != null){
+                    timing.addPhase(RequestTiming.Phase.CONNECT, System.nanoTime() - start);
+                }
+            }
         }
+    }
 
-        /**
-         * Request time getter.
-         *
-         * @return the time that took to complete the request.
-         */
-        float getRequestTime(){
-            return requestTime;
-        }
 
+    /**
+     * Times the establishment of TLS connections, telling the TCP connection and the handshake apart.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class TimedSslSocketFactory extends SSLConnectionSocketFactory{
         /**
-         * Tells whether the request failed before it was sent.
-         *
-         * @return true if the request failed, false otherwise.
+         * Constructor. Uses the same context and host name verification as the client's default factory.
          */
-        boolean requestFailed(){
-            return statusCode == -1;
+        private TimedSslSocketFactory(){
+            super(SSLContexts.createDefault(), getDefaultHostnameVerifier());
         }
 
-        /**
-         * Tells whether the request yielded a 2xx status code.
-         *
-         * @return true if the request yielded a 2xx status code, false otherwise.
-         */
-        boolean is2xx(){
-            return statusCode >= 200 && statusCode < 300;
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+                                    InetSocketAddress localAddress, HttpContext context) throws IOException{
+
+            RequestTiming timing = RequestTiming.current();
+            long handshakes = timing == null ? 0 : timing.getPhase(RequestTiming.Phase.TLS);
+            long start = System.nanoTime();
+            try{
+                return super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+            }
+            finally{
+                if (timing != null){
+                    //The handshake happens within, and is timed on its own
+                    long handshake = timing.getPhase(RequestTiming.Phase.TLS) - handshakes;
+                    timing.addPhase(RequestTiming.Phase.CONNECT, System.nanoTime() - start - handshake);
+                }
+            }
         }
 
-        /**
-         * Tells whether the request yielded a 3xx status code.
-         *
-         * @return true if the request yielded a 3xx status code, false otherwise.
-         */
-        boolean is3xx(){
-            return statusCode >= 300 && statusCode < 400;
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+                throws IOException{
+
+            long start = System.nanoTime();
+            try{
+                return super.createLayeredSocket(socket, target, port, context);
+            }
+            finally{
+                RequestTiming timing = RequestTiming.current();
+                if (timing != null){
+                    timing.addPhase(RequestTiming.Phase.TLS, System.nanoTime() - start);
+                }
+            }
         }
+    }
 
-        /**
-         * Tells whether the request yielded a 4xx status code.
-         *
-         * @return true if the request yielded a 4xx status code, false otherwise.
-         */
-        boolean is4xx(){
-            return statusCode >= 400 && statusCode < 500;
+
+    /**
+     * Marks when requests start being sent and when the heads of responses are received.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class TimedRequestExecutor extends HttpRequestExecutor{
+        @Override
+        protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection connection, HttpContext context)
+                throws IOException, HttpException{
+
+            RequestTiming timing = RequestTiming.current();
+            if (timing != null){
+                timing.markSendStart();
+            }
+            return super.doSendRequest(request, connection, context);
         }
 
-        /**
-         * Tells whether the request yielded a 5xx status code.
-         *
-         * @return true if the request yielded a 5xx status code, false otherwise.
-         */
-        boolean is5xx(){
-            return statusCode >= 500 && statusCode < 600;
+        @Override
+        protected HttpResponse doReceiveResponse(HttpRequest request, HttpClientConnection connection,
+                                                 HttpContext context) throws IOException, HttpException{
+
+            HttpResponse response = super.doReceiveResponse(request, connection, context);
+            RequestTiming timing = RequestTiming.current();
+            if (timing != null){
+                timing.markHeadReceived();
+            }
+            return response;
         }
+    }
 
-        /**
-         * Status code getter.
-         *
-         * @return the status code.
-         */
-        int getStatusCode(){
-            return statusCode;
+
+    /**
+     * Counts the bytes of response bodies as they come from the connection. Runs before the client
+     * decompresses bodies, so the count is the size of the body on the wire.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class WireBytesInterceptor implements HttpResponseInterceptor{
+        @Override
+        public void process(HttpResponse response, HttpContext context){
+            RequestTiming timing = RequestTiming.current();
+            HttpEntity entity = response.getEntity();
+            if (timing != null && entity != null){
+                response.setEntity(new HttpEntityWrapper(entity){
+                    @Override
+                    public InputStream getContent() throws IOException{
+                        return new FilterInputStream(super.getContent()){
+                            @Override
+                            public int read() throws IOException{
+                                int read = super.read();
+                                if (read != -1){
+                                    timing.addWireBytes(1);
+                                }
+                                return read;
+                            }
+
+                            @Override
+                            public int read(@NotNull byte[] buffer, int offset, int length) throws IOException{
+                                int read = super.read(buffer, offset, length);
+                                if (read > 0){
+                                    timing.addWireBytes(read);
+                                }
+                                return read;
+                            }
+                        };
+                    }
+                });
+            }
         }
+    }
+
+
+    /**
+     * Keeps connections alive for as long as the server says, or for a default time if it doesn't.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class KeepAliveStrategy extends DefaultConnectionKeepAliveStrategy{
+        private final long defaultKeepAlive;
+
 
         /**
-         * Response getter.
+         * Constructor.
          *
-         * @return the response
+         * @param defaultKeepAlive the keep alive time when the server doesn't set one, in milliseconds.
          */
-        @NotNull String getResponse(){
-            return response;
+        private KeepAliveStrategy(long defaultKeepAlive){
+            this.defaultKeepAlive = defaultKeepAlive;
         }
 
         @Override
-        public String toString() {
-            return "Status code: " + statusCode + ", response: " + response;
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context){
+            long keepAlive = super.getKeepAliveDuration(response, context);
+            return keepAlive > 0 ? keepAlive : defaultKeepAlive;
         }
     }
 }
@@ -0,0 +1,66 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The fields of a model, resolved at build time by the Trim annotation processor exactly as they
+ * would be by reflection: fields marked with Skip are left out, names come from AttributeName,
+ * model classes from CollectionGenericType and versions from UnusedSinceVersion, and fields in
+ * superclasses override fields in subclasses mapping to the same attribute.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+public final class GeneratedSchema{
+    private final Class<?> model;
+    private final List<ModelField> fields;
+
+
+    /**
+     * Constructor.
+     *
+     * @param model the model class.
+     */
+    public GeneratedSchema(@NotNull Class<?> model){
+        this.model = model;
+        this.fields = new ArrayList<>();
+    }
+
+    /**
+     * Adds a field to the schema.
+     *
+     * @param name the name of the API attribute the field maps to.
+     * @param type the declared type of the field.
+     * @param modelClass the class describing the field's own attributes, null if they aren't inspected.
+     * @param unusedSinceVersion the version since which the field is unused, -1 if it is in use.
+     * @return this object.
+     */
+    public @NotNull GeneratedSchema addField(@NotNull String name, @NotNull Class<?> type,
+                                             @Nullable Class<?> modelClass, int unusedSinceVersion){
+        fields.add(new ModelField(name, type, modelClass, unusedSinceVersion));
+        return this;
+    }
+
+    /**
+     * Model getter.
+     *
+     * @return the model class.
+     */
+    @NotNull Class<?> getModel(){
+        return model;
+    }
+
+    /**
+     * Fields getter.
+     *
+     * @return the fields of the model and its superclasses.
+     */
+    @NotNull List<ModelField> getFields(){
+        return fields;
+    }
+}
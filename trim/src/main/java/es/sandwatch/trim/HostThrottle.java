@@ -0,0 +1,199 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Schedules the requests to every host so that runs don't get throttled. Every host has its own
+ * token bucket, if a rate limit is set, and its own concurrency limit, which adapts to what the
+ * host tolerates: it grows by one request every time a full limit's worth of requests succeeds and
+ * it halves when the host answers 429 or 503, at most once per round of requests, like TCP
+ * congestion control. A Retry-After in such an answer holds every request to the host until then.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class HostThrottle{
+    /**
+     * The base and cap of the backoff between retries when the host doesn't say when to retry.
+     */
+    private static final long BASE_BACKOFF = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(30);
+
+
+    /**
+     * Gets the host an address points to.
+     *
+     * @param url the address.
+     * @return the host and port, or the address itself if it can't be parsed.
+     */
+    static @NotNull String getHost(@NotNull String url){
+        try{
+            URI uri = new URI(url);
+            if (uri.getHost() != null){
+                return uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+            }
+        }
+        catch (URISyntaxException usx){
+            //Fall through and throttle the address on its own
+        }
+        return url;
+    }
+
+    /**
+     * Gets how long to wait before retrying, with full jitter: a random time between zero and an
+     * exponentially growing cap, so that clients throttled at the same time don't retry together.
+     *
+     * @param attempt the number of the attempt that failed, starting at 0.
+     * @return the time to wait, in nanoseconds.
+     */
+    static long getBackoff(int attempt){
+        long cap = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+
+    private final ConcurrentMap<String, Host> hosts;
+    private final int maxConcurrency;
+    private final double rate;
+    private final int burst;
+
+
+    /**
+     * Constructor.
+     *
+     * @param maxConcurrency the maximum number of concurrent requests to a host, where limits start.
+     * @param rate the maximum number of requests per second to a host, or 0 for no limit.
+     * @param burst the number of requests to a host that can be sent at once when it has been idle.
+     */
+    HostThrottle(int maxConcurrency, double rate, int burst){
+        this.hosts = new ConcurrentHashMap<>();
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+    }
+
+    /**
+     * Waits until a request can be sent to the host of an address, and takes a slot and a token.
+     *
+     * @param url the address.
+     * @return the state of the host, which needs to be released once the request is done.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    @NotNull Host acquire(@NotNull String url) throws InterruptedException{
+        Host host = hosts.computeIfAbsent(getHost(url), key -> new Host());
+        host.acquire();
+        return host;
+    }
+
+
+    /**
+     * The scheduling state of a host.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    class Host{
+        private double limit;
+        private int inFlight;
+        private double tokens;
+        private long lastRefill;
+
+        /**
+         * When requests to the host can be sent again after a Retry-After, and when the limit last
+         * decreased, as per {@link System#nanoTime()}.
+         */
+        private long blockedUntil;
+        private long lastDecrease;
+
+
+        /**
+         * Constructor.
+         */
+        private Host(){
+            this.limit = maxConcurrency;
+            this.inFlight = 0;
+            this.tokens = burst;
+            this.lastRefill = System.nanoTime();
+            this.blockedUntil = lastRefill;
+            this.lastDecrease = lastRefill;
+        }
+
+        /**
+         * Waits until a request can be sent, and takes a slot and a token.
+         *
+         * @throws InterruptedException if the thread is interrupted while waiting.
+         */
+        private synchronized void acquire() throws InterruptedException{
+            while (true){
+                long now = System.nanoTime();
+                if (rate > 0){
+                    tokens = Math.min(burst, tokens + (now - lastRefill)*rate/1e9);
+                    lastRefill = now;
+                }
+
+                if (blockedUntil - now > 0){
+                    TimeUnit.NANOSECONDS.timedWait(this, blockedUntil - now);
+                }
+                else if (inFlight >= (int)limit){
+                    //Woken up when a request is released
+                    wait();
+                }
+                else if (rate > 0 && tokens < 1){
+                    TimeUnit.NANOSECONDS.timedWait(this, (long)Math.ceil((1 - tokens)/rate*1e9));
+                }
+                else{
+                    inFlight++;
+                    tokens--;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Gives back the slot of a request once it is done.
+         */
+        synchronized void release(){
+            inFlight--;
+            notifyAll();
+        }
+
+        /**
+         * Lets the scheduler know that the host accepted a request, raising the limit by one over
+         * the course of a full limit's worth of requests.
+         */
+        synchronized void onAccepted(){
+            double before = limit;
+            limit = Math.min(maxConcurrency, limit + 1/limit);
+            if ((int)limit > (int)before){
+                notifyAll();
+            }
+        }
+
+        /**
+         * Lets the scheduler know that the host throttled a request. The limit is halved unless it
+         * already was after the request was sent, since every request in flight at the time is
+         * likely to be throttled too.
+         *
+         * @param sentAt when the request was sent, as per {@link System#nanoTime()}.
+         * @param retryAfter how long the host asked to wait, in nanoseconds, or 0 if it didn't say.
+         */
+        synchronized void onThrottled(long sentAt, long retryAfter){
+            long now = System.nanoTime();
+            if (sentAt - lastDecrease > 0){
+                limit = Math.max(1, limit/2);
+                lastDecrease = now;
+            }
+            if (retryAfter > 0 && now + retryAfter - blockedUntil > 0){
+                blockedUntil = now + retryAfter;
+            }
+        }
+    }
+}
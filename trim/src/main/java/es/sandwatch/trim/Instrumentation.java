@@ -0,0 +1,208 @@
+package es.sandwatch.trim;
+
+import es.sandwatch.trim.annotation.Endpoint;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Feeds the metrics registry and the event listener of a run. Metric handles are looked up once
+ * per endpoint and kept, and events are only created when there's a listener, so with the default
+ * registry and no listener the cost per request is a map lookup and a few no-op calls.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class Instrumentation{
+    private final MetricsRegistry registry;
+    private final Trim.EventListener listener;
+    private final ConcurrentMap<Class<?>, EndpointMetrics> endpoints;
+    private final AtomicInteger inFlight;
+
+
+    /**
+     * Constructor. Registers the run wide gauges.
+     *
+     * @param specification the specification containing the registry and the listener.
+     */
+    Instrumentation(@NotNull Specification specification){
+        this.registry = specification.getMetricsRegistry();
+        this.listener = specification.getEventListener();
+        this.endpoints = new ConcurrentHashMap<>();
+        this.inFlight = new AtomicInteger();
+        registry.gauge("requests.inflight", inFlight::get);
+    }
+
+    /**
+     * Wraps a source of responses so that its requests are measured.
+     *
+     * @param source the source.
+     * @return the measured source, which closes the source when closed.
+     */
+    @NotNull ResponseSource instrument(@NotNull ResponseSource source){
+        return new InstrumentedSource(source, true);
+    }
+
+    /**
+     * Wraps a source of responses that belongs to the caller so that its requests are measured.
+     *
+     * @param source the source.
+     * @return the measured source, which leaves the source open when closed.
+     */
+    @NotNull ResponseSource instrumentShared(@NotNull ResponseSource source){
+        return new InstrumentedSource(source, false);
+    }
+
+    /**
+     * Records the parsing of a response.
+     *
+     * @param model the model whose endpoint's response was parsed.
+     * @param nanos the time parsing took, in nanoseconds.
+     * @param parsed whether the format of the response was understood.
+     */
+    void responseParsed(@NotNull Class<?> model, long nanos, boolean parsed){
+        EndpointMetrics metrics = getMetrics(model);
+        metrics.parseTime.record(nanos);
+        if (!parsed){
+            metrics.parseFailures.increment(1);
+        }
+        if (listener != null){
+            listener.onEvent(new Event(Event.Type.RESPONSE_PARSED, model, null, Collections.<String, String>emptyMap(),
+                    -1, nanos, -1));
+        }
+    }
+
+    /**
+     * Records the building of an endpoint report.
+     *
+     * @param model the model whose report was built.
+     * @param nanos the time building it took, in nanoseconds.
+     */
+    void endpointReported(@NotNull Class<?> model, long nanos){
+        getMetrics(model).reportTime.record(nanos);
+        if (listener != null){
+            listener.onEvent(new Event(Event.Type.ENDPOINT_REPORTED, model, null,
+                    Collections.<String, String>emptyMap(), -1, nanos, -1));
+        }
+    }
+
+    /**
+     * Gets the metric handles of a model's endpoint, creating them the first time.
+     *
+     * @param model the model.
+     * @return the metric handles.
+     */
+    private @NotNull EndpointMetrics getMetrics(@NotNull Class<?> model){
+        EndpointMetrics metrics = endpoints.get(model);
+        if (metrics == null){
+            metrics = endpoints.computeIfAbsent(model,
+                    key -> new EndpointMetrics(registry, key.getAnnotation(Endpoint.class).value()));
+        }
+        return metrics;
+    }
+
+
+    /**
+     * The metric handles of an endpoint.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class EndpointMetrics{
+        private final MetricsRegistry.Counter requests;
+        private final MetricsRegistry.Counter failures;
+        private final MetricsRegistry.Counter bytes;
+        private final MetricsRegistry.Counter parseFailures;
+        private final MetricsRegistry.Timer requestTime;
+        private final MetricsRegistry.Timer parseTime;
+        private final MetricsRegistry.Timer reportTime;
+
+
+        /**
+         * Constructor.
+         *
+         * @param registry the registry to get the handles from.
+         * @param endpoint the endpoint.
+         */
+        private EndpointMetrics(@NotNull MetricsRegistry registry, @NotNull String endpoint){
+            requests = registry.counter("requests", endpoint);
+            failures = registry.counter("requests.failed", endpoint);
+            bytes = registry.counter("bytes.received", endpoint);
+            parseFailures = registry.counter("parse.failed", endpoint);
+            requestTime = registry.timer("request.time", endpoint);
+            parseTime = registry.timer("parse.time", endpoint);
+            reportTime = registry.timer("report.time", endpoint);
+        }
+    }
+
+
+    /**
+     * Source of responses that measures the requests of another one.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private class InstrumentedSource implements ResponseSource{
+        private final ResponseSource source;
+        private final boolean owned;
+
+
+        /**
+         * Constructor.
+         *
+         * @param source the measured source.
+         * @param owned whether the source is closed along with this one.
+         */
+        private InstrumentedSource(@NotNull ResponseSource source, boolean owned){
+            this.source = source;
+            this.owned = owned;
+        }
+
+        @Override
+        public @NotNull RequestResult getEndpointData(@NotNull Class<?> model, @NotNull String url){
+            EndpointMetrics metrics = getMetrics(model);
+            long start = System.nanoTime();
+            inFlight.incrementAndGet();
+            RequestResult result;
+            try{
+                result = source.getEndpointData(model, url);
+            }
+            finally{
+                inFlight.decrementAndGet();
+            }
+
+            //Sources that don't go through the network have no timing of their own
+            RequestTiming timing = result.getTiming();
+            long nanos = timing == RequestTiming.NONE ? System.nanoTime() - start : timing.getTotal();
+            long bytes = timing == RequestTiming.NONE ? result.getBody().length() : timing.getWireBytes();
+            metrics.requests.increment(1);
+            metrics.requestTime.record(nanos);
+            metrics.bytes.increment(bytes);
+            if (result.requestFailed() || result.is4xx() || result.is5xx()){
+                metrics.failures.increment(1);
+            }
+            if (listener != null){
+                listener.onEvent(new Event(Event.Type.RESPONSE_RECEIVED, model, url,
+                        Collections.<String, String>emptyMap(), result.getStatusCode(), nanos, bytes));
+            }
+            return result;
+        }
+
+        @Override
+        public @Nullable ConnectionPoolStats getPoolStats(){
+            return source.getPoolStats();
+        }
+
+        @Override
+        public void close(){
+            if (owned){
+                source.close();
+            }
+        }
+    }
+}
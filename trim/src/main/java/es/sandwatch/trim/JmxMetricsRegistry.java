@@ -0,0 +1,318 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Metrics registry that exposes every metric as an MXBean. Names are
+ * {@code <domain>:type=<Counter|Timer|Gauge>,name=<name>[,endpoint=<endpoint>]}, with the name
+ * and endpoint quoted. Counters are backed by {@link LongAdder}s; timers keep a histogram and
+ * expose their count, mean, max and p50, p90 and p99, in milliseconds.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+public class JmxMetricsRegistry implements MetricsRegistry{
+    /**
+     * The domain of the metrics when none is given.
+     */
+    public static final String DEFAULT_DOMAIN = "es.sandwatch.trim";
+
+
+    private final MBeanServer server;
+    private final String domain;
+    private final ConcurrentMap<ObjectName, Object> metrics;
+
+
+    /**
+     * Constructor. Registers metrics in the platform MBean server under the default domain.
+     */
+    public JmxMetricsRegistry(){
+        this(ManagementFactory.getPlatformMBeanServer(), DEFAULT_DOMAIN);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param server the server to register metrics in.
+     * @param domain the domain of the metrics.
+     */
+    public JmxMetricsRegistry(@NotNull MBeanServer server, @NotNull String domain){
+        this.server = server;
+        this.domain = domain;
+        this.metrics = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public @NotNull Counter counter(@NotNull String name, @Nullable String endpoint){
+        return (Counter)metrics.computeIfAbsent(createName("Counter", name, endpoint), this::createCounter);
+    }
+
+    @Override
+    public @NotNull Timer timer(@NotNull String name, @Nullable String endpoint){
+        return (Timer)metrics.computeIfAbsent(createName("Timer", name, endpoint), this::createTimer);
+    }
+
+    @Override
+    public void gauge(@NotNull String name, @NotNull LongSupplier value){
+        ObjectName objectName = createName("Gauge", name, null);
+        JmxGauge gauge = new JmxGauge(value);
+        register(objectName, gauge);
+        metrics.put(objectName, gauge);
+    }
+
+    /**
+     * Creates and registers a counter.
+     *
+     * @param objectName the name of the counter.
+     * @return the counter.
+     */
+    private @NotNull JmxCounter createCounter(@NotNull ObjectName objectName){
+        JmxCounter counter = new JmxCounter();
+        register(objectName, counter);
+        return counter;
+    }
+
+    /**
+     * Creates and registers a timer.
+     *
+     * @param objectName the name of the timer.
+     * @return the timer.
+     */
+    private @NotNull JmxTimer createTimer(@NotNull ObjectName objectName){
+        JmxTimer timer = new JmxTimer();
+        register(objectName, timer);
+        return timer;
+    }
+
+    /**
+     * Creates the object name of a metric.
+     *
+     * @param type the type of the metric.
+     * @param name the name of the metric.
+     * @param endpoint the endpoint the metric is about, or null if it is run wide.
+     * @return the object name.
+     */
+    private @NotNull ObjectName createName(@NotNull String type, @NotNull String name, @Nullable String endpoint){
+        String objectName = domain + ":type=" + type + ",name=" + ObjectName.quote(name);
+        if (endpoint != null){
+            objectName += ",endpoint=" + ObjectName.quote(endpoint);
+        }
+        try{
+            return new ObjectName(objectName);
+        }
+        catch (MalformedObjectNameException monx){
+            throw new IllegalArgumentException("Invalid metric name " + objectName, monx);
+        }
+    }
+
+    /**
+     * Registers a metric, replacing whatever was registered under its name, such as the metric of
+     * another registry.
+     *
+     * @param objectName the name of the metric.
+     * @param metric the metric.
+     */
+    private void register(@NotNull ObjectName objectName, @NotNull Object metric){
+        try{
+            if (server.isRegistered(objectName)){
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(metric, objectName);
+        }
+        catch (InstanceAlreadyExistsException | InstanceNotFoundException x){
+            //Lost a race with another registry, the other one's metric stays visible
+        }
+        catch (JMException jmx){
+            throw new IllegalStateException("Couldn't register " + objectName, jmx);
+        }
+    }
+
+
+    /**
+     * Management interface of counters.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    public interface CounterMXBean{
+        /**
+         * Count getter.
+         *
+         * @return the count.
+         */
+        long getCount();
+    }
+
+
+    /**
+     * Management interface of timers. Durations are in milliseconds.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    public interface TimerMXBean{
+        /**
+         * Count getter.
+         *
+         * @return the number of recorded durations.
+         */
+        long getCount();
+
+        /**
+         * Mean getter.
+         *
+         * @return the mean of the recorded durations.
+         */
+        double getMean();
+
+        /**
+         * Max getter.
+         *
+         * @return the longest recorded duration.
+         */
+        double getMax();
+
+        /**
+         * Median getter.
+         *
+         * @return the median of the recorded durations.
+         */
+        double getP50();
+
+        /**
+         * 90th percentile getter.
+         *
+         * @return the 90th percentile of the recorded durations.
+         */
+        double getP90();
+
+        /**
+         * 99th percentile getter.
+         *
+         * @return the 99th percentile of the recorded durations.
+         */
+        double getP99();
+    }
+
+
+    /**
+     * Management interface of gauges.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    public interface GaugeMXBean{
+        /**
+         * Value getter.
+         *
+         * @return the current value of the gauge.
+         */
+        long getValue();
+    }
+
+
+    /**
+     * Counter backed by a {@link LongAdder}.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class JmxCounter implements Counter, CounterMXBean{
+        private final LongAdder count = new LongAdder();
+
+
+        @Override
+        public void increment(long amount){
+            count.add(amount);
+        }
+
+        @Override
+        public long getCount(){
+            return count.sum();
+        }
+    }
+
+
+    /**
+     * Timer backed by a latency histogram.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class JmxTimer implements Timer, TimerMXBean{
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private long total;
+
+
+        @Override
+        public synchronized void record(long nanos){
+            histogram.record(nanos);
+            total += Math.max(0, nanos);
+        }
+
+        @Override
+        public synchronized long getCount(){
+            return histogram.getCount();
+        }
+
+        @Override
+        public synchronized double getMean(){
+            return histogram.getCount() == 0 ? 0 : total/1e6/histogram.getCount();
+        }
+
+        @Override
+        public synchronized double getMax(){
+            return histogram.getMax()/1e6;
+        }
+
+        @Override
+        public synchronized double getP50(){
+            return histogram.getPercentile(50)/1e6;
+        }
+
+        @Override
+        public synchronized double getP90(){
+            return histogram.getPercentile(90)/1e6;
+        }
+
+        @Override
+        public synchronized double getP99(){
+            return histogram.getPercentile(99)/1e6;
+        }
+    }
+
+
+    /**
+     * Gauge reading its value from a supplier.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class JmxGauge implements GaugeMXBean{
+        private final LongSupplier value;
+
+
+        /**
+         * Constructor.
+         *
+         * @param value the source of the gauge's value.
+         */
+        private JmxGauge(@NotNull LongSupplier value){
+            this.value = value;
+        }
+
+        @Override
+        public long getValue(){
+            return value.getAsLong();
+        }
+    }
+}
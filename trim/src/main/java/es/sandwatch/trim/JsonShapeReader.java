@@ -0,0 +1,1398 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+
+/**
+ * Single pass, streaming JSON reader that builds the shape of a document as it scans its bytes.
+ * Values are never materialized or decoded; field names are turned into symbols by their raw bytes,
+ * and only decoded, in the document's charset, the first time a reader comes across them. Array
+ * items are merged into the shape as they are read, so memory depends on the number of distinct
+ * fields rather than on the size of the document.
+ *
+ * Documents are read from streams or from sequences of buffers. Heap buffers are scanned in place,
+ * other buffers are copied in blocks. Charsets need to be ASCII compatible, see {@link #canScan(Charset)}.
+ *
+ * Readers may also split large arrays: the items are only scanned and copied in batches, which
+ * are parsed by fork join subtasks into shapes of their own and merged in order as they complete.
+ * Only the arrays the reader itself comes across are split, not those within the batches.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class JsonShapeReader{
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] SEPARATOR = {','};
+
+
+    private InputStream source;
+    private ByteBuffer[] chunks;
+    private int chunk;
+    private final Charset charset;
+    private ArraySampler sampler;
+
+    /**
+     * The bytes being scanned, either the reader's own buffer or the backing array of a chunk.
+     */
+    private final byte[] ownBuffer;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    /**
+     * Reusable builders for the raw bytes of strings, escapes included, and for decoded strings.
+     */
+    private byte[] raw;
+    private int rawLength;
+    private final StringBuilder nameBuilder;
+
+    /**
+     * The symbols of the names read so far and their raw bytes, by hash of the bytes, -1 where
+     * empty, so that names seen before are turned into symbols without decoding them.
+     */
+    private int[] nameSymbols;
+    private byte[][] nameBytes;
+    private int names;
+
+    /**
+     * The number of bytes of array items in every batch handed to a subtask, or 0 if arrays
+     * are never split, and the reader of the batches of arrays that turn out to be too small.
+     */
+    private final int splitSize;
+    private JsonShapeReader batchReader;
+
+    /**
+     * The array items being copied into the next batch, and where the item being copied starts in
+     * the buffer, -1 if none is.
+     */
+    private byte[] batch;
+    private int batchLength;
+    private int copyStart;
+
+
+    /**
+     * Constructor. Reads a UTF-8 encoded stream.
+     *
+     * @param source the source of the document. It is not closed by this class.
+     * @param sampler the sampler deciding which array items are inspected.
+     */
+    JsonShapeReader(@NotNull InputStream source, @NotNull ArraySampler sampler){
+        this(sampler, StandardCharsets.UTF_8, 0);
+        reset(source);
+    }
+
+    /**
+     * Constructor. Reads a document held in a sequence of buffers.
+     *
+     * @param chunks the buffers holding the document, in order. Their positions are moved as they are read.
+     * @param charset the charset of the document, which needs to be ASCII compatible.
+     * @param sampler the sampler deciding which array items are inspected.
+     * @param splitSize the number of bytes of array items parsed by every subtask, or 0 if arrays
+     *                  are never split.
+     */
+    JsonShapeReader(@NotNull ByteBuffer[] chunks, @NotNull Charset charset, @NotNull ArraySampler sampler,
+                    int splitSize){
+
+        this(sampler, charset, splitSize);
+        reset(chunks);
+    }
+
+    /**
+     * Constructor. The reader needs to be pointed to a document before reading.
+     *
+     * @param sampler the sampler deciding which array items are inspected.
+     * @param charset the charset of the documents, which needs to be ASCII compatible.
+     * @param splitSize the number of bytes of array items parsed by every subtask, or 0 if arrays
+     *                  are never split.
+     */
+    private JsonShapeReader(@NotNull ArraySampler sampler, @NotNull Charset charset, int splitSize){
+        this.sampler = sampler;
+        this.charset = charset;
+        this.ownBuffer = new byte[BUFFER_SIZE];
+        this.buffer = ownBuffer;
+        this.raw = new byte[64];
+        this.nameBuilder = new StringBuilder();
+        this.nameSymbols = new int[256];
+        this.nameBytes = new byte[256][];
+        this.names = 0;
+        Arrays.fill(nameSymbols, -1);
+        this.splitSize = splitSize;
+        this.copyStart = -1;
+    }
+
+    /**
+     * Tells whether documents in a charset can be read. Documents are scanned byte by byte for
+     * quotes, brackets and the like, so the charset needs to encode every ASCII character as the
+     * same single byte, and never use those bytes within other characters. That's the case of
+     * UTF-8 and of single byte charsets extending ASCII, but not of UTF-16 or Shift_JIS.
+     *
+     * @param charset the charset.
+     * @return true if documents in the charset can be read, false if they need to be transcoded first.
+     */
+    static boolean canScan(@NotNull Charset charset){
+        if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1)){
+
+            return true;
+        }
+        if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() > 1){
+            return false;
+        }
+        byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; i++){
+            ascii[i] = (byte)i;
+        }
+        return new String(ascii, charset).equals(new String(ascii, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Points the reader to a new stream, keeping its buffers. Anything left from the previous
+     * document is discarded.
+     *
+     * @param source the source of the document. It is not closed by this class.
+     */
+    void reset(@NotNull InputStream source){
+        this.source = source;
+        this.chunks = null;
+        this.buffer = ownBuffer;
+        this.position = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * Points the reader to a new sequence of buffers, keeping its own. Anything left from the
+     * previous document is discarded.
+     *
+     * @param chunks the buffers holding the document, in order. Their positions are moved as they are read.
+     */
+    void reset(@NotNull ByteBuffer... chunks){
+        this.source = null;
+        this.chunks = chunks;
+        this.chunk = 0;
+        this.buffer = ownBuffer;
+        this.position = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * Reads a document whose root is a JSON object.
+     *
+     * @return the shape of the document.
+     * @throws IOException if the source can't be read or the document isn't a well formed JSON object.
+     */
+    @NotNull Shape readRootObject() throws IOException{
+        if (nextNonWhitespace() != '{'){
+            throw syntaxError("Expected '{' at the start of the document");
+        }
+        return readShape();
+    }
+
+    /**
+     * Finds the value of a string field in the root object of a document, skipping every other
+     * field without building anything. Reading stops as soon as the field is found.
+     *
+     * @param name the name of the field.
+     * @return the value of the field, or null if the field is missing, null or not a string.
+     * @throws IOException if the source can't be read or the document isn't a well formed JSON object.
+     */
+    @Nullable String findRootString(@NotNull String name) throws IOException{
+        if (nextNonWhitespace() != '{'){
+            throw syntaxError("Expected '{' at the start of the document");
+        }
+        int c = nextNonWhitespace();
+        while (c == '"'){
+            String fieldName = readString();
+            if (nextNonWhitespace() != ':'){
+                throw syntaxError("Expected ':' after field name \"" + fieldName + "\"");
+            }
+            int first = nextNonWhitespace();
+            if (fieldName.equals(name)){
+                return first == '"' ? readString() : null;
+            }
+            skipValue(first);
+
+            c = nextNonWhitespace();
+            if (c != ','){
+                break;
+            }
+            c = nextNonWhitespace();
+        }
+        return null;
+    }
+
+    /**
+     * Collects the values found at a path of fields, walking through arrays item by item and
+     * skipping everything else without building anything. Strings are decoded, numbers and booleans
+     * are kept as written, and nulls and objects are left out. Reading stops as soon as enough
+     * distinct values are found.
+     *
+     * @param path the names of the fields leading to the values.
+     * @param maxValues the number of distinct values to stop at.
+     * @return the distinct values, in document order.
+     * @throws IOException if the source can't be read or the document is malformed.
+     */
+    @NotNull Set<String> findValues(@NotNull String[] path, int maxValues) throws IOException{
+        Set<String> values = new LinkedHashSet<>();
+        collectValues(nextNonWhitespace(), path, 0, maxValues, values);
+        return values;
+    }
+
+    /**
+     * Collects the values found at the rest of a path of fields in a value.
+     *
+     * @param first the first character of the value, already consumed.
+     * @param path the names of the fields leading to the values.
+     * @param depth the number of fields in the path walked so far.
+     * @param maxValues the number of distinct values to stop at.
+     * @param values the set where the values are to be put.
+     * @return true if enough values were found, in which case the value is left half read.
+     * @throws IOException if the source can't be read or the value is malformed.
+     */
+    private boolean collectValues(int first, @NotNull String[] path, int depth, int maxValues,
+                                  @NotNull Set<String> values) throws IOException{
+
+        if (first == '['){
+            int c = nextNonWhitespace();
+            while (c != ']'){
+                if (collectValues(c, path, depth, maxValues, values)){
+                    return true;
+                }
+                c = nextNonWhitespace();
+                if (c == ','){
+                    c = nextNonWhitespace();
+                }
+                else if (c != ']'){
+                    throw syntaxError("Expected ',' or ']' after an array item");
+                }
+            }
+        }
+        else if (first == '{' && depth < path.length){
+            int c = nextNonWhitespace();
+            while (c != '}'){
+                if (c != '"'){
+                    throw syntaxError("Expected a field name");
+                }
+                String name = readString();
+                if (nextNonWhitespace() != ':'){
+                    throw syntaxError("Expected ':' after field name \"" + name + "\"");
+                }
+                int value = nextNonWhitespace();
+                if (name.equals(path[depth])){
+                    if (collectValues(value, path, depth + 1, maxValues, values)){
+                        return true;
+                    }
+                }
+                else{
+                    skipValue(value);
+                }
+                c = nextNonWhitespace();
+                if (c == ','){
+                    c = nextNonWhitespace();
+                }
+                else if (c != '}'){
+                    throw syntaxError("Expected ',' or '}' after the value of \"" + name + "\"");
+                }
+            }
+        }
+        else if (first == '"'){
+            String value = readString();
+            if (depth == path.length){
+                values.add(value);
+            }
+        }
+        else if (first == '{' || first == 'n'){
+            skipValue(first);
+        }
+        else{
+            String value = readLiteral(first);
+            if (depth == path.length){
+                values.add(value);
+            }
+        }
+        return values.size() >= maxValues;
+    }
+
+    /**
+     * Reads a number or a boolean as it is written.
+     *
+     * @param first the first character of the value, already consumed.
+     * @return the value.
+     * @throws IOException if the source can't be read or the value is malformed.
+     */
+    private @NotNull String readLiteral(int first) throws IOException{
+        if (first == 't'){
+            expectLiteral("rue");
+            return "true";
+        }
+        if (first == 'f'){
+            expectLiteral("alse");
+            return "false";
+        }
+        if (first != '-' && (first < '0' || first > '9')){
+            throw syntaxError(first == -1 ?
+                    "Unexpected end of the document" : "Unexpected character '" + (char)first + "'");
+        }
+        StringBuilder number = new StringBuilder().append((char)first);
+        for (int c = peek(); c >= '0' && c <= '9' || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+             c = peek()){
+            number.append((char)c);
+            position++;
+        }
+        return number.toString();
+    }
+
+    /**
+     * Reads a record of a traffic log, a root object holding the endpoint a response came from in
+     * a string field and the response itself in an object field. Every other field is skipped. The
+     * response is read with the sampler of its endpoint, or skipped if the endpoint has none; if
+     * the response comes before the endpoint in the record, every array item is inspected.
+     *
+     * @param endpointField the name of the field holding the endpoint.
+     * @param responseField the name of the field holding the response.
+     * @param samplers the sampler of each endpoint, returning null for endpoints of no interest.
+     * @return the record, or null if either field is missing or of the wrong type.
+     * @throws IOException if the source can't be read or the record isn't a well formed JSON object.
+     */
+    @Nullable LogRecord readLogRecord(@NotNull String endpointField, @NotNull String responseField,
+                                      @NotNull Function<String, ArraySampler> samplers) throws IOException{
+
+        if (nextNonWhitespace() != '{'){
+            throw syntaxError("Expected '{' at the start of the record");
+        }
+        int endpointSymbol = Symbols.intern(endpointField);
+        int responseSymbol = Symbols.intern(responseField);
+        String endpoint = null;
+        Shape response = null;
+        boolean skipped = false;
+        int c = nextNonWhitespace();
+        while (c == '"'){
+            int name = readName(null);
+            if (nextNonWhitespace() != ':'){
+                String quoted = name == -1 ? "" : " \"" + Symbols.name(name) + "\"";
+                throw syntaxError("Expected ':' after field name" + quoted);
+            }
+            int first = nextNonWhitespace();
+            if (name == endpointSymbol && first == '"'){
+                endpoint = readString();
+            }
+            else if (name == responseSymbol && first == '{'){
+                sampler = endpoint == null ? ArraySampler.ALL : samplers.apply(endpoint);
+                if (sampler == null){
+                    skipValue(first);
+                    skipped = true;
+                }
+                else{
+                    response = readShape();
+                }
+            }
+            else{
+                skipValue(first);
+            }
+
+            c = nextNonWhitespace();
+            if (c == ','){
+                c = nextNonWhitespace();
+            }
+        }
+        if (c != '}'){
+            throw syntaxError("Expected a field name or '}' in the record");
+        }
+        if (endpoint == null || (response == null && !skipped)){
+            return null;
+        }
+        return new LogRecord(endpoint, response);
+    }
+
+    /**
+     * Reads a root object whose opening brace has already been consumed into a new shape.
+     *
+     * @return the shape of the object.
+     * @throws IOException if the source can't be read or the object is malformed.
+     */
+    private @NotNull Shape readShape() throws IOException{
+        Shape shape = new Shape();
+        shape.observe(Shape.ROOT, JsonType.OBJECT);
+        readObject(shape, Shape.ROOT);
+        return shape;
+    }
+
+    /**
+     * Reads the fields of an object whose opening brace has already been consumed, up to and
+     * including its closing brace, merging them into the children of a node.
+     *
+     * @param shape the shape being built.
+     * @param node the node the object is merged into.
+     * @throws IOException if the source can't be read or the object is malformed.
+     */
+    private void readObject(@NotNull Shape shape, int node) throws IOException{
+        shape.parseObject(node);
+        shape.addSamples(node, 1);
+        int c = nextNonWhitespace();
+        if (c == '}'){
+            return;
+        }
+        while (true){
+            if (c != '"'){
+                throw syntaxError("Expected a field name");
+            }
+            int name = readName(shape);
+            if (nextNonWhitespace() != ':'){
+                throw syntaxError("Expected ':' after field name \"" + shape.nameOf(name) + "\"");
+            }
+            int child = shape.findChild(node, name);
+            if (child == -1){
+                child = shape.addChild(node, name);
+            }
+            readValue(shape, child, nextNonWhitespace());
+
+            c = nextNonWhitespace();
+            if (c == '}'){
+                return;
+            }
+            if (c != ','){
+                throw syntaxError("Expected ',' or '}' after the value of \"" + shape.nameOf(name) + "\"");
+            }
+            //Tolerate trailing commas, like org.json does
+            c = nextNonWhitespace();
+            if (c == '}'){
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the value of a field and merges it into the field's node.
+     *
+     * @param shape the shape being built.
+     * @param node the node of the field.
+     * @param first the first character of the value, already consumed.
+     * @throws IOException if the source can't be read or the value is malformed.
+     */
+    private void readValue(@NotNull Shape shape, int node, int first) throws IOException{
+        switch (first){
+            case '{':
+                shape.observe(node, JsonType.OBJECT);
+                readObject(shape, node);
+                break;
+
+            case '[':
+                shape.observe(node, JsonType.ARRAY);
+                readArray(shape, node);
+                break;
+
+            default:
+                shape.observe(node, skipScalar(first));
+        }
+    }
+
+    /**
+     * Reads the items of an array whose opening bracket has already been consumed, up to and
+     * including its closing bracket. The items picked by the sampler are merged into the children
+     * of a node, the children of items that are arrays themselves included; the rest are skipped
+     * without building anything.
+     *
+     * @param shape the shape being built.
+     * @param node the node the items are merged into.
+     * @throws IOException if the source can't be read or the array is malformed.
+     */
+    private void readArray(@NotNull Shape shape, int node) throws IOException{
+        //Items replaced in slots can't be split, they aren't known to be kept until the array ends
+        if (splitSize > 0 && !sampler.keepsSlots()){
+            splitArray(shape, node);
+            return;
+        }
+
+        int c = nextNonWhitespace();
+        if (c == ']'){
+            shape.parseEmptyArray(node);
+            return;
+        }
+
+        //Samplers that keep slots may replace items, so each slot is read into a shape of its own
+        List<Shape> slots = null;
+        boolean read = false;
+        int index = 0;
+        while (true){
+            int slot = sampler.slotFor(index++);
+            if (slot == -1){
+                skipValue(c);
+            }
+            else if (sampler.keepsSlots()){
+                //Slots are filled in order before they start being replaced
+                if (slots == null){
+                    slots = new ArrayList<>();
+                }
+                Shape item;
+                if (slot == slots.size()){
+                    item = new Shape();
+                    slots.add(item);
+                }
+                else{
+                    item = slots.get(slot);
+                    item.clear();
+                }
+                readItem(item, Shape.ROOT, c);
+                read = true;
+            }
+            else{
+                readItem(shape, node, c);
+                read = true;
+            }
+
+            c = nextNonWhitespace();
+            if (c == ']'){
+                break;
+            }
+            if (c != ','){
+                throw syntaxError("Expected ',' or ']' in array");
+            }
+            //Tolerate trailing commas, like org.json does
+            c = nextNonWhitespace();
+            if (c == ']'){
+                break;
+            }
+        }
+
+        if (slots != null){
+            for (Shape item:slots){
+                shape.mergeContents(node, item, Shape.ROOT);
+            }
+        }
+        if (!read){
+            shape.parseEmptyArray(node);
+        }
+    }
+
+    /**
+     * Reads the items of an array whose opening bracket has already been consumed, up to and
+     * including its closing bracket, the same as {@link #readArray(Shape, int)} does, but handing
+     * the items out in batches to subtasks. If the items picked by the sampler don't fill a batch,
+     * they are read right away instead.
+     *
+     * @param shape the shape being built.
+     * @param node the node the items are merged into.
+     * @throws IOException if the source can't be read or the array is malformed.
+     */
+    private void splitArray(@NotNull Shape shape, int node) throws IOException{
+        int c = nextNonWhitespace();
+        if (c == ']'){
+            shape.parseEmptyArray(node);
+            return;
+        }
+
+        //Bound the batches in flight, so that the copies don't outgrow the document
+        int maxPending = 2*ForkJoinPool.getCommonPoolParallelism();
+        Deque<ForkJoinTask<Shape>> pending = new ArrayDeque<>();
+        if (batch == null){
+            batch = new byte[splitSize + BUFFER_SIZE];
+        }
+        batchLength = 0;
+        boolean read = false;
+        int index = 0;
+        while (true){
+            if (sampler.slotFor(index++) == -1){
+                skipValue(c);
+            }
+            else{
+                copyValue(c);
+                read = true;
+                if (batchLength >= splitSize){
+                    pending.add(new BatchTask(Arrays.copyOf(batch, batchLength), sampler, charset).fork());
+                    batchLength = 0;
+                    if (pending.size() > maxPending){
+                        shape.mergeContents(node, join(pending.poll()), Shape.ROOT);
+                    }
+                }
+            }
+
+            c = nextNonWhitespace();
+            if (c == ']'){
+                break;
+            }
+            if (c != ','){
+                throw syntaxError("Expected ',' or ']' in array");
+            }
+            //Tolerate trailing commas, like org.json does
+            c = nextNonWhitespace();
+            if (c == ']'){
+                break;
+            }
+        }
+
+        if (pending.isEmpty()){
+            //Too small to be worth a subtask
+            if (batchReader == null){
+                batchReader = new JsonShapeReader(sampler, charset, 0);
+            }
+            batchReader.reset(ByteBuffer.wrap(batch, 0, batchLength));
+            batchReader.readItems(shape, node);
+        }
+        else{
+            if (batchLength > 0){
+                pending.add(new BatchTask(Arrays.copyOf(batch, batchLength), sampler, charset).fork());
+            }
+            while (!pending.isEmpty()){
+                shape.mergeContents(node, join(pending.poll()), Shape.ROOT);
+            }
+        }
+        if (!read){
+            shape.parseEmptyArray(node);
+        }
+    }
+
+    /**
+     * Reads a batch of array items separated by commas, up to the end of the source, and merges
+     * their children into a node.
+     *
+     * @param shape the shape being built.
+     * @param node the node the items are merged into.
+     * @throws IOException if the source can't be read or an item is malformed.
+     */
+    private void readItems(@NotNull Shape shape, int node) throws IOException{
+        int c = nextNonWhitespace();
+        while (c != -1){
+            readItem(shape, node, c);
+            c = nextNonWhitespace();
+            if (c == ','){
+                c = nextNonWhitespace();
+            }
+        }
+    }
+
+    /**
+     * Waits for a subtask and gets its shape.
+     *
+     * @param task the subtask.
+     * @return the merged shape of the subtask's items.
+     * @throws IOException if the items were malformed or the thread was interrupted.
+     */
+    private static @NotNull Shape join(@NotNull ForkJoinTask<Shape> task) throws IOException{
+        try{
+            return task.get();
+        }
+        catch (InterruptedException ix){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading an array");
+        }
+        catch (ExecutionException ex){
+            if (ex.getCause() instanceof UncheckedIOException){
+                throw ((UncheckedIOException)ex.getCause()).getCause();
+            }
+            throw new IOException("Couldn't read an array", ex.getCause());
+        }
+    }
+
+    /**
+     * Reads an array item and merges its children into a node. Scalars have no children.
+     *
+     * @param shape the shape being built.
+     * @param node the node the item is merged into.
+     * @param first the first character of the item, already consumed.
+     * @throws IOException if the source can't be read or the item is malformed.
+     */
+    private void readItem(@NotNull Shape shape, int node, int first) throws IOException{
+        switch (first){
+            case '{':
+                readObject(shape, node);
+                break;
+
+            case '[':
+                readArray(shape, node);
+                break;
+
+            default:
+                skipScalar(first);
+        }
+    }
+
+    /**
+     * Skips a value of any type without building anything.
+     *
+     * @param first the first character of the value, already consumed.
+     * @throws IOException if the source can't be read or the value is malformed.
+     */
+    private void skipValue(int first) throws IOException{
+        if (first != '{' && first != '['){
+            skipScalar(first);
+            return;
+        }
+
+        //Track nesting depth only; strings need to be skipped as a whole since they may contain brackets
+        int depth = 1;
+        while (depth > 0){
+            int c = next();
+            if (c == '"'){
+                skipString();
+            }
+            else if (c == '{' || c == '['){
+                depth++;
+            }
+            else if (c == '}' || c == ']'){
+                depth--;
+            }
+            else if (c == -1){
+                throw syntaxError("Unterminated object or array");
+            }
+        }
+    }
+
+    /**
+     * Skips a value of any type, copying it to the end of the batch after a comma if it isn't the
+     * first one in the batch.
+     *
+     * @param first the first character of the value, already consumed.
+     * @throws IOException if the source can't be read or the value is malformed.
+     */
+    private void copyValue(int first) throws IOException{
+        if (batchLength > 0){
+            appendToBatch(SEPARATOR, 0, 1);
+        }
+        //The first byte is still in the buffer, refills copy what was read before them
+        copyStart = position - 1;
+        try{
+            skipValue(first);
+            appendToBatch(buffer, copyStart, position - copyStart);
+        }
+        finally{
+            copyStart = -1;
+        }
+    }
+
+    /**
+     * Appends bytes to the batch, growing it if needed.
+     *
+     * @param bytes the bytes.
+     * @param offset where the bytes start.
+     * @param length the number of bytes.
+     */
+    private void appendToBatch(@NotNull byte[] bytes, int offset, int length){
+        if (batchLength + length > batch.length){
+            batch = Arrays.copyOf(batch, Math.max(batch.length*2, batchLength + length));
+        }
+        System.arraycopy(bytes, offset, batch, batchLength, length);
+        batchLength += length;
+    }
+
+    /**
+     * Skips a string, number, boolean or null.
+     *
+     * @param first the first character of the value, already consumed.
+     * @return the type of the skipped value.
+     * @throws IOException if the source can't be read or the value is malformed.
+     */
+    private @NotNull JsonType skipScalar(int first) throws IOException{
+        switch (first){
+            case '"':
+                skipString();
+                return JsonType.STRING;
+
+            case 't':
+                expectLiteral("rue");
+                return JsonType.BOOLEAN;
+
+            case 'f':
+                expectLiteral("alse");
+                return JsonType.BOOLEAN;
+
+            case 'n':
+                expectLiteral("ull");
+                return JsonType.NULL;
+
+            default:
+                if (first == '-' || (first >= '0' && first <= '9')){
+                    return skipNumber();
+                }
+                throw syntaxError("Unexpected character '" + (char)first + "'");
+        }
+    }
+
+    /**
+     * Skips the remainder of a number whose first character has already been consumed.
+     *
+     * @return NUMBER_FLOAT if the number has a fraction or an exponent, NUMBER_INT otherwise.
+     * @throws IOException if the source can't be read.
+     */
+    private @NotNull JsonType skipNumber() throws IOException{
+        JsonType type = JsonType.NUMBER_INT;
+        while (true){
+            int c = peek();
+            if (c >= '0' && c <= '9' || c == '-' || c == '+'){
+                position++;
+            }
+            else if (c == '.' || c == 'e' || c == 'E'){
+                type = JsonType.NUMBER_FLOAT;
+                position++;
+            }
+            else{
+                return type;
+            }
+        }
+    }
+
+    /**
+     * Consumes the remainder of a literal.
+     *
+     * @param rest the characters expected after the first one.
+     * @throws IOException if the source can't be read or the literal doesn't match.
+     */
+    private void expectLiteral(@NotNull String rest) throws IOException{
+        for (int i = 0; i < rest.length(); i++){
+            if (next() != rest.charAt(i)){
+                throw syntaxError("Invalid literal");
+            }
+        }
+    }
+
+    /**
+     * Skips the remainder of a string whose opening quote has already been consumed.
+     *
+     * @throws IOException if the source can't be read or the string is unterminated.
+     */
+    private void skipString() throws IOException{
+        while (true){
+            //Scan the buffer directly, this is the hottest loop for text heavy payloads
+            while (position < limit){
+                byte c = buffer[position++];
+                if (c == '"'){
+                    return;
+                }
+                if (c == '\\'){
+                    if (next() == -1){
+                        throw syntaxError("Unterminated string");
+                    }
+                }
+            }
+            if (!fill()){
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    /**
+     * Reads the remainder of a field name whose opening quote has already been consumed and turns
+     * it into a symbol.
+     *
+     * @param shape the shape the name belongs to, or null if only names with a symbol are of interest.
+     * @return the symbol of the name, or -1 if it has none and no shape was given.
+     * @throws IOException if the source can't be read or the name is malformed.
+     */
+    private int readName(@Nullable Shape shape) throws IOException{
+        //Names within the buffer and without escapes, most of them, are looked up in place
+        int start = position;
+        int hash = 0;
+        while (position < limit){
+            byte b = buffer[position];
+            if (b == '"'){
+                position++;
+                return findName(buffer, start, position - 1 - start, hash, shape);
+            }
+            if (b == '\\'){
+                break;
+            }
+            hash = 31*hash + b;
+            position++;
+        }
+        position = start;
+        scanString();
+        return findName(raw, 0, rawLength, hash(raw, 0, rawLength), shape);
+    }
+
+    /**
+     * Finds the symbol of a name given its raw bytes, decoding the name if it wasn't read before.
+     * Only symbols of the global table are remembered; names past its bound are decoded and
+     * handed to the shape every time.
+     *
+     * @param bytes the array holding the raw bytes of the name.
+     * @param offset where the name starts.
+     * @param length the number of bytes of the name.
+     * @param hash the hash of the bytes.
+     * @param shape the shape the name belongs to, or null if only names with a symbol are of interest.
+     * @return the symbol of the name, or -1 if it has none and no shape was given.
+     * @throws IOException if the name is malformed.
+     */
+    private int findName(@NotNull byte[] bytes, int offset, int length, int hash, @Nullable Shape shape)
+            throws IOException{
+
+        int mask = nameSymbols.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask){
+            int symbol = nameSymbols[slot];
+            if (symbol == -1){
+                String name = decode(bytes, offset, length);
+                symbol = shape == null ? Symbols.internResponseName(name) : shape.symbolOf(name);
+                if (symbol < 0){
+                    return symbol;
+                }
+                nameSymbols[slot] = symbol;
+                nameBytes[slot] = Arrays.copyOfRange(bytes, offset, offset + length);
+                if (++names*2 > nameSymbols.length){
+                    growNameSymbols();
+                }
+                return symbol;
+            }
+            if (matches(nameBytes[slot], bytes, offset, length)){
+                //A shape holding local names may have got one for this name before the table took it
+                return shape != null && shape.hasLocalNames() ? shape.symbolOf(Symbols.name(symbol)) : symbol;
+            }
+        }
+    }
+
+    /**
+     * Compares the raw bytes of a name read before with a range of bytes.
+     *
+     * @param name the raw bytes of the name.
+     * @param bytes the array holding the range.
+     * @param offset where the range starts.
+     * @param length the number of bytes in the range.
+     * @return true if they are equal, false otherwise.
+     */
+    private static boolean matches(@NotNull byte[] name, @NotNull byte[] bytes, int offset, int length){
+        if (name.length != length){
+            return false;
+        }
+        for (int i = 0; i < length; i++){
+            if (name[i] != bytes[offset + i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hashes a range of bytes, the same way names are hashed while they are scanned.
+     *
+     * @param bytes the array holding the range.
+     * @param offset where the range starts.
+     * @param length the number of bytes in the range.
+     * @return the hash.
+     */
+    private static int hash(@NotNull byte[] bytes, int offset, int length){
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++){
+            hash = 31*hash + bytes[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Doubles the size of the table of the symbols of the names read so far.
+     */
+    private void growNameSymbols(){
+        int[] oldSymbols = nameSymbols;
+        byte[][] oldBytes = nameBytes;
+        nameSymbols = new int[oldSymbols.length*2];
+        nameBytes = new byte[oldSymbols.length*2][];
+        Arrays.fill(nameSymbols, -1);
+        int mask = nameSymbols.length - 1;
+        for (int i = 0; i < oldSymbols.length; i++){
+            if (oldSymbols[i] != -1){
+                int slot = hash(oldBytes[i], 0, oldBytes[i].length) & mask;
+                while (nameSymbols[slot] != -1){
+                    slot = (slot + 1) & mask;
+                }
+                nameSymbols[slot] = oldSymbols[i];
+                nameBytes[slot] = oldBytes[i];
+            }
+        }
+    }
+
+    /**
+     * Reads and decodes the remainder of a string whose opening quote has already been consumed.
+     *
+     * @return the decoded string.
+     * @throws IOException if the source can't be read or the string is malformed.
+     */
+    private @NotNull String readString() throws IOException{
+        scanString();
+        return decode(raw, 0, rawLength);
+    }
+
+    /**
+     * Copies the raw bytes of the remainder of a string whose opening quote has already been
+     * consumed, escapes included, to the raw builder.
+     *
+     * @throws IOException if the source can't be read or the string is unterminated.
+     */
+    private void scanString() throws IOException{
+        rawLength = 0;
+        while (true){
+            int start = position;
+            while (position < limit && buffer[position] != '"' && buffer[position] != '\\'){
+                position++;
+            }
+            appendRaw(buffer, start, position - start);
+
+            //Either the string or the buffer ended, or there's an escape to keep along with its backslash
+            int c = next();
+            if (c == '"'){
+                return;
+            }
+            if (c == -1){
+                throw syntaxError("Unterminated string");
+            }
+            appendRaw((byte)c);
+            if (c == '\\'){
+                int escaped = next();
+                if (escaped == -1){
+                    throw syntaxError("Unterminated string");
+                }
+                appendRaw((byte)escaped);
+            }
+        }
+    }
+
+    /**
+     * Appends bytes to the raw builder, growing it if needed.
+     *
+     * @param bytes the array holding the bytes.
+     * @param offset where the bytes start.
+     * @param length the number of bytes.
+     */
+    private void appendRaw(@NotNull byte[] bytes, int offset, int length){
+        if (rawLength + length > raw.length){
+            raw = Arrays.copyOf(raw, Math.max(raw.length*2, rawLength + length));
+        }
+        System.arraycopy(bytes, offset, raw, rawLength, length);
+        rawLength += length;
+    }
+
+    /**
+     * Appends a byte to the raw builder, growing it if needed.
+     *
+     * @param b the byte.
+     */
+    private void appendRaw(byte b){
+        if (rawLength == raw.length){
+            raw = Arrays.copyOf(raw, raw.length*2);
+        }
+        raw[rawLength++] = b;
+    }
+
+    /**
+     * Decodes the raw bytes of a string, resolving its escapes.
+     *
+     * @param bytes the array holding the raw bytes.
+     * @param offset where the string starts.
+     * @param length the number of raw bytes.
+     * @return the decoded string.
+     * @throws IOException if an escape is malformed.
+     */
+    private @NotNull String decode(@NotNull byte[] bytes, int offset, int length) throws IOException{
+        int end = offset + length;
+        int escape = offset;
+        while (escape < end && bytes[escape] != '\\'){
+            escape++;
+        }
+        if (escape == end){
+            return new String(bytes, offset, length, charset);
+        }
+
+        //Decode the runs between escapes, escapes are ASCII in every charset that can be scanned
+        nameBuilder.setLength(0);
+        int run = offset;
+        int i = escape;
+        while (i < end){
+            if (bytes[i] != '\\'){
+                i++;
+                continue;
+            }
+            if (i > run){
+                nameBuilder.append(new String(bytes, run, i - run, charset));
+            }
+            //The scan guarantees that every backslash is followed by another byte
+            byte escaped = bytes[i + 1];
+            i += 2;
+            switch (escaped){
+                case 'b':
+                    nameBuilder.append('\b');
+                    break;
+
+                case 'f':
+                    nameBuilder.append('\f');
+                    break;
+
+                case 'n':
+                    nameBuilder.append('\n');
+                    break;
+
+                case 'r':
+                    nameBuilder.append('\r');
+                    break;
+
+                case 't':
+                    nameBuilder.append('\t');
+                    break;
+
+                case 'u':
+                    if (i + 4 > end){
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    int code = 0;
+                    for (int digit = 0; digit < 4; digit++){
+                        int value = Character.digit(bytes[i + digit], 16);
+                        if (value == -1){
+                            throw syntaxError("Invalid unicode escape");
+                        }
+                        code = (code << 4) | value;
+                    }
+                    nameBuilder.append((char)code);
+                    i += 4;
+                    break;
+
+                default:
+                    nameBuilder.append((char)escaped);
+            }
+            run = i;
+        }
+        if (end > run){
+            nameBuilder.append(new String(bytes, run, end - run, charset));
+        }
+        return nameBuilder.toString();
+    }
+
+    /**
+     * Consumes whitespace and returns the first character after it.
+     *
+     * @return the next non whitespace character, or -1 at the end of the source.
+     * @throws IOException if the source can't be read.
+     */
+    private int nextNonWhitespace() throws IOException{
+        while (true){
+            int c = next();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t'){
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Consumes a character.
+     *
+     * @return the next character, or -1 at the end of the source.
+     * @throws IOException if the source can't be read.
+     */
+    private int next() throws IOException{
+        if (position == limit && !fill()){
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Returns the next character without consuming it.
+     *
+     * @return the next character, or -1 at the end of the source.
+     * @throws IOException if the source can't be read.
+     */
+    private int peek() throws IOException{
+        if (position == limit && !fill()){
+            return -1;
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    /**
+     * Refills the buffer, moving on to the next chunk if the document is held in buffers.
+     *
+     * @return true if there is at least one new byte in the buffer, false at the end of the source.
+     * @throws IOException if the source can't be read.
+     */
+    private boolean fill() throws IOException{
+        //Keep the part of the item being copied that is about to be dropped
+        if (copyStart != -1){
+            appendToBatch(buffer, copyStart, limit - copyStart);
+        }
+        boolean filled = chunks == null ? fillFromSource() : fillFromChunks();
+        if (copyStart != -1){
+            copyStart = position;
+        }
+        return filled;
+    }
+
+    /**
+     * Reads the next block of the source stream into the reader's own buffer.
+     *
+     * @return true if at least one byte was read, false at the end of the stream.
+     * @throws IOException if the stream can't be read.
+     */
+    private boolean fillFromSource() throws IOException{
+        int read;
+        do{
+            read = source.read(ownBuffer, 0, ownBuffer.length);
+        } while (read == 0);
+        if (read == -1){
+            return false;
+        }
+        buffer = ownBuffer;
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    /**
+     * Moves on to the next chunk with bytes left. Chunks backed by an array are scanned in place,
+     * the rest are copied to the reader's own buffer a block at a time.
+     *
+     * @return true if there are bytes left, false at the end of the last chunk.
+     */
+    private boolean fillFromChunks(){
+        while (chunk < chunks.length && !chunks[chunk].hasRemaining()){
+            chunk++;
+        }
+        if (chunk == chunks.length){
+            return false;
+        }
+        ByteBuffer next = chunks[chunk];
+        if (next.hasArray()){
+            buffer = next.array();
+            position = next.arrayOffset() + next.position();
+            limit = next.arrayOffset() + next.limit();
+            //Through Buffer, so that it links against the Java 8 signatures
+            ((Buffer)next).position(next.limit());
+        }
+        else{
+            int read = Math.min(ownBuffer.length, next.remaining());
+            next.get(ownBuffer, 0, read);
+            buffer = ownBuffer;
+            position = 0;
+            limit = read;
+        }
+        return true;
+    }
+
+    /**
+     * Creates the exception thrown when the document is malformed.
+     *
+     * @param message the description of the problem.
+     * @return the exception.
+     */
+    private @NotNull IOException syntaxError(@NotNull String message){
+        return new MalformedJsonException(message);
+    }
+
+
+    /**
+     * Subtask reading a batch of array items into a shape of its own.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class BatchTask extends RecursiveTask<Shape>{
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] items;
+        private final ArraySampler sampler;
+        private final Charset charset;
+
+
+        /**
+         * Constructor.
+         *
+         * @param items the items, separated by commas.
+         * @param sampler the sampler deciding which items of the arrays within the items are inspected.
+         * @param charset the charset of the items.
+         */
+        private BatchTask(@NotNull byte[] items, @NotNull ArraySampler sampler, @NotNull Charset charset){
+            this.items = items;
+            this.sampler = sampler;
+            this.charset = charset;
+        }
+
+        @Override
+        protected Shape compute(){
+            Shape shape = new Shape();
+            try{
+                new JsonShapeReader(new ByteBuffer[]{ByteBuffer.wrap(items)}, charset, sampler, 0)
+                        .readItems(shape, Shape.ROOT);
+            }
+            catch (IOException iox){
+                throw new UncheckedIOException(iox);
+            }
+            return shape;
+        }
+    }
+
+
+    /**
+     * A record of a traffic log.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    static class LogRecord{
+        private final String endpoint;
+        private final Shape response;
+
+
+        /**
+         * Constructor.
+         *
+         * @param endpoint the endpoint the response came from.
+         * @param response the shape of the response, or null if it was skipped.
+         */
+        private LogRecord(@NotNull String endpoint, @Nullable Shape response){
+            this.endpoint = endpoint;
+            this.response = response;
+        }
+
+        /**
+         * Endpoint getter.
+         *
+         * @return the endpoint the response came from.
+         */
+        @NotNull String getEndpoint(){
+            return endpoint;
+        }
+
+        /**
+         * Response getter.
+         *
+         * @return the shape of the response, or null if it was skipped.
+         */
+        @Nullable Shape getResponse(){
+            return response;
+        }
+    }
+
+
+    /**
+     * Thrown when the document being read isn't well formed JSON.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    static class MalformedJsonException extends IOException{
+        private static final long serialVersionUID = 1L;
+
+
+        /**
+         * Constructor.
+         *
+         * @param message the description of the problem.
+         */
+        MalformedJsonException(@NotNull String message){
+            super(message);
+        }
+    }
+}
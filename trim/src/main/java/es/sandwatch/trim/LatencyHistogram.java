@@ -0,0 +1,126 @@
+package es.sandwatch.trim;
+
+
+/**
+ * Log-linear histogram of durations in nanoseconds. Every power of two is split into
+ * {@link #SUB_BUCKETS} buckets of equal width, so recorded values are kept with a relative error
+ * under 1/{@link #SUB_BUCKETS} regardless of their magnitude, and memory depends on the range of
+ * the values rather than on how many were recorded. The maximum is kept exactly.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class LatencyHistogram{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+
+    /**
+     * Gets the bucket a value falls in.
+     *
+     * @param value the value, not negative.
+     * @return the index of the bucket.
+     */
+    private static int bucketOf(long value){
+        if (value < SUB_BUCKETS){
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int)(value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift*SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Gets the largest value that falls in a bucket.
+     *
+     * @param bucket the index of the bucket.
+     * @return the largest value in the bucket.
+     */
+    private static long highestValueIn(int bucket){
+        if (bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS)/SUB_BUCKETS;
+        long subBucket = (bucket - SUB_BUCKETS)%SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+
+    private int[] counts;
+    private int count;
+    private long max;
+
+
+    /**
+     * Constructor.
+     */
+    LatencyHistogram(){
+        counts = new int[SUB_BUCKETS];
+        count = 0;
+        max = 0;
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param nanos the value, in nanoseconds. Negative values are recorded as zero.
+     */
+    void record(long nanos){
+        long value = Math.max(0, nanos);
+        int bucket = bucketOf(value);
+        if (bucket >= counts.length){
+            int[] grown = new int[Math.max(bucket + 1, counts.length*2)];
+            System.arraycopy(counts, 0, grown, 0, counts.length);
+            counts = grown;
+        }
+        counts[bucket]++;
+        count++;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Count getter.
+     *
+     * @return the number of recorded values.
+     */
+    int getCount(){
+        return count;
+    }
+
+    /**
+     * Max getter.
+     *
+     * @return the largest recorded value, exact.
+     */
+    long getMax(){
+        return max;
+    }
+
+    /**
+     * Gets the value under which a percentage of the recorded values fall.
+     *
+     * @param percentile the percentage, between 0 and 100.
+     * @return the value, never over the maximum, or 0 if nothing was recorded.
+     */
+    long getPercentile(double percentile){
+        if (count == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(percentile/100*count));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++){
+            seen += counts[bucket];
+            if (seen >= rank){
+                return Math.min(max, highestValueIn(bucket));
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString(){
+        return "p50 " + RequestTiming.format(getPercentile(50)) + ", p90 " + RequestTiming.format(getPercentile(90))
+                + ", p99 " + RequestTiming.format(getPercentile(99)) + ", max " + RequestTiming.format(max);
+    }
+}
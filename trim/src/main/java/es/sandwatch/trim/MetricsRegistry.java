@@ -0,0 +1,113 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.LongSupplier;
+
+
+/**
+ * Receives the metrics of Trim runs. Trim asks for every counter and timer once per run and
+ * endpoint and keeps the handles, so implementations may take their time creating them, but
+ * incrementing a counter or recording into a timer happens in the hot path of every request and
+ * should be cheap and thread safe. Asking twice for the same metric should return the same one, so
+ * that metrics add up across runs.
+ *
+ * Endpoint metrics are:
+ * <ul>
+ *   <li>Counter "requests": requests made.</li>
+ *   <li>Counter "requests.failed": requests that couldn't be performed or got a 4xx or 5xx.</li>
+ *   <li>Counter "bytes.received": bytes of response bodies on the wire.</li>
+ *   <li>Counter "parse.failed": responses whose format couldn't be understood.</li>
+ *   <li>Timer "request.time": time the requests took.</li>
+ *   <li>Timer "parse.time": time parsing responses took.</li>
+ *   <li>Timer "report.time": time building the endpoint reports took.</li>
+ * </ul>
+ * The only run wide metric is the gauge "requests.inflight", the number of requests being performed.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+public interface MetricsRegistry{
+    /**
+     * A registry that discards everything, the default.
+     */
+    MetricsRegistry NONE = new MetricsRegistry(){
+        private final Counter counter = amount -> {};
+        private final Timer timer = nanos -> {};
+
+        @Override
+        public @NotNull Counter counter(@NotNull String name, @Nullable String endpoint){
+            return counter;
+        }
+
+        @Override
+        public @NotNull Timer timer(@NotNull String name, @Nullable String endpoint){
+            return timer;
+        }
+
+        @Override
+        public void gauge(@NotNull String name, @NotNull LongSupplier value){
+            //Nothing to do
+        }
+    };
+
+
+    /**
+     * Gets a counter.
+     *
+     * @param name the name of the counter.
+     * @param endpoint the endpoint the counter is about, or null if it is run wide.
+     * @return the counter.
+     */
+    @NotNull Counter counter(@NotNull String name, @Nullable String endpoint);
+
+    /**
+     * Gets a timer.
+     *
+     * @param name the name of the timer.
+     * @param endpoint the endpoint the timer is about, or null if it is run wide.
+     * @return the timer.
+     */
+    @NotNull Timer timer(@NotNull String name, @Nullable String endpoint);
+
+    /**
+     * Registers a gauge, replacing any previous gauge with the same name.
+     *
+     * @param name the name of the gauge.
+     * @param value the source of the gauge's value, read whenever it is queried.
+     */
+    void gauge(@NotNull String name, @NotNull LongSupplier value);
+
+
+    /**
+     * A monotonically increasing count.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    interface Counter{
+        /**
+         * Adds to the count.
+         *
+         * @param amount the amount to add.
+         */
+        void increment(long amount);
+    }
+
+
+    /**
+     * A distribution of durations.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    interface Timer{
+        /**
+         * Records a duration.
+         *
+         * @param nanos the duration, in nanoseconds.
+         */
+        void record(long nanos);
+    }
+}
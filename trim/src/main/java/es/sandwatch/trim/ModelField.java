@@ -0,0 +1,95 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+
+/**
+ * Immutable description of a model field with all of its Trim annotations already resolved.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class ModelField{
+    private final String name;
+    private final Class<?> type;
+    private final JsonType jsonType;
+    private final Class<?> modelClass;
+    private final int unusedSinceVersion;
+
+
+    /**
+     * Constructor.
+     *
+     * @param name the name of the API attribute the field maps to.
+     * @param type the declared type of the field.
+     * @param modelClass the class describing the field's own attributes, null if they aren't inspected.
+     * @param unusedSinceVersion the version since which the field is unused, -1 if it is in use.
+     */
+    ModelField(@NotNull String name, @NotNull Class<?> type, @Nullable Class<?> modelClass, int unusedSinceVersion){
+        this.name = name;
+        this.type = type;
+        this.jsonType = JsonType.getTypeOf(type);
+        this.modelClass = modelClass;
+        this.unusedSinceVersion = unusedSinceVersion;
+    }
+
+    /**
+     * Name getter.
+     *
+     * @return the name of the API attribute the field maps to.
+     */
+    @NotNull String getName(){
+        return name;
+    }
+
+    /**
+     * Type getter.
+     *
+     * @return the declared type of the field.
+     */
+    @NotNull Class<?> getType(){
+        return type;
+    }
+
+    /**
+     * Json type getter.
+     *
+     * @return the JsonType associated with the declared type of the field.
+     */
+    @NotNull JsonType getJsonType(){
+        return jsonType;
+    }
+
+    /**
+     * Model class getter. For collections, this is the class set in CollectionGenericType.
+     *
+     * @return the class describing the field's own attributes, null if they aren't inspected.
+     */
+    @Nullable Class<?> getModelClass(){
+        return modelClass;
+    }
+
+    /**
+     * Tells whether the field was marked with UnusedSinceVersion.
+     *
+     * @return true if it was, false otherwise.
+     */
+    boolean isUnused(){
+        return unusedSinceVersion != -1;
+    }
+
+    /**
+     * Unused since version getter.
+     *
+     * @return the version since which the field is unused, -1 if it is in use.
+     */
+    int getUnusedSinceVersion(){
+        return unusedSinceVersion;
+    }
+
+    @Override
+    public String toString(){
+        return name + " (" + type.getName() + ")";
+    }
+}
@@ -0,0 +1,94 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Reads the index of models generated at build time by the Trim annotation processor. Every jar
+ * or class directory with models annotated with Endpoint holds an index resource listing their
+ * binary names, one per line, so models are discovered without scanning the class path, and
+ * without loading a single class.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+final class ModelIndex{
+    /**
+     * The name of the index resource.
+     */
+    static final String RESOURCE = "META-INF/trim/endpoints";
+
+
+    /**
+     * Reads the names of the indexed models in a package and its subpackages, from every index
+     * visible to a class loader.
+     *
+     * @param loader the class loader.
+     * @param packageName the name of the package, empty for every model.
+     * @return the binary names of the models, in index order, each one once.
+     * @throws UncheckedIOException if an index can't be read.
+     */
+    static @NotNull List<String> read(@NotNull ClassLoader loader, @NotNull String packageName){
+        String prefix = packageName.isEmpty() ? "" : packageName + ".";
+        Set<String> names = new LinkedHashSet<>();
+        try{
+            Enumeration<URL> indexes = loader.getResources(RESOURCE);
+            while (indexes.hasMoreElements()){
+                URL index = indexes.nextElement();
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(index.openStream(), StandardCharsets.UTF_8))){
+
+                    String line;
+                    while ((line = reader.readLine()) != null){
+                        line = line.trim();
+                        //Skip blank lines and comments
+                        if (!line.isEmpty() && !line.startsWith("#") && line.startsWith(prefix)){
+                            names.add(line);
+                        }
+                    }
+                }
+            }
+        }
+        catch (IOException iox){
+            throw new UncheckedIOException("Can't read the model index", iox);
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Loads an indexed model, without initializing it.
+     *
+     * @param loader the class loader the model was indexed in.
+     * @param name the binary name of the model.
+     * @return the model class.
+     * @throws IllegalStateException if the model no longer exists.
+     */
+    static @NotNull Class<?> load(@NotNull ClassLoader loader, @NotNull String name){
+        try{
+            return Class.forName(name, false, loader);
+        }
+        catch (ClassNotFoundException cnfx){
+            throw new IllegalStateException("The indexed model " + name + " can't be found, the index is stale", cnfx);
+        }
+    }
+
+
+    /**
+     * Constructor. Not instantiable.
+     */
+    private ModelIndex(){
+
+    }
+}
@@ -0,0 +1,151 @@
+package es.sandwatch.trim;
+
+import es.sandwatch.trim.annotation.Paginated;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+
+
+/**
+ * Describes how to walk the pages of a list endpoint. The field named by {@link #getNextField()}
+ * in the root of every page holds either a link to the next page or a cursor, and a missing or
+ * null value means that the page is the last one. Numbered pagination is the only kind where the
+ * address of a page doesn't depend on the previous page, so its pages can be fetched concurrently.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class Pagination{
+    /**
+     * Creates a pagination from a model's annotation.
+     *
+     * @param annotation the annotation in the model.
+     * @return the pagination.
+     */
+    static @NotNull Pagination create(@NotNull Paginated annotation){
+        return new Pagination(annotation.next(), emptyToNull(annotation.cursorParameter()),
+                emptyToNull(annotation.pageParameter()), annotation.maxPages());
+    }
+
+    /**
+     * Turns empty annotation values into nulls.
+     *
+     * @param value the value.
+     * @return the value, or null if it is empty.
+     */
+    private static @Nullable String emptyToNull(@NotNull String value){
+        return value.isEmpty() ? null : value;
+    }
+
+
+    private final String nextField;
+    private final String cursorParameter;
+    private final String pageParameter;
+    private final int maxPages;
+
+
+    /**
+     * Constructor.
+     *
+     * @param nextField the name of the field holding the link to or the cursor of the next page.
+     * @param cursorParameter the query parameter to pass cursors in, or null if pages are linked.
+     * @param pageParameter the query parameter to pass page numbers in, or null if pages aren't numbered.
+     * @param maxPages the maximum number of pages to fetch.
+     */
+    Pagination(@NotNull String nextField, @Nullable String cursorParameter, @Nullable String pageParameter,
+               int maxPages){
+
+        if (maxPages < 1){
+            throw new IllegalArgumentException("maxPages must be at least 1, got " + maxPages);
+        }
+        if (cursorParameter != null && pageParameter != null){
+            throw new IllegalArgumentException("Pages can't be both numbered and reached through cursors");
+        }
+        this.nextField = nextField;
+        this.cursorParameter = cursorParameter;
+        this.pageParameter = pageParameter;
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Next field getter.
+     *
+     * @return the name of the field holding the link to or the cursor of the next page.
+     */
+    @NotNull String getNextField(){
+        return nextField;
+    }
+
+    /**
+     * Max pages getter.
+     *
+     * @return the maximum number of pages to fetch.
+     */
+    int getMaxPages(){
+        return maxPages;
+    }
+
+    /**
+     * Tells whether pages are numbered, and can therefore be fetched without waiting for the previous one.
+     *
+     * @return true if they are, false otherwise.
+     */
+    boolean isNumbered(){
+        return pageParameter != null;
+    }
+
+    /**
+     * Gets the address of a numbered page.
+     *
+     * @param endpoint the address of the first page.
+     * @param page the number of the page, starting at 1.
+     * @return the address of the page.
+     */
+    @NotNull String getPageUrl(@NotNull String endpoint, int page){
+        return page == 1 ? endpoint : addParameter(endpoint, pageParameter, Integer.toString(page));
+    }
+
+    /**
+     * Gets the address of the page following a linked or cursor paginated page.
+     *
+     * @param endpoint the address of the first page.
+     * @param current the address of the current page.
+     * @param next the value of the next field in the current page.
+     * @return the address of the next page, or null if the link is not a valid address.
+     */
+    @Nullable String getNextUrl(@NotNull String endpoint, @NotNull String current, @NotNull String next){
+        if (cursorParameter != null){
+            return addParameter(endpoint, cursorParameter, next);
+        }
+        try{
+            //Links may be relative to the current page
+            return new URI(current).resolve(next).toString();
+        }
+        catch (URISyntaxException | IllegalArgumentException x){
+            return null;
+        }
+    }
+
+    /**
+     * Adds a query parameter to an address.
+     *
+     * @param url the address.
+     * @param name the name of the parameter.
+     * @param value the value of the parameter.
+     * @return the new address.
+     */
+    private static @NotNull String addParameter(@NotNull String url, @NotNull String name, @NotNull String value){
+        try{
+            return url + (url.contains("?") ? "&" : "?") + URLEncoder.encode(name, "UTF-8") + "="
+                    + URLEncoder.encode(value, "UTF-8");
+        }
+        catch (UnsupportedEncodingException uex){
+            //Every JVM is required to support UTF-8
+            throw new IllegalStateException(uex);
+        }
+    }
+}
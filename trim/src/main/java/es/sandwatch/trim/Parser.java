@@ -3,15 +3,19 @@ package es.sandwatch.trim;
 import es.sandwatch.trim.annotation.AttributeName;
 import es.sandwatch.trim.annotation.CollectionGenericType;
 import es.sandwatch.trim.annotation.Skip;
+import es.sandwatch.trim.annotation.UnusedSinceVersion;
 import org.apache.commons.lang3.ClassUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.*;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 /**
@@ -22,295 +26,442 @@ import java.util.*;
  */
 class Parser{
     /**
-     * Turns a class into a list of ClassFields
+     * Process wide cache of model schemas. Schemas are immutable and share the schemas of nested
+     * classes, so a class is reflected at most once per class loader no matter how many models or
+     * hierarchy branches reference it.
+     */
+    private static final ConcurrentMap<Class<?>, Schema> schemaCache = new ConcurrentHashMap<>();
+
+    /**
+     * Process wide cache of the structural hashes of model schemas.
+     */
+    private static final ConcurrentMap<Class<?>, Long> schemaHashCache = new ConcurrentHashMap<>();
+
+    /**
+     * The schemas generated at build time, by model class, loaded from the registries in every
+     * class loader the first time a model in it is parsed.
+     */
+    private static final ConcurrentMap<ClassLoader, Map<Class<?>, GeneratedSchema>> generatedSchemas
+            = new ConcurrentHashMap<>();
+
+
+    /**
+     * Turns a class into its schema, the model fields keyed by the API attribute they map to. Classes
+     * with a schema generated at build time are not reflected. The result is cached and shared, it
+     * must not be modified.
      *
      * @param src the class to parse.
-     * @return the root node of the complete model hierarchy
+     * @return the schema of the complete model hierarchy.
      */
-    static @NotNull Map<String, FieldNode<Field>> parseClass(@NotNull Class<?> src){
-        List<FieldNode<Field>> classFields = new ArrayList<>();
-        new Parser().parseClass(src, classFields);
-        //Put the results into a map.
-        Map<String, FieldNode<Field>> result = new HashMap<>();
-        for (FieldNode<Field> node:classFields){
-            result.put(node.getName(), node);
+    static @NotNull Schema parseClass(@NotNull Class<?> src){
+        Schema schema = schemaCache.get(src);
+        if (schema == null){
+            schema = new Parser(true, true).resolveSchema(src);
         }
-        return result;
+        return schema;
     }
 
     /**
-     * Parses a JSON string into a FieldNode hierarchy.
+     * Turns a class into its schema by reflection, without looking it up in or publishing it to the
+     * cache, and ignoring generated schemas. Used to measure the cost of reflection,
+     * {@link #parseClass(Class)} should be used otherwise.
      *
-     * @param src the source string.
-     * @return a set of FieldNodes.
+     * @param src the class to parse.
+     * @return the schema of the complete model hierarchy.
      */
-    static @NotNull FieldNode<JsonType> parseJson(@NotNull String src){
-        return new FieldNode<>(JsonType.OBJECT, "", new Parser().parseJsonInternal(src));
+    static @NotNull Schema reflectClass(@NotNull Class<?> src){
+        return new Parser(false, false).getSchema(src);
     }
 
-
     /**
-     * A set containing all seen classes down a single hierarchy path. This class is used to prevent
-     * infinite loops in the case where someone might have included a reference to class A in class B
-     * and a reference to class B in class A.
+     * Parses a JSON string into its shape.
+     *
+     * @param src the source string.
+     * @param sampler the sampler deciding which array items are inspected.
+     * @return the shape of the document.
      */
-    private Set<Class<?>> seenClasses;
-
+    static @NotNull Shape parseJson(@NotNull String src, @NotNull ArraySampler sampler){
+        return parseJson(ResponseBody.of(src), sampler, 0);
+    }
 
     /**
-     * Constructor.
+     * Parses a UTF-8 encoded JSON stream into its shape. The stream is not closed.
+     *
+     * @param src the source stream.
+     * @param sampler the sampler deciding which array items are inspected.
+     * @return the shape of the document.
      */
-    private Parser(){
-        seenClasses = new HashSet<>();
+    static @NotNull Shape parseJson(@NotNull InputStream src, @NotNull ArraySampler sampler){
+        try{
+            return new JsonShapeReader(src, sampler).readRootObject();
+        }
+        catch (IOException iox){
+            //Halt if the source is malformed or can't be read
+            return Shape.unparsed();
+        }
     }
 
     /**
-     * Turns a class into a list of ClassFields
+     * Parses a response body into its shape, reading its bytes in place, optionally splitting the
+     * arrays in it into batches of items parsed by fork join subtasks.
      *
-     * @param srcClass the class to parse.
-     * @param targetList the root node of the model hierarchy
+     * @param src the source body.
+     * @param sampler the sampler deciding which array items are inspected.
+     * @param splitSize the number of bytes of array items parsed by every subtask, 0 to never split.
+     * @return the shape of the document. If the source is not a well formed JSON object, the root won't be parsed.
      */
-    private void parseClass(@NotNull Class<?> srcClass, @NotNull List<FieldNode<Field>> targetList){
-        //Do not parse java.lang.Object
-        if (!srcClass.equals(Object.class)){
-            seenClasses.add(srcClass);
-            //For every declared field in the target
-            for (Field field:srcClass.getDeclaredFields()){
-                if (field.getAnnotation(Skip.class) == null){
-                    //Extract the serialized name of the field, annotation overrides field name
-                    AttributeName annotation = field.getAnnotation(AttributeName.class);
-                    String name;
-                    if (annotation == null){
-                        name = field.getName();
-                    }
-                    else{
-                        name = annotation.value();
-                    }
-                    List<FieldNode<Field>> fieldClassFields = null;
-
-                    Class<?> fieldClass = field.getType();
-                    if (shouldParseClass(fieldClass)){
-                        fieldClassFields = new ArrayList<>();
-                        parseClass(fieldClass, fieldClassFields);
-                    }
-                    if (Collection.class.isAssignableFrom(fieldClass)){
-                        CollectionGenericType type = field.getAnnotation(CollectionGenericType.class);
-                        if (type != null){
-                            fieldClassFields = new ArrayList<>();
-                            parseClass(type.value(), fieldClassFields);
-                        }
-                    }
-
-                    //Add a new FieldNode to the list
-                    targetList.add(new FieldNode<>(field, name, fieldClassFields));
-                }
-            }
-
-            //Parse superclasses as well
-            parseClass(srcClass.getSuperclass(), targetList);
-            seenClasses.remove(srcClass);
+    static @NotNull Shape parseJson(@NotNull ResponseBody src, @NotNull ArraySampler sampler, int splitSize){
+        try{
+            return openReader(src, sampler, splitSize).readRootObject();
+        }
+        catch (IOException iox){
+            //Halt if the source is malformed or can't be read
+            return Shape.unparsed();
         }
     }
 
     /**
-     * Tells whether the target should be parsed and added to the hierarchy.
-     *
-     * Things that should NOT be parsed:
-     *   - Primitives
-     *   - Primitive wrappers
-     *   - CharSequences
-     *   - Collections
-     *   - Classes already seen in the current hierarchy branch
+     * Finds the value of a string field in the root object of a response body without parsing the
+     * rest of the document.
      *
-     * @param target the class type to be checked.
-     * @return true if it should, false otherwise.
+     * @param src the source body.
+     * @param name the name of the field.
+     * @return the value of the field, or null if the field is missing, null or not a string, or the
+     *         source is not a well formed JSON object.
      */
-    private boolean shouldParseClass(Class<?> target){
-        return !ClassUtils.isPrimitiveOrWrapper(target) &&
-                !CharSequence.class.isAssignableFrom(target) &&
-                !Collection.class.isAssignableFrom(target) &&
-                !seenClasses.contains(target);
+    static @Nullable String findRootString(@NotNull ResponseBody src, @NotNull String name){
+        try{
+            return openReader(src, ArraySampler.ALL, 0).findRootString(name);
+        }
+        catch (IOException iox){
+            return null;
+        }
     }
 
     /**
-     * Parses a JSON string into a FieldNode hierarchy.
+     * Finds the values at a path of fields in a response body without parsing the rest of the
+     * document, walking through arrays item by item.
      *
-     * @param src the source string.
-     * @return a set of FieldNodes or null if src was malformatted.
+     * @param src the source body.
+     * @param path the names of the fields leading to the values.
+     * @param maxValues the number of distinct values to stop at.
+     * @return the distinct strings, numbers and booleans at the path, in document order and as
+     *         written, or an empty list if the source turns out not to be well formed JSON before
+     *         enough values are found.
      */
-    private @Nullable Set<FieldNode<JsonType>> parseJsonInternal(@NotNull String src){
-        Set<FieldNode<JsonType>> fieldSet = new HashSet<>();
+    static @NotNull List<String> findValues(@NotNull ResponseBody src, @NotNull String[] path, int maxValues){
         try{
-            //Parse the object and get a key iterator
-            JSONObject object = new JSONObject(src);
-            Iterator<String> keys = object.keys();
-            //So long as there are values
-            while (keys.hasNext()){
-                //Extract the next key
-                String key = keys.next();
-                Set<FieldNode<JsonType>> objectFields = null;
-                Object unknown = object.get(key);
-                JsonType type = JsonType.getTypeOf(unknown);
-                //If the next object is a nested JSON object, parse it
-                if (type == JsonType.OBJECT){
-                    objectFields = parseJsonInternal(unknown.toString());
-                }
-                else if (type == JsonType.ARRAY){
-                    objectFields = parseJsonArrayInternal((JSONArray)unknown);
-                }
-                //Add the node to the set
-                fieldSet.add(new FieldNode<>(type, key, objectFields));
-            }
+            return new ArrayList<>(openReader(src, ArraySampler.ALL, 0).findValues(path, maxValues));
         }
-        catch (JSONException jx){
-            //Halt if an exception is raised
-            return null;
+        catch (IOException iox){
+            return new ArrayList<>();
         }
-        return fieldSet;
     }
 
     /**
-     * Parses a JSONArray into a FieldNode hierarchy.
+     * Creates a reader over a response body.
      *
-     * @param array the source JSONArray.
-     * @return a set of FieldNodes containing a single FieldNode representing the structure of the array's items.
+     * @param src the source body.
+     * @param sampler the sampler deciding which array items are inspected.
+     * @param splitSize the number of bytes of array items parsed by every subtask, 0 to never split.
+     * @return the reader.
+     * @throws IOException if the body can't be read.
      */
-    private Set<FieldNode<JsonType>> parseJsonArrayInternal(JSONArray array){
-        if (array.length() == 0){
-            Set<FieldNode<JsonType>> set = new HashSet<>();
-            set.add(new FieldNode<>(JsonType.NONE, "", null));
-            return set;
+    private static @NotNull JsonShapeReader openReader(@NotNull ResponseBody src, @NotNull ArraySampler sampler,
+                                                       int splitSize) throws IOException{
+
+        Charset charset = src.getCharset();
+        if (JsonShapeReader.canScan(charset)){
+            return new JsonShapeReader(src.getBuffers(), charset, sampler, splitSize);
         }
-        else{
-            Set<FieldNode<JsonType>> objectFields = null;
-            //Get only the first item in the array, let's assume all items are of the same type
-            //TODO? Java is statically typed though
-            Object unknown = array.get(0);
-            JsonType type = JsonType.getTypeOf(unknown);
-            if (type == JsonType.OBJECT){
-                objectFields = parseJsonInternal(unknown.toString());
+        //Bodies in charsets that can't be scanned byte by byte, such as UTF-16, are rare; transcode them
+        ByteBuffer transcoded = ByteBuffer.wrap(src.decode().getBytes(StandardCharsets.UTF_8));
+        return new JsonShapeReader(new ByteBuffer[]{transcoded}, StandardCharsets.UTF_8, sampler, splitSize);
+    }
+
+    /**
+     * Computes the structural hash of every node of a shape: types, names, presence counts and
+     * children, regardless of the order in which the children were found. Nodes are hashed in a
+     * single pass from the last one back, since children always come after their parents.
+     *
+     * @param shape the shape.
+     * @return the hash of every node, indexed by node, stable across runs. The root's is that of
+     *         the whole shape.
+     */
+    static @NotNull long[] hashShape(@NotNull Shape shape){
+        //Every slot holds the sum of the hashes of the node's children until the node is reached
+        long[] hashes = new long[shape.size()];
+        for (int node = shape.size() - 1; node >= Shape.ROOT; node--){
+            long hash = mix(mix(hashString(shape.getName(node)), shape.getType(node).ordinal()), shape.getOccurrences(node));
+            hash = mix(mix(mix(hash, shape.getSamples(node)), shape.getNulls(node)), shape.getTypes(node));
+            if (shape.isParsedObject(node)){
+                //Children are summed so that their order doesn't matter
+                hash = mix(hash, hashes[node]);
             }
-            else if (type == JsonType.ARRAY){
-                objectFields = parseJsonArrayInternal((JSONArray)unknown);
+            hashes[node] = hash == 0 ? 1 : hash;
+            if (shape.getParent(node) != -1){
+                hashes[shape.getParent(node)] += hashes[node];
             }
-            return objectFields;
         }
+        return hashes;
     }
 
-
     /**
-     * Represents an object in the field hierarchy.
+     * Finds the schema generated at build time for a class.
      *
-     * @author Ismael Alonso
-     * @version 1.0.0
+     * @param src the class.
+     * @return the generated schema, or null if there's none.
      */
-    static class FieldNode<T>{
-        private T payload;
-        private String name;
-        private Map<String, FieldNode<T>> children;
-
-
-        /**
-         * Constructor.
-         *
-         * @param name the name of the field.
-         * @param children a list containing the object's fields
-         */
-        private FieldNode(@NotNull T payload, @NotNull String name, @Nullable Collection<FieldNode<T>> children){
-            this.payload = payload;
-            this.name = name;
-            if (children != null){
-                this.children = new HashMap<>();
-                for (FieldNode<T> child:children){
-                    this.children.put(child.getName(), child);
+    private static @Nullable GeneratedSchema findGeneratedSchema(@NotNull Class<?> src){
+        ClassLoader loader = src.getClassLoader();
+        if (loader == null){
+            //Classes in the bootstrap class loader aren't models
+            return null;
+        }
+        Map<Class<?>, GeneratedSchema> schemas = generatedSchemas.get(loader);
+        if (schemas == null){
+            schemas = new HashMap<>();
+            try{
+                for (SchemaRegistry registry:ServiceLoader.load(SchemaRegistry.class, loader)){
+                    for (GeneratedSchema schema:registry.getSchemas()){
+                        schemas.put(schema.getModel(), schema);
+                    }
                 }
             }
+            catch (ServiceConfigurationError | LinkageError error){
+                //A broken registry leaves its classes, and those of the registries after it, to reflection
+            }
+            Map<Class<?>, GeneratedSchema> existing = generatedSchemas.putIfAbsent(loader, schemas);
+            if (existing != null){
+                schemas = existing;
+            }
         }
+        return schemas.get(src);
+    }
 
-        /**
-         * Payload getter.
-         *
-         * @return the node's payload.
-         */
-        @NotNull T getPayload(){
-            return payload;
+    /**
+     * Computes the structural hash of a model's schema: the names, types, nested classes and
+     * annotations of every field in the hierarchy. Hashes are cached like schemas.
+     *
+     * @param src the model class.
+     * @return the hash, stable across runs as long as the class doesn't change.
+     */
+    static long hashSchema(@NotNull Class<?> src){
+        Long hash = schemaHashCache.get(src);
+        if (hash == null){
+            hash = hashSchema(parseClass(src), new IdentityHashMap<Schema, Integer>());
+            schemaHashCache.putIfAbsent(src, hash);
         }
+        return hash;
+    }
 
-        /**
-         * Name getter.
-         *
-         * @return the name of the field.
-         */
-        @NotNull String getName(){
-            return name;
+    /**
+     * Computes the structural hash of a schema. Schemas may be cyclic, so a schema that is already
+     * being hashed contributes the order in which it was first reached instead.
+     *
+     * @param schema the schema.
+     * @param visited the schemas reached so far and the order in which they were reached.
+     * @return the hash.
+     */
+    private static long hashSchema(@NotNull Schema schema, @NotNull Map<Schema, Integer> visited){
+        Integer index = visited.get(schema);
+        if (index != null){
+            return mix(-1, index);
         }
+        visited.put(schema, visited.size());
 
-        /**
-         * Tells whether this field was parsed.
-         *
-         * @return true if it was, false otherwise.
-         */
-        boolean isParsedObject(){
-            return children != null;
+        //Fields are sorted by symbol, which changes across runs, so hash them in name order
+        Integer[] order = new Integer[schema.size()];
+        for (int i = 0; i < order.length; i++){
+            order[i] = i;
         }
+        Arrays.sort(order, (first, second) ->
+                schema.getField(first).getName().compareTo(schema.getField(second).getName()));
 
-        /**
-         * Children getter.
-         *
-         * @return the children map.
-         */
-        Map<String, FieldNode<T>> getChildren(){
-            return children;
+        long hash = schema.size();
+        for (int position:order){
+            ModelField field = schema.getField(position);
+            hash = mix(hash, hashString(field.getName()));
+            hash = mix(hash, hashString(field.getType().getName()));
+            hash = mix(hash, field.getJsonType().ordinal());
+            hash = mix(hash, field.getUnusedSinceVersion());
+            if (field.getModelClass() != null){
+                hash = mix(hash, hashSchema(schema.getChildren(position), visited));
+            }
         }
+        return hash;
+    }
 
-        /**
-         * Tells whether this node contains a child.
-         *
-         * @param childName the name of the child to be checked.
-         * @return true if it does, false otherwise.
-         */
-        boolean contains(String childName){
-            return children.containsKey(childName);
+    /**
+     * Hashes a string independently of String.hashCode().
+     *
+     * @param string the string.
+     * @return the hash.
+     */
+    private static long hashString(@NotNull String string){
+        long hash = string.length();
+        for (int i = 0; i < string.length(); i++){
+            hash = mix(hash, string.charAt(i));
         }
+        return hash;
+    }
 
-        FieldNode<T> get(String childName){
-            return children.get(childName);
-        }
+    /**
+     * Mixes a value into a hash.
+     *
+     * @param hash the hash so far.
+     * @param value the value.
+     * @return the new hash.
+     */
+    static long mix(long hash, long value){
+        hash = (hash ^ value)*0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+
+
+    /**
+     * The schemas being resolved by this parser, which are published to the cache only once all of
+     * them are complete. Classes reached again while being resolved, as in the case where someone
+     * might have included a reference to class A in class B and a reference to class B in class A,
+     * simply point back to the schema in progress, so schemas may be cyclic graphs.
+     */
+    private Map<Class<?>, Schema> pendingSchemas;
+    private boolean useCache;
+    private boolean useGenerated;
+
+
+    /**
+     * Constructor.
+     *
+     * @param useCache whether schemas already in the cache are reused.
+     * @param useGenerated whether schemas generated at build time are used instead of reflection.
+     */
+    private Parser(boolean useCache, boolean useGenerated){
+        this.pendingSchemas = new HashMap<>();
+        this.useCache = useCache;
+        this.useGenerated = useGenerated;
+    }
 
-        /**
-         * Removes a child a child.
-         *
-         * @param childName the name of the child to be removed.
-         */
-        void remove(String childName){
-            children.remove(childName);
+    /**
+     * Resolves the schema of a class and every class reachable from it, and publishes them to the cache.
+     *
+     * @param src the class to parse.
+     * @return the schema of the class.
+     */
+    private @NotNull Schema resolveSchema(@NotNull Class<?> src){
+        Schema schema = getSchema(src);
+        for (Map.Entry<Class<?>, Schema> entry:pendingSchemas.entrySet()){
+            schemaCache.putIfAbsent(entry.getKey(), entry.getValue());
         }
+        //Another thread may have won the race, in which case use the published graph
+        return schemaCache.get(src);
+    }
 
-        @Override
-        public String toString(){
-            return toString("");
+    /**
+     * Gets the schema of a class, parsing it if it isn't cached or being parsed already. The fields of
+     * a class with a generated schema are taken from it, the rest are reflected.
+     *
+     * @param srcClass the class to parse.
+     * @return the schema of the class, which may still be getting filled.
+     */
+    private @NotNull Schema getSchema(@NotNull Class<?> srcClass){
+        Schema schema = useCache ? schemaCache.get(srcClass) : null;
+        if (schema == null){
+            schema = pendingSchemas.get(srcClass);
         }
+        if (schema == null){
+            schema = new Schema();
+            pendingSchemas.put(srcClass, schema);
 
-        /**
-         * String generation method with spacing to make hierarchy clear when printing.
-         *
-         * @param spacing the spacing to be included before field names.
-         * @return the string representing this hierarchy.
-         */
-        private String toString(String spacing){
-            StringBuilder result = new StringBuilder();
-            result.append("\n").append(spacing);
-            if (!(payload instanceof Field)){
-                result.append(payload).append(" ");
+            GeneratedSchema generated = useGenerated ? findGeneratedSchema(srcClass) : null;
+            List<ModelField> list;
+            if (generated == null){
+                Map<String, ModelField> fields = new HashMap<>();
+                parseClass(srcClass, fields);
+                list = new ArrayList<>(fields.values());
+            }
+            else{
+                list = generated.getFields();
             }
-            result.append(name);
-            if (isParsedObject()){
-                spacing += "  ";
-                for (FieldNode<T> node:children.values()){
-                    result.append(node.toString(spacing));
+            List<Schema> children = new ArrayList<>();
+            for (ModelField field:list){
+                children.add(field.getModelClass() == null ? Schema.EMPTY : getSchema(field.getModelClass()));
+            }
+            schema.setFields(list, children);
+        }
+        return schema;
+    }
+
+    /**
+     * Parses the fields of a class and its superclasses into a map. Fields in superclasses override
+     * fields in subclasses mapping to the same attribute.
+     *
+     * @param srcClass the class to parse.
+     * @param target the map where the fields are to be put, keyed by API attribute name.
+     */
+    private void parseClass(@NotNull Class<?> srcClass, @NotNull Map<String, ModelField> target){
+        //Do not parse java.lang.Object, interfaces have no superclass at all
+        for (Class<?> current = srcClass; current != null && !current.equals(Object.class);
+             current = current.getSuperclass()){
+
+            //For every declared field in the target
+            for (Field field:current.getDeclaredFields()){
+                if (field.getAnnotation(Skip.class) == null){
+                    ModelField modelField = parseField(field);
+                    target.put(modelField.getName(), modelField);
                 }
             }
-            return result.toString();
         }
     }
+
+    /**
+     * Turns a field into a model field, resolving all of its annotations.
+     *
+     * @param field the field to parse.
+     * @return the model field.
+     */
+    private @NotNull ModelField parseField(@NotNull Field field){
+        //Extract the serialized name of the field, annotation overrides field name
+        AttributeName annotation = field.getAnnotation(AttributeName.class);
+        String name;
+        if (annotation == null){
+            name = field.getName();
+        }
+        else{
+            name = annotation.value();
+        }
+
+        Class<?> fieldClass = field.getType();
+        Class<?> modelClass = null;
+        if (shouldParseClass(fieldClass)){
+            modelClass = fieldClass;
+        }
+        if (Collection.class.isAssignableFrom(fieldClass)){
+            CollectionGenericType type = field.getAnnotation(CollectionGenericType.class);
+            if (type != null){
+                modelClass = type.value();
+            }
+        }
+
+        UnusedSinceVersion unusedSinceVersion = field.getAnnotation(UnusedSinceVersion.class);
+        return new ModelField(name, fieldClass, modelClass, unusedSinceVersion == null ? -1 : unusedSinceVersion.value());
+    }
+
+    /**
+     * Tells whether the target should be parsed and added to the hierarchy.
+     *
+     * Things that should NOT be parsed:
+     *   - Primitives
+     *   - Primitive wrappers
+     *   - CharSequences
+     *   - Collections
+     *
+     * @param target the class type to be checked.
+     * @return true if it should, false otherwise.
+     */
+    private boolean shouldParseClass(Class<?> target){
+        return !ClassUtils.isPrimitiveOrWrapper(target) &&
+                !CharSequence.class.isAssignableFrom(target) &&
+                !Collection.class.isAssignableFrom(target);
+    }
 }
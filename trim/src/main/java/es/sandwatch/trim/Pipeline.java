@@ -0,0 +1,171 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The executors behind the three stages of an asynchronous run: fetching, parsing and analyzing.
+ * Every stage has its own daemon threads so that CPU bound parsing of one endpoint overlaps with
+ * network waits on others. The queues in front of the parse and analyze stages are bounded; when
+ * they are full, the thread handing work over waits, which keeps fetched responses from piling
+ * up in memory. The fetch queue only holds models, so submitting a run never blocks the caller.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class Pipeline{
+    /**
+     * The number of tasks that can wait in a bounded stage queue per stage thread.
+     */
+    private static final int QUEUED_TASKS_PER_THREAD = 2;
+
+
+    private final ThreadPoolExecutor fetchExecutor;
+    private final ThreadPoolExecutor parseExecutor;
+    private final ThreadPoolExecutor analyzeExecutor;
+
+
+    /**
+     * Constructor.
+     *
+     * @param specification the specification containing the size of every stage.
+     */
+    Pipeline(@NotNull Specification specification){
+        int fetchThreads = specification.getMaxConcurrency();
+        fetchExecutor = new ThreadPoolExecutor(fetchThreads, fetchThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new StageThreadFactory("fetch"));
+        parseExecutor = createBoundedExecutor("parse", specification.getParseThreads());
+        analyzeExecutor = createBoundedExecutor("analyze", specification.getAnalyzeThreads());
+    }
+
+    /**
+     * Creates the executor of a stage with a bounded queue.
+     *
+     * @param stage the name of the stage.
+     * @param threads the number of threads in the stage.
+     * @return the executor.
+     */
+    private static @NotNull ThreadPoolExecutor createBoundedExecutor(@NotNull String stage, int threads){
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads*QUEUED_TASKS_PER_THREAD),
+                new StageThreadFactory(stage), new WaitForSpacePolicy());
+    }
+
+    /**
+     * Runs a task in the fetch stage.
+     *
+     * @param task the task to run.
+     * @param future the future to fail if the task throws.
+     */
+    void fetch(@NotNull Runnable task, @NotNull CompletableFuture<?> future){
+        submit(fetchExecutor, task, future);
+    }
+
+    /**
+     * Runs a task in the parse stage, waiting for room in the stage's queue if necessary.
+     *
+     * @param task the task to run.
+     * @param future the future to fail if the task throws.
+     */
+    void parse(@NotNull Runnable task, @NotNull CompletableFuture<?> future){
+        submit(parseExecutor, task, future);
+    }
+
+    /**
+     * Runs a task in the analyze stage, waiting for room in the stage's queue if necessary.
+     *
+     * @param task the task to run.
+     * @param future the future to fail if the task throws.
+     */
+    void analyze(@NotNull Runnable task, @NotNull CompletableFuture<?> future){
+        submit(analyzeExecutor, task, future);
+    }
+
+    /**
+     * Stops every stage. Tasks still queued are discarded.
+     */
+    void shutdown(){
+        fetchExecutor.shutdownNow();
+        parseExecutor.shutdownNow();
+        analyzeExecutor.shutdownNow();
+    }
+
+    /**
+     * Submits a task to a stage so that any failure, including the stage rejecting it, ends up in the future.
+     *
+     * @param executor the executor of the stage.
+     * @param task the task to run.
+     * @param future the future to fail if the task can't be run or throws.
+     */
+    private void submit(@NotNull Executor executor, @NotNull Runnable task, @NotNull CompletableFuture<?> future){
+        try{
+            executor.execute(() -> {
+                try{
+                    task.run();
+                }
+                catch (Throwable throwable){
+                    future.completeExceptionally(throwable);
+                }
+            });
+        }
+        catch (RejectedExecutionException rex){
+            future.completeExceptionally(rex);
+        }
+    }
+
+
+    /**
+     * Makes the thread handing a task over to a full stage wait until there's room for it.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class WaitForSpacePolicy implements RejectedExecutionHandler{
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor){
+            if (executor.isShutdown()){
+                throw new RejectedExecutionException("The stage has been shut down");
+            }
+            try{
+                executor.getQueue().put(task);
+            }
+            catch (InterruptedException ix){
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for room in the stage", ix);
+            }
+        }
+    }
+
+
+    /**
+     * Creates the daemon threads of a stage.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class StageThreadFactory implements ThreadFactory{
+        private final String stage;
+        private final AtomicInteger count;
+
+
+        /**
+         * Constructor.
+         *
+         * @param stage the name of the stage.
+         */
+        private StageThreadFactory(@NotNull String stage){
+            this.stage = stage;
+            this.count = new AtomicInteger();
+        }
+
+        @Override
+        public Thread newThread(@NotNull Runnable runnable){
+            Thread thread = new Thread(runnable, "trim-" + stage + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
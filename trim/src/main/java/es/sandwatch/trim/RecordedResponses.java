@@ -0,0 +1,676 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Replays responses recorded earlier instead of hitting the endpoints, so runs need no network.
+ * Responses are read either from a directory or from a HAR archive.
+ *
+ * In a directory, the response to every address is a file named after the address without its
+ * scheme, where every character other than letters, digits, dots, dashes and underscores is
+ * replaced by an underscore, plus a .json extension. For instance, the response to
+ * http://example.com/api/items/?page=2 is in example.com_api_items__page_2.json. These files are
+ * memory mapped when read, so any number of them can be analyzed at once without being loaded
+ * into the heap. Addresses without a file get a 404.
+ *
+ * In a HAR archive, every GET entry is the response to its address. When an address was recorded
+ * more than once, consecutive requests to it get the recordings in turn, which suits sampled
+ * endpoints. The archive is memory mapped and scanned once, keeping only where every body is.
+ * Bodies recorded as plain text are served as slices of the mapping; those with escapes or
+ * encoded in base64 are decoded whenever they are requested.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class RecordedResponses implements ResponseSource{
+    private static final String DIRECTORY_EXTENSION = ".json";
+    private static final String HAR_EXTENSION = ".har";
+
+
+    /**
+     * Opens a recording.
+     *
+     * @param recording a directory or a HAR archive.
+     * @return the source replaying the recording.
+     * @throws IOException if the recording doesn't exist or can't be read.
+     */
+    static @NotNull RecordedResponses open(@NotNull File recording) throws IOException{
+        if (recording.isDirectory()){
+            return new RecordedResponses(recording.toPath(), Collections.<String, List<Recording>>emptyMap());
+        }
+        if (recording.isFile() && recording.getName().toLowerCase(Locale.ROOT).endsWith(HAR_EXTENSION)){
+            return readHar(recording.toPath());
+        }
+        throw new IOException("Expected a directory or a " + HAR_EXTENSION + " archive: " + recording);
+    }
+
+    /**
+     * Reads the GET entries of a HAR archive.
+     *
+     * @param har the archive.
+     * @return the source replaying the archive.
+     * @throws IOException if the archive can't be read or is malformed.
+     */
+    private static @NotNull RecordedResponses readHar(@NotNull Path har) throws IOException{
+        ResponseBody archive = ResponseBody.ofFile(har, Files.size(har));
+        return new RecordedResponses(null, new HarReader(har, archive.getBuffers()).readArchive());
+    }
+
+    /**
+     * Gets the name of the file holding the response to an address in a recording directory.
+     *
+     * @param url the address.
+     * @return the name of the file.
+     */
+    static @NotNull String getFileName(@NotNull String url){
+        int scheme = url.indexOf("://");
+        String name = scheme == -1 ? url : url.substring(scheme + 3);
+        return name.replaceAll("[^A-Za-z0-9._-]", "_") + DIRECTORY_EXTENSION;
+    }
+
+
+    private final Path directory;
+    private final Map<String, List<Recording>> recordings;
+
+    /**
+     * The number of times every address of a HAR archive has been requested.
+     */
+    private final Map<String, AtomicInteger> requests;
+
+
+    /**
+     * Constructor.
+     *
+     * @param directory the recording directory, or null if replaying a HAR archive.
+     * @param recordings the recorded responses to every address of a HAR archive.
+     */
+    private RecordedResponses(@Nullable Path directory, @NotNull Map<String, List<Recording>> recordings){
+        this.directory = directory;
+        this.recordings = recordings;
+        this.requests = new HashMap<>();
+        for (String url:recordings.keySet()){
+            requests.put(url, new AtomicInteger());
+        }
+    }
+
+    @Override
+    public @NotNull RequestResult getEndpointData(@NotNull Class<?> model, @NotNull String url){
+        if (directory != null){
+            Path file = directory.resolve(getFileName(url));
+            try{
+                if (Files.isRegularFile(file)){
+                    return new RequestResult(RequestTiming.NONE, 200, ResponseBody.ofFile(file, Files.size(file)),
+                            false, null, false, false);
+                }
+            }
+            catch (IOException iox){
+                iox.printStackTrace();
+                return new RequestResult();
+            }
+        }
+        else if (recordings.containsKey(url)){
+            List<Recording> recorded = recordings.get(url);
+            Recording recording = recorded.get(requests.get(url).getAndIncrement()%recorded.size());
+            try{
+                return new RequestResult(RequestTiming.NONE, recording.statusCode, recording.getBody(), false, null,
+                        false, false);
+            }
+            catch (IOException iox){
+                iox.printStackTrace();
+                return new RequestResult();
+            }
+        }
+        return new RequestResult(RequestTiming.NONE, 404, ResponseBody.of("No recorded response for " + url), false,
+                null, false, false);
+    }
+
+    @Override
+    public @Nullable ConnectionPoolStats getPoolStats(){
+        return null;
+    }
+
+    @Override
+    public void close(){
+        //Recorded bodies are in files that belong to the recording
+    }
+
+    /**
+     * Decodes the escapes of the contents of a JSON string.
+     *
+     * @param in the contents, without the quotes.
+     * @param out the builder where the decoded string is to be put.
+     * @throws IOException if the contents can't be read or hold a malformed escape.
+     */
+    private static void unescape(@NotNull Reader in, @NotNull StringBuilder out) throws IOException{
+        int c;
+        while ((c = in.read()) != -1){
+            if (c != '\\'){
+                out.append((char)c);
+                continue;
+            }
+            c = in.read();
+            switch (c){
+                case 'b':
+                    out.append('\b');
+                    break;
+                case 'f':
+                    out.append('\f');
+                    break;
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case '"':
+                case '\\':
+                case '/':
+                    out.append((char)c);
+                    break;
+                case 'u':
+                    char[] hex = new char[4];
+                    for (int i = 0; i < hex.length; i++){
+                        int digit = in.read();
+                        if (Character.digit(digit, 16) == -1){
+                            throw new IOException("Malformed unicode escape");
+                        }
+                        hex[i] = (char)digit;
+                    }
+                    out.append((char)Integer.parseInt(new String(hex), 16));
+                    break;
+                default:
+                    throw new IOException("Malformed escape");
+            }
+        }
+    }
+
+
+    /**
+     * A response recorded in a HAR archive: its status code and the region of the archive holding
+     * the text of its body, as it is written in the archive.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class Recording{
+        private final int statusCode;
+        private final ResponseBody text;
+        private final boolean escaped;
+        private final boolean base64;
+        private final Charset charset;
+
+
+        /**
+         * Constructor.
+         *
+         * @param statusCode the recorded status code.
+         * @param text the text of the body, a region of the archive.
+         * @param escaped whether the text holds escapes.
+         * @param base64 whether the text is the body encoded in base64.
+         * @param charset the charset of the body once decoded from base64.
+         */
+        private Recording(int statusCode, @NotNull ResponseBody text, boolean escaped, boolean base64,
+                          @NotNull Charset charset){
+
+            this.statusCode = statusCode;
+            this.text = text;
+            this.escaped = escaped;
+            this.base64 = base64;
+            this.charset = charset;
+        }
+
+        /**
+         * Gets the recorded body, the region of the archive itself unless it has to be decoded.
+         *
+         * @return the body.
+         * @throws IOException if the archive can't be read or the text is malformed.
+         */
+        private @NotNull ResponseBody getBody() throws IOException{
+            if (!escaped && !base64){
+                return text;
+            }
+            InputStream in = text.openStream();
+            if (escaped){
+                StringBuilder decoded = new StringBuilder();
+                unescape(new InputStreamReader(in, StandardCharsets.UTF_8), decoded);
+                if (!base64){
+                    return ResponseBody.of(decoded.toString());
+                }
+                in = new ByteArrayInputStream(decoded.toString().getBytes(StandardCharsets.US_ASCII));
+            }
+            //Encoded bodies are the bytes as received, in the charset of their mime type
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (InputStream decoder = Base64.getMimeDecoder().wrap(in)){
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = decoder.read(buffer)) != -1){
+                    bytes.write(buffer, 0, read);
+                }
+            }
+            catch (IllegalArgumentException iax){
+                throw new IOException("Malformed base64 body", iax);
+            }
+            return ResponseBody.of(bytes.toByteArray(), charset);
+        }
+    }
+
+
+    /**
+     * Scans a memory mapped HAR archive once, without building it in memory, collecting the
+     * status code of every GET entry and where the text of its body is. Fields the source has no
+     * use for are skipped, and the fields of an object can come in any order.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class HarReader{
+        private final Path har;
+        private final ByteBuffer[] regions;
+        private int region;
+        private long position;
+        private int pushedBack;
+
+        /**
+         * The fields of the entry being read, reset for every entry.
+         */
+        private String method;
+        private String url;
+        private int status;
+        private long textOffset;
+        private long textLength;
+        private boolean textEscaped;
+        private String encoding;
+        private String mimeType;
+
+
+        /**
+         * Constructor.
+         *
+         * @param har the archive.
+         * @param regions the mapped regions of the archive, in order.
+         */
+        private HarReader(@NotNull Path har, @NotNull ByteBuffer[] regions){
+            this.har = har;
+            this.regions = regions;
+            this.region = 0;
+            this.position = 0;
+            this.pushedBack = -1;
+        }
+
+        /**
+         * Reads the GET entries of the archive.
+         *
+         * @return the recorded responses to every address.
+         * @throws IOException if the archive is malformed.
+         */
+        private @NotNull Map<String, List<Recording>> readArchive() throws IOException{
+            Map<String, List<Recording>> recordings = new HashMap<>();
+            if (nextNonWhitespace() != '{'){
+                throw syntaxError("Expected '{' at the start of the archive");
+            }
+            for (String name = nextName(); name != null; name = nextName()){
+                int first = nextNonWhitespace();
+                if (name.equals("log") && first == '{'){
+                    readLog(recordings);
+                }
+                else{
+                    skipValue(first);
+                }
+            }
+            return recordings;
+        }
+
+        /**
+         * Reads the log object, whose opening brace has already been consumed.
+         *
+         * @param recordings the map where the recorded responses are to be put.
+         * @throws IOException if the archive is malformed.
+         */
+        private void readLog(@NotNull Map<String, List<Recording>> recordings) throws IOException{
+            for (String name = nextName(); name != null; name = nextName()){
+                int first = nextNonWhitespace();
+                if (name.equals("entries") && first == '['){
+                    while (nextItem()){
+                        int item = nextNonWhitespace();
+                        if (item != '{'){
+                            throw syntaxError("Expected an entry object");
+                        }
+                        readEntry(recordings);
+                    }
+                }
+                else{
+                    skipValue(first);
+                }
+            }
+        }
+
+        /**
+         * Reads an entry object, whose opening brace has already been consumed, and records its
+         * response if it is a GET.
+         *
+         * @param recordings the map where the recorded responses are to be put.
+         * @throws IOException if the archive is malformed or the entry misses its address or status.
+         */
+        private void readEntry(@NotNull Map<String, List<Recording>> recordings) throws IOException{
+            method = "GET";
+            url = null;
+            status = -1;
+            textOffset = -1;
+            textLength = 0;
+            textEscaped = false;
+            encoding = null;
+            mimeType = null;
+            for (String name = nextName(); name != null; name = nextName()){
+                int first = nextNonWhitespace();
+                if (name.equals("request") && first == '{'){
+                    readRequest();
+                }
+                else if (name.equals("response") && first == '{'){
+                    readResponse();
+                }
+                else{
+                    skipValue(first);
+                }
+            }
+            if (url == null || status == -1){
+                throw syntaxError("Expected an entry with a request url and a response status");
+            }
+            if (!"GET".equalsIgnoreCase(method)){
+                return;
+            }
+            ResponseBody text = textLength == 0 ? ResponseBody.of("")
+                    : ResponseBody.ofFile(har, textOffset, textLength, StandardCharsets.UTF_8);
+            Recording recording = new Recording(status, text, textEscaped, "base64".equalsIgnoreCase(encoding),
+                    ResponseBody.charsetOf(mimeType));
+            recordings.computeIfAbsent(url, key -> new ArrayList<>()).add(recording);
+        }
+
+        /**
+         * Reads the request object of an entry, whose opening brace has already been consumed.
+         *
+         * @throws IOException if the archive is malformed.
+         */
+        private void readRequest() throws IOException{
+            for (String name = nextName(); name != null; name = nextName()){
+                int first = nextNonWhitespace();
+                if (name.equals("method") && first == '"'){
+                    method = readString();
+                }
+                else if (name.equals("url") && first == '"'){
+                    url = readString();
+                }
+                else{
+                    skipValue(first);
+                }
+            }
+        }
+
+        /**
+         * Reads the response object of an entry, whose opening brace has already been consumed.
+         *
+         * @throws IOException if the archive is malformed.
+         */
+        private void readResponse() throws IOException{
+            for (String name = nextName(); name != null; name = nextName()){
+                int first = nextNonWhitespace();
+                if (name.equals("status") && first != '"' && first != '{' && first != '['){
+                    try{
+                        status = Integer.parseInt(readLiteral(first));
+                    }
+                    catch (NumberFormatException nfx){
+                        throw syntaxError("Expected a numeric status");
+                    }
+                }
+                else if (name.equals("content") && first == '{'){
+                    readContent();
+                }
+                else{
+                    skipValue(first);
+                }
+            }
+        }
+
+        /**
+         * Reads the content object of a response, whose opening brace has already been consumed,
+         * noting where its text is rather than reading it.
+         *
+         * @throws IOException if the archive is malformed.
+         */
+        private void readContent() throws IOException{
+            for (String name = nextName(); name != null; name = nextName()){
+                int first = nextNonWhitespace();
+                if (name.equals("text") && first == '"'){
+                    textOffset = position;
+                    textEscaped = skipString();
+                    textLength = position - 1 - textOffset;
+                }
+                else if (name.equals("encoding") && first == '"'){
+                    encoding = readString();
+                }
+                else if (name.equals("mimeType") && first == '"'){
+                    mimeType = readString();
+                }
+                else{
+                    skipValue(first);
+                }
+            }
+        }
+
+        /**
+         * Reads the name of the next field of an object, along with the colon after it.
+         *
+         * @return the name, or null if the closing brace of the object was reached instead.
+         * @throws IOException if the archive is malformed.
+         */
+        private @Nullable String nextName() throws IOException{
+            int c = nextNonWhitespace();
+            if (c == ','){
+                c = nextNonWhitespace();
+            }
+            if (c == '}'){
+                return null;
+            }
+            if (c != '"'){
+                throw syntaxError("Expected a field name or '}'");
+            }
+            String name = readString();
+            if (nextNonWhitespace() != ':'){
+                throw syntaxError("Expected ':' after field name \"" + name + "\"");
+            }
+            return name;
+        }
+
+        /**
+         * Moves on to the next item of an array.
+         *
+         * @return true if there's another item, false if the closing bracket of the array was reached.
+         * @throws IOException if the archive ends before the array does.
+         */
+        private boolean nextItem() throws IOException{
+            int c = nextNonWhitespace();
+            if (c == ','){
+                c = nextNonWhitespace();
+            }
+            if (c == ']'){
+                return false;
+            }
+            if (c == -1){
+                throw syntaxError("Unterminated array");
+            }
+            pushBack(c);
+            return true;
+        }
+
+        /**
+         * Reads and decodes the remainder of a string whose opening quote has already been consumed.
+         *
+         * @return the decoded string.
+         * @throws IOException if the archive is malformed.
+         */
+        private @NotNull String readString() throws IOException{
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            for (int c = read(); c != '"'; c = read()){
+                if (c == -1){
+                    throw syntaxError("Unterminated string");
+                }
+                raw.write(c);
+                if (c == '\\'){
+                    raw.write(read());
+                }
+            }
+            StringBuilder decoded = new StringBuilder();
+            unescape(new StringReader(new String(raw.toByteArray(), StandardCharsets.UTF_8)), decoded);
+            return decoded.toString();
+        }
+
+        /**
+         * Skips the remainder of a string whose opening quote has already been consumed.
+         *
+         * @return true if the string holds escapes, false otherwise.
+         * @throws IOException if the string is unterminated.
+         */
+        private boolean skipString() throws IOException{
+            boolean escaped = false;
+            for (int c = read(); c != '"'; c = read()){
+                if (c == -1){
+                    throw syntaxError("Unterminated string");
+                }
+                if (c == '\\'){
+                    escaped = true;
+                    read();
+                }
+            }
+            return escaped;
+        }
+
+        /**
+         * Reads a number, true, false or null.
+         *
+         * @param first the first character of the literal, already consumed.
+         * @return the literal.
+         * @throws IOException if the archive can't be read.
+         */
+        private @NotNull String readLiteral(int first) throws IOException{
+            StringBuilder literal = new StringBuilder();
+            int c = first;
+            while (c != -1 && c != ',' && c != '}' && c != ']' && c != ' ' && c != '\t' && c != '\n' && c != '\r'){
+                literal.append((char)c);
+                c = read();
+            }
+            if (c != -1){
+                pushBack(c);
+            }
+            return literal.toString();
+        }
+
+        /**
+         * Skips a value of any type.
+         *
+         * @param first the first character of the value, already consumed.
+         * @throws IOException if the archive is malformed.
+         */
+        private void skipValue(int first) throws IOException{
+            if (first == '"'){
+                skipString();
+            }
+            else if (first == '{' || first == '['){
+                int depth = 1;
+                while (depth > 0){
+                    int c = read();
+                    if (c == -1){
+                        throw syntaxError("Unterminated object or array");
+                    }
+                    if (c == '"'){
+                        skipString();
+                    }
+                    else if (c == '{' || c == '['){
+                        depth++;
+                    }
+                    else if (c == '}' || c == ']'){
+                        depth--;
+                    }
+                }
+            }
+            else if (readLiteral(first).isEmpty()){
+                throw syntaxError("Expected a value");
+            }
+        }
+
+        /**
+         * Reads the next character that isn't whitespace.
+         *
+         * @return the character, or -1 at the end of the archive.
+         * @throws IOException if the archive can't be read.
+         */
+        private int nextNonWhitespace() throws IOException{
+            int c = read();
+            while (c == ' ' || c == '\t' || c == '\n' || c == '\r'){
+                c = read();
+            }
+            return c;
+        }
+
+        /**
+         * Reads the next byte of the archive.
+         *
+         * @return the byte, or -1 at the end of the archive.
+         */
+        private int read(){
+            if (pushedBack != -1){
+                int c = pushedBack;
+                pushedBack = -1;
+                position++;
+                return c;
+            }
+            while (region < regions.length && !regions[region].hasRemaining()){
+                region++;
+            }
+            if (region == regions.length){
+                return -1;
+            }
+            position++;
+            return regions[region].get() & 0xFF;
+        }
+
+        /**
+         * Hands a byte back, so that it is read again next.
+         *
+         * @param c the byte.
+         */
+        private void pushBack(int c){
+            pushedBack = c;
+            position--;
+        }
+
+        /**
+         * Creates the exception thrown when the archive is malformed.
+         *
+         * @param message what was expected.
+         * @return the exception.
+         */
+        private @NotNull IOException syntaxError(@NotNull String message){
+            return new IOException("Malformed HAR archive " + har + ": " + message + " at byte " + position);
+        }
+    }
+}
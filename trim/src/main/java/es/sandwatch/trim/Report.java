@@ -2,7 +2,16 @@ package es.sandwatch.trim;
 
 import es.sandwatch.trim.annotation.Endpoint;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,7 +23,44 @@ import java.util.List;
  * @version 1.0.0
  */
 public class Report{
+    /**
+     * The formats reports can be written in.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    public enum Format{
+        /**
+         * The human readable format of {@link Report#toString()}.
+         */
+        TEXT,
+
+        /**
+         * One JSON object per line: a summary of the run first, then one per endpoint, with its
+         * attributes nested. Durations are in nanoseconds.
+         */
+        JSON_LINES,
+
+        /**
+         * One row per attribute, nested attributes flattened into dotted paths, after a header row.
+         * Endpoints without attributes get a row with the attribute columns empty.
+         */
+        CSV
+    }
+
+
     private List<EndpointReport> endpointReports;
+    private ConnectionPoolStats poolStats;
+    private boolean incremental;
+
+    /**
+     * The number of records in the traffic log the report comes from, and how many were skipped
+     * because no model was interested in them or they were malformed. Negative if the report
+     * doesn't come from a log.
+     */
+    private long logRecords;
+    private long unmatchedLogRecords;
+    private long malformedLogRecords;
 
 
     /**
@@ -22,6 +68,11 @@ public class Report{
      */
     Report(){
         endpointReports = new ArrayList<>();
+        poolStats = null;
+        incremental = false;
+        logRecords = -1;
+        unmatchedLogRecords = 0;
+        malformedLogRecords = 0;
     }
 
     /**
@@ -33,19 +84,118 @@ public class Report{
         endpointReports.add(endpointReport);
     }
 
+    /**
+     * Sets the connection pool statistics at the end of the run.
+     *
+     * @param poolStats the use the connection pool saw during the run.
+     */
+    void setPoolStats(@NotNull ConnectionPoolStats poolStats){
+        this.poolStats = poolStats;
+    }
+
+    /**
+     * Lets the report know that it comes from an incremental run, so only endpoints that changed
+     * since the last run are listed.
+     */
+    void setIncremental(){
+        incremental = true;
+    }
+
+    /**
+     * Lets the report know that it comes from a traffic log rather than from requests.
+     *
+     * @param records the number of records in the log.
+     * @param unmatched the number of records of endpoints no model is interested in.
+     * @param malformed the number of records that couldn't be read.
+     */
+    void setTrafficLog(long records, long unmatched, long malformed){
+        logRecords = records;
+        unmatchedLogRecords = unmatched;
+        malformedLogRecords = malformed;
+    }
+
+    /**
+     * Connection pool statistics getter.
+     *
+     * @return the size of the pool, its idle connections at the end of the run and the peaks of
+     *         leased and pending connections during it, or null if no requests were made.
+     */
+    public @Nullable ConnectionPoolStats getPoolStats(){
+        return poolStats;
+    }
+
+    /**
+     * Writes the report as it goes, without building it in memory first. Reports can be written
+     * by several threads at the same time.
+     *
+     * @param writer the destination, which is flushed but not closed.
+     * @param format the format.
+     * @throws IOException if the destination can't be written.
+     */
+    public void write(@NotNull Writer writer, @NotNull Format format) throws IOException{
+        ReportWriter.create(format, writer).write(this);
+        writer.flush();
+    }
+
+    /**
+     * Writes the report as it goes, encoded in UTF-8, without building it in memory first.
+     *
+     * @param out the destination, which is flushed but not closed.
+     * @param format the format.
+     * @throws IOException if the destination can't be written.
+     */
+    public void write(@NotNull OutputStream out, @NotNull Format format) throws IOException{
+        write(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), format);
+    }
+
+    /**
+     * Endpoint reports getter.
+     *
+     * @return the reports of every endpoint, in the order their models were added.
+     */
+    @NotNull List<EndpointReport> getEndpointReports(){
+        return endpointReports;
+    }
+
+    /**
+     * Tells whether the report comes from an incremental run.
+     *
+     * @return true if it does, false otherwise.
+     */
+    boolean isIncremental(){
+        return incremental;
+    }
+
+    /**
+     * Log records getter.
+     *
+     * @return the number of records in the traffic log the report comes from, or -1 if it doesn't.
+     */
+    long getLogRecords(){
+        return logRecords;
+    }
+
+    /**
+     * Unmatched log records getter.
+     *
+     * @return the number of records of endpoints no model is interested in.
+     */
+    long getUnmatchedLogRecords(){
+        return unmatchedLogRecords;
+    }
+
+    /**
+     * Malformed log records getter.
+     *
+     * @return the number of records that couldn't be read.
+     */
+    long getMalformedLogRecords(){
+        return malformedLogRecords;
+    }
+
     @Override
     public String toString(){
-        StringBuilder report = new StringBuilder();
-        if (endpointReports.isEmpty()){
-            report.append("Nothing to report.");
-        }
-        else{
-            report.append("Trim report, ").append(endpointReports.size()).append(" endpoints:");
-            for (EndpointReport endpointReport:endpointReports){
-                report.append("\n\n").append(endpointReport);
-            }
-        }
-        return report.toString();
+        return ReportWriter.toText(this);
     }
 
 
@@ -58,8 +208,27 @@ public class Report{
     static class EndpointReport{
         private String endpoint;
         private Class<?> model;
-        private Fetcher.RequestResult requestResult;
+        private RequestResult requestResult;
+        private long responseSize;
+        private String serverResponse;
         private boolean responseFormatError;
+        private boolean unchanged;
+        private int pages;
+        private int samples;
+
+        /**
+         * The number of records and their total size, for reports coming from a traffic log, or
+         * negative for reports coming from requests.
+         */
+        private int logRecords;
+        private long logBytes;
+
+        /**
+         * The histogram of the time spent in every phase by the requests of the endpoint, indexed by
+         * phase ordinal, or null if no request went through the network.
+         */
+        private LatencyHistogram[] latencies;
+
         private List<AttributeReport> attributeReports;
 
 
@@ -69,11 +238,20 @@ public class Report{
          * @param model the model associated to the report.
          * @param requestResult the result of the request to the above model.
          */
-        EndpointReport(@NotNull Class<?> model, @NotNull Fetcher.RequestResult requestResult){
+        EndpointReport(@NotNull Class<?> model, @NotNull RequestResult requestResult){
             this.endpoint = model.getAnnotation(Endpoint.class).value();
             this.model = model;
             this.requestResult = requestResult;
+            //The body may be released after the report is created, keep what's needed for later
+            this.responseSize = requestResult.getBody().length();
+            this.serverResponse = requestResult.is4xx() ? requestResult.getBody().asString() : null;
             this.responseFormatError = false;
+            this.unchanged = false;
+            this.pages = 1;
+            this.samples = 1;
+            this.logRecords = -1;
+            this.logBytes = 0;
+            this.latencies = null;
             this.attributeReports = new ArrayList<>();
         }
 
@@ -84,6 +262,83 @@ public class Report{
             responseFormatError = true;
         }
 
+        /**
+         * Lets the report know that neither the shape of the response nor the model changed since
+         * the last run, so its attribute reports were reused.
+         */
+        void setUnchanged(){
+            unchanged = true;
+        }
+
+        /**
+         * Tells whether the response and the model are the same as in the last run.
+         *
+         * @return true if they are, false otherwise.
+         */
+        boolean isUnchanged(){
+            return unchanged;
+        }
+
+        /**
+         * Sets the number of pages whose shapes were merged, for paginated endpoints.
+         *
+         * @param pages the number of pages.
+         */
+        void setPages(int pages){
+            this.pages = pages;
+        }
+
+        /**
+         * Sets the number of responses whose shapes were merged, for endpoints sampled more than once.
+         *
+         * @param samples the number of responses.
+         */
+        void setSamples(int samples){
+            this.samples = samples;
+        }
+
+        /**
+         * Lets the report know that it comes from a traffic log rather than from requests.
+         *
+         * @param records the number of records of the endpoint whose shapes were merged.
+         * @param bytes the total size of the records.
+         */
+        void setLogRecords(int records, long bytes){
+            this.logRecords = records;
+            this.logBytes = bytes;
+        }
+
+        /**
+         * Records the timing of a request to the endpoint, such as one of its samples or pages.
+         * Timings of responses that didn't go through the network are ignored.
+         *
+         * @param timing the timing of the request.
+         */
+        void recordTiming(@NotNull RequestTiming timing){
+            if (timing == RequestTiming.NONE){
+                return;
+            }
+            if (latencies == null){
+                latencies = new LatencyHistogram[RequestTiming.Phase.values().length];
+                for (int i = 0; i < latencies.length; i++){
+                    latencies[i] = new LatencyHistogram();
+                }
+            }
+            for (RequestTiming.Phase phase:RequestTiming.Phase.values()){
+                latencies[phase.ordinal()].record(timing.getPhase(phase));
+            }
+        }
+
+        /**
+         * Gets the latency histogram of a phase of the requests to the endpoint.
+         *
+         * @param phase the phase.
+         * @return the histogram, or null if no request went through the network.
+         */
+        @Nullable LatencyHistogram getLatency(@NotNull RequestTiming.Phase phase){
+            return latencies == null ? null : latencies[phase.ordinal()];
+        }
+
         /**
          * Adds information about attribute usage to the report.
          *
@@ -93,29 +348,109 @@ public class Report{
             attributeReports.add(attributeReport);
         }
 
+        /**
+         * Endpoint getter.
+         *
+         * @return the address of the endpoint.
+         */
+        @NotNull String getEndpoint(){
+            return endpoint;
+        }
+
+        /**
+         * Model getter.
+         *
+         * @return the model associated to the report.
+         */
+        @NotNull Class<?> getModel(){
+            return model;
+        }
+
+        /**
+         * Request result getter.
+         *
+         * @return the result of the request to the endpoint, whose body may have been released.
+         */
+        @NotNull RequestResult getRequestResult(){
+            return requestResult;
+        }
+
+        /**
+         * Response size getter.
+         *
+         * @return the decoded size of the response, in bytes.
+         */
+        long getResponseSize(){
+            return responseSize;
+        }
+
+        /**
+         * Server response getter.
+         *
+         * @return the body of the response if its status code is 4xx, null otherwise.
+         */
+        @Nullable String getServerResponse(){
+            return serverResponse;
+        }
+
+        /**
+         * Tells whether the format of the response couldn't be understood.
+         *
+         * @return true if it couldn't, false otherwise.
+         */
+        boolean isResponseFormatError(){
+            return responseFormatError;
+        }
+
+        /**
+         * Pages getter.
+         *
+         * @return the number of pages whose shapes were merged.
+         */
+        int getPages(){
+            return pages;
+        }
+
+        /**
+         * Samples getter.
+         *
+         * @return the number of responses whose shapes were merged.
+         */
+        int getSamples(){
+            return samples;
+        }
+
+        /**
+         * Log records getter.
+         *
+         * @return the number of records of the endpoint in the traffic log, or -1 if the report
+         *         comes from requests.
+         */
+        int getLogRecords(){
+            return logRecords;
+        }
+
+        /**
+         * Log bytes getter.
+         *
+         * @return the total size of the records of the endpoint in the traffic log.
+         */
+        long getLogBytes(){
+            return logBytes;
+        }
+
+        /**
+         * Attribute reports getter.
+         *
+         * @return the reports of the top level attributes.
+         */
+        @NotNull List<AttributeReport> getAttributeReports(){
+            return attributeReports;
+        }
+
         @Override
         public String toString(){
-            StringBuilder report = new StringBuilder().append(endpoint).append("\n").append(model.toString());
-            if (requestResult.requestFailed()){
-                report.append("\n  The request could not be performed.");
-            }
-            else{
-                report.append("\n  Request time: ").append(requestResult.getRequestTime()).append("s");
-                report.append("\n  Request status code: ").append(requestResult.getStatusCode());
-                report.append("\n  Response size: ").append(requestResult.getResponse().length());
-                if (requestResult.is4xx()){
-                    report.append("\n  Server response: ").append(requestResult.getResponse());
-                }
-                else if (responseFormatError){
-                    report.append("\n  The format of the response was unknown.");
-                }
-                else{
-                    for (AttributeReport attributeReport:attributeReports){
-                        report.append("\n  ").append(attributeReport);
-                    }
-                }
-            }
-            return report.toString();
+            return ReportWriter.toText(this);
         }
     }
 
@@ -127,11 +462,47 @@ public class Report{
      * @version 1.0.0
      */
     static class AttributeReport{
+        private static final JsonType[] TYPES = JsonType.values();
+
+
+        /**
+         * Reads an attribute report written by {@link #write(DataOutputStream)}.
+         *
+         * @param in the source.
+         * @return the attribute report.
+         * @throws IOException if the source can't be read.
+         */
+        static @NotNull AttributeReport read(@NotNull DataInputStream in) throws IOException{
+            boolean object = in.readBoolean();
+            String name = in.readUTF();
+            AttributeReport report = object ? new ObjectReport(name) : new AttributeReport(name);
+            report.used = in.readBoolean();
+            report.versionsSinceLeftUnused = in.readInt();
+            report.apiType = TYPES[in.readUnsignedByte()];
+            report.modelType = TYPES[in.readUnsignedByte()];
+            report.occurrences = in.readInt();
+            report.nulls = in.readInt();
+            report.types = in.readInt();
+            report.samples = in.readInt();
+            if (object){
+                int count = in.readInt();
+                for (int i = 0; i < count; i++){
+                    ((ObjectReport)report).addAttributeReport(read(in));
+                }
+            }
+            return report;
+        }
+
+
         String name;
         private boolean used;
         private int versionsSinceLeftUnused;
         private JsonType apiType;
         private JsonType modelType;
+        private int occurrences;
+        private int nulls;
+        private int types;
+        private int samples;
 
 
         /**
@@ -145,6 +516,10 @@ public class Report{
             this.versionsSinceLeftUnused = -1;
             this.apiType = JsonType.NONE;
             this.modelType = JsonType.NONE;
+            this.occurrences = 0;
+            this.nulls = 0;
+            this.types = 0;
+            this.samples = 0;
         }
 
         /**
@@ -184,27 +559,136 @@ public class Report{
             return this;
         }
 
+        /**
+         * Sets presence information, for attributes in objects that were seen more than once, either
+         * because they are array items or because several responses were merged.
+         *
+         * @param occurrences the number of inspected objects that contained the attribute.
+         * @param nulls the number of inspected objects where the attribute was null.
+         * @param samples the number of inspected objects.
+         * @return this object.
+         */
+        AttributeReport setPresence(int occurrences, int nulls, int samples){
+            this.occurrences = occurrences;
+            this.nulls = nulls;
+            this.samples = samples;
+            return this;
+        }
+
+        /**
+         * Sets the json types the attribute was seen with.
+         *
+         * @param types the bit set of the types, indexed by ordinal.
+         * @return this object.
+         */
+        AttributeReport setObservedTypes(int types){
+            this.types = types;
+            return this;
+        }
+
+        /**
+         * Name getter.
+         *
+         * @return the name of the attribute, empty for the root of the response.
+         */
+        @NotNull String getName(){
+            return name;
+        }
+
+        /**
+         * Tells whether the attribute is used by the model.
+         *
+         * @return true if it is, false otherwise.
+         */
+        boolean isUsed(){
+            return used;
+        }
+
+        /**
+         * Versions since left unused getter.
+         *
+         * @return the number of versions since the attribute was left unused, or -1 if it wasn't.
+         */
+        int getVersionsSinceLeftUnused(){
+            return versionsSinceLeftUnused;
+        }
+
+        /**
+         * Api type getter.
+         *
+         * @return the type found in the API endpoint result.
+         */
+        @NotNull JsonType getApiType(){
+            return apiType;
+        }
+
+        /**
+         * Model type getter.
+         *
+         * @return the type found in the model.
+         */
+        @NotNull JsonType getModelType(){
+            return modelType;
+        }
+
+        /**
+         * Occurrences getter.
+         *
+         * @return the number of inspected objects that contained the attribute.
+         */
+        int getOccurrences(){
+            return occurrences;
+        }
+
+        /**
+         * Nulls getter.
+         *
+         * @return the number of inspected objects where the attribute was null.
+         */
+        int getNulls(){
+            return nulls;
+        }
+
+        /**
+         * Samples getter.
+         *
+         * @return the number of inspected objects.
+         */
+        int getSamples(){
+            return samples;
+        }
+
+        /**
+         * Observed types getter.
+         *
+         * @return the bit set of the json types the attribute was seen with, indexed by ordinal.
+         */
+        int getObservedTypes(){
+            return types;
+        }
+
         @Override
         public String toString(){
-            StringBuilder result = new StringBuilder().append(name).append(": ");
-            if (versionsSinceLeftUnused == -1){
-                result.append(used ? "used" : "unused");
-            }
-            else{
-                result.append("left unused ").append(versionsSinceLeftUnused).append(" versions ago");
-            }
-            if (used){
-                result.append(", ");
-                if (apiType == modelType){
-                    result.append("types match");
-                }
-                else{
-                    result.append("types mismatch (")
-                            .append(apiType).append(" in endpoint, ")
-                            .append(modelType).append(" in model)");
-                }
-            }
-            return result.toString();
+            return ReportWriter.toText(this);
+        }
+
+        /**
+         * Writes the report in a compact binary form.
+         *
+         * @param out the destination.
+         * @throws IOException if the destination can't be written.
+         */
+        void write(@NotNull DataOutputStream out) throws IOException{
+            out.writeBoolean(this instanceof ObjectReport);
+            out.writeUTF(name);
+            out.writeBoolean(used);
+            out.writeInt(versionsSinceLeftUnused);
+            out.writeByte(apiType.ordinal());
+            out.writeByte(modelType.ordinal());
+            out.writeInt(occurrences);
+            out.writeInt(nulls);
+            out.writeInt(types);
+            out.writeInt(samples);
         }
     }
 
@@ -216,7 +700,6 @@ public class Report{
      * @version 1.0.0
      */
     static class ObjectReport extends AttributeReport{
-        private static String spacing = "  ";
         private List<AttributeReport> attributeReports;
 
 
@@ -239,21 +722,22 @@ public class Report{
             attributeReports.add(attributeReport);
         }
 
+        /**
+         * Attribute reports getter.
+         *
+         * @return the reports of the attributes of the object or of the items of the array.
+         */
+        @NotNull List<AttributeReport> getAttributeReports(){
+            return attributeReports;
+        }
+
         @Override
-        public String toString(){
-            StringBuilder result = new StringBuilder();
-            if (!name.isEmpty()){
-                result.append(super.toString());
-            }
-            else{
-                result.append("Result:");
-            }
-            spacing += "  ";
+        void write(@NotNull DataOutputStream out) throws IOException{
+            super.write(out);
+            out.writeInt(attributeReports.size());
             for (AttributeReport attributeReport:attributeReports){
-                result.append("\n").append(spacing).append(attributeReport);
+                attributeReport.write(out);
             }
-            spacing = spacing.substring(2);
-            return result.toString();
         }
     }
 }
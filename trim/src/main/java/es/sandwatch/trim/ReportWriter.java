@@ -0,0 +1,917 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Writes reports straight to a destination as it walks them, in one of the supported formats.
+ * Writers keep all of their state, such as the current indentation, to themselves, so every
+ * report written gets its own writer and several reports can be written at the same time.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+abstract class ReportWriter{
+    private static final JsonType[] TYPES = JsonType.values();
+
+
+    /**
+     * Creates a writer.
+     *
+     * @param format the format to write in.
+     * @param out the destination.
+     * @return the writer.
+     */
+    static @NotNull ReportWriter create(@NotNull Report.Format format, @NotNull Writer out){
+        switch (format){
+            case JSON_LINES:
+                return new JsonLinesWriter(out);
+
+            case CSV:
+                return new CsvWriter(out);
+
+            default:
+                return new TextWriter(out);
+        }
+    }
+
+    /**
+     * Renders a report in the text format.
+     *
+     * @param report the report.
+     * @return the text.
+     */
+    static @NotNull String toText(@NotNull Report report){
+        StringWriter out = new StringWriter();
+        try{
+            new TextWriter(out).write(report);
+        }
+        catch (IOException iox){
+            throw new UncheckedIOException(iox);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Renders an endpoint report in the text format.
+     *
+     * @param report the endpoint report.
+     * @return the text.
+     */
+    static @NotNull String toText(@NotNull Report.EndpointReport report){
+        StringWriter out = new StringWriter();
+        try{
+            new TextWriter(out).writeEndpoint(report);
+        }
+        catch (IOException iox){
+            throw new UncheckedIOException(iox);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Renders an attribute report in the text format.
+     *
+     * @param report the attribute report.
+     * @return the text.
+     */
+    static @NotNull String toText(@NotNull Report.AttributeReport report){
+        StringWriter out = new StringWriter();
+        try{
+            new TextWriter(out).writeAttribute(report, 1);
+        }
+        catch (IOException iox){
+            throw new UncheckedIOException(iox);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Tells whether an endpoint report is listed in a report. Incremental reports only list the
+     * endpoints that changed since the last run.
+     *
+     * @param report the report.
+     * @param endpointReport the endpoint report.
+     * @return true if it is listed, false otherwise.
+     */
+    static boolean isListed(@NotNull Report report, @NotNull Report.EndpointReport endpointReport){
+        return !report.isIncremental() || !endpointReport.isUnchanged();
+    }
+
+
+    final Writer out;
+    private final char[] digits;
+
+
+    /**
+     * Constructor.
+     *
+     * @param out the destination.
+     */
+    ReportWriter(@NotNull Writer out){
+        this.out = out;
+        this.digits = new char[20];
+    }
+
+    /**
+     * Writes a report.
+     *
+     * @param report the report.
+     * @throws IOException if the destination can't be written.
+     */
+    abstract void write(@NotNull Report report) throws IOException;
+
+    /**
+     * Writes a number without creating a string for it.
+     *
+     * @param value the number.
+     * @throws IOException if the destination can't be written.
+     */
+    void writeNumber(long value) throws IOException{
+        if (value == Long.MIN_VALUE){
+            out.write(Long.toString(value));
+            return;
+        }
+        if (value < 0){
+            out.write('-');
+            value = -value;
+        }
+        int position = digits.length;
+        do{
+            digits[--position] = (char)('0' + value%10);
+            value /= 10;
+        }
+        while (value != 0);
+        out.write(digits, position, digits.length - position);
+    }
+
+    /**
+     * Writes the json types in a bit set, in declaration order.
+     *
+     * @param types the bit set of the types, indexed by ordinal.
+     * @param separator the string written between types.
+     * @param quoted whether types are written as JSON strings.
+     * @throws IOException if the destination can't be written.
+     */
+    void writeTypes(int types, @NotNull String separator, boolean quoted) throws IOException{
+        boolean first = true;
+        for (JsonType type:TYPES){
+            if ((types & (1 << type.ordinal())) != 0 && type != JsonType.NONE){
+                if (!first){
+                    out.write(separator);
+                }
+                if (quoted){
+                    out.write('"');
+                }
+                out.write(type.name());
+                if (quoted){
+                    out.write('"');
+                }
+                first = false;
+            }
+        }
+    }
+
+
+    /**
+     * Writes reports in the human readable format.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class TextWriter extends ReportWriter{
+        /**
+         * Constructor.
+         *
+         * @param out the destination.
+         */
+        private TextWriter(@NotNull Writer out){
+            super(out);
+        }
+
+        @Override
+        void write(@NotNull Report report) throws IOException{
+            List<Report.EndpointReport> endpointReports = report.getEndpointReports();
+            if (endpointReports.isEmpty()){
+                out.write("Nothing to report.");
+                return;
+            }
+
+            out.write("Trim report, ");
+            writeNumber(endpointReports.size());
+            out.write(" endpoints");
+            if (report.isIncremental()){
+                int changed = 0;
+                for (Report.EndpointReport endpointReport:endpointReports){
+                    if (!endpointReport.isUnchanged()){
+                        changed++;
+                    }
+                }
+                out.write(", ");
+                writeNumber(changed);
+                out.write(" changed since the last run");
+            }
+            out.write(":");
+            for (Report.EndpointReport endpointReport:endpointReports){
+                if (isListed(report, endpointReport)){
+                    out.write("\n\n");
+                    writeEndpoint(endpointReport);
+                }
+            }
+            if (report.getLogRecords() >= 0){
+                out.write("\n\nTraffic log: ");
+                writeNumber(report.getLogRecords());
+                out.write(" records, ");
+                writeNumber(report.getUnmatchedLogRecords());
+                out.write(" of endpoints without a model, ");
+                writeNumber(report.getMalformedLogRecords());
+                out.write(" malformed");
+            }
+            ConnectionPoolStats poolStats = report.getPoolStats();
+            if (poolStats != null){
+                out.write("\n\nConnection pool: ");
+                writeNumber(poolStats.getMax());
+                out.write(" max, ");
+                writeNumber(poolStats.getAvailable());
+                out.write(" available at the end, peaks of ");
+                writeNumber(poolStats.getPeakLeased());
+                out.write(" leased and ");
+                writeNumber(poolStats.getPeakPending());
+                out.write(" pending");
+            }
+        }
+
+        /**
+         * Writes an endpoint report.
+         *
+         * @param report the endpoint report.
+         * @throws IOException if the destination can't be written.
+         */
+        private void writeEndpoint(@NotNull Report.EndpointReport report) throws IOException{
+            out.write(report.getEndpoint());
+            out.write("\n");
+            out.write(report.getModel().toString());
+            RequestResult requestResult = report.getRequestResult();
+            if (report.getLogRecords() == 0){
+                out.write("\n  There are no records of the endpoint in the traffic log.");
+            }
+            else if (report.getLogRecords() > 0){
+                out.write("\n  Records analyzed: ");
+                writeNumber(report.getLogRecords());
+                out.write(", ");
+                writeNumber(report.getLogBytes());
+                out.write(" bytes");
+                writeAttributes(report.getAttributeReports(), 1);
+            }
+            else if (requestResult.requestFailed()){
+                out.write("\n  The request could not be performed.");
+            }
+            else{
+                RequestTiming timing = requestResult.getTiming();
+                out.write("\n  Request time: ");
+                out.write(RequestTiming.format(timing.getTotal()));
+                if (timing != RequestTiming.NONE){
+                    out.write(" (");
+                    out.write(timing.toString());
+                    out.write(")");
+                }
+                out.write("\n  Request status code: ");
+                writeNumber(requestResult.getStatusCode());
+                out.write("\n  Response size: ");
+                writeNumber(report.getResponseSize());
+                if (timing != RequestTiming.NONE){
+                    out.write(", ");
+                    writeNumber(timing.getWireBytes());
+                    out.write(" on the wire");
+                }
+                if (report.getSamples() > 1){
+                    out.write("\n  Samples analyzed: ");
+                    writeNumber(report.getSamples());
+                }
+                if (report.getPages() > 1){
+                    out.write("\n  Pages analyzed: ");
+                    writeNumber(report.getPages());
+                }
+                LatencyHistogram total = report.getLatency(RequestTiming.Phase.TOTAL);
+                if (total != null && total.getCount() > 1){
+                    out.write("\n  Latency over ");
+                    writeNumber(total.getCount());
+                    out.write(" requests:");
+                    writeLatency(RequestTiming.Phase.TOTAL, total);
+                    for (RequestTiming.Phase phase:RequestTiming.Phase.values()){
+                        LatencyHistogram latency = report.getLatency(phase);
+                        if (phase != RequestTiming.Phase.TOTAL && latency.getMax() > 0){
+                            writeLatency(phase, latency);
+                        }
+                    }
+                }
+                if (requestResult.isNotModified()){
+                    out.write("\n  Not modified since it was cached, the cached response was used.");
+                }
+                if (requestResult.is4xx()){
+                    out.write("\n  Server response: ");
+                    out.write(String.valueOf(report.getServerResponse()));
+                }
+                else if (requestResult.isTruncated()){
+                    out.write("\n  The response went over the size limit and was not analyzed.");
+                }
+                else if (report.isResponseFormatError()){
+                    out.write("\n  The format of the response was unknown.");
+                }
+                else{
+                    writeAttributes(report.getAttributeReports(), 1);
+                }
+            }
+        }
+
+        /**
+         * Writes the latency line of a phase.
+         *
+         * @param phase the phase.
+         * @param latency the histogram of the phase.
+         * @throws IOException if the destination can't be written.
+         */
+        private void writeLatency(@NotNull RequestTiming.Phase phase, @NotNull LatencyHistogram latency)
+                throws IOException{
+
+            out.write("\n    ");
+            out.write(phase.toString());
+            out.write(": ");
+            out.write(latency.toString());
+        }
+
+        /**
+         * Writes a list of attribute reports, one per line.
+         *
+         * @param reports the attribute reports.
+         * @param depth the nesting level of the attributes, 1 for the top level.
+         * @throws IOException if the destination can't be written.
+         */
+        private void writeAttributes(@NotNull List<Report.AttributeReport> reports, int depth) throws IOException{
+            for (Report.AttributeReport report:reports){
+                out.write("\n");
+                for (int i = 0; i < depth; i++){
+                    out.write("  ");
+                }
+                writeAttribute(report, depth);
+            }
+        }
+
+        /**
+         * Writes an attribute report, and the reports of its attributes if it is an object or an array.
+         *
+         * @param report the attribute report.
+         * @param depth the nesting level of the attribute, 1 for the top level.
+         * @throws IOException if the destination can't be written.
+         */
+        private void writeAttribute(@NotNull Report.AttributeReport report, int depth) throws IOException{
+            if (report instanceof Report.ObjectReport && report.getName().isEmpty()){
+                out.write("Result:");
+            }
+            else{
+                writeUsage(report);
+            }
+            if (report instanceof Report.ObjectReport){
+                writeAttributes(((Report.ObjectReport)report).getAttributeReports(), depth + 1);
+            }
+        }
+
+        /**
+         * Writes the usage, type and presence information of an attribute.
+         *
+         * @param report the attribute report.
+         * @throws IOException if the destination can't be written.
+         */
+        private void writeUsage(@NotNull Report.AttributeReport report) throws IOException{
+            out.write(report.getName());
+            out.write(": ");
+            if (report.getVersionsSinceLeftUnused() == -1){
+                out.write(report.isUsed() ? "used" : "unused");
+            }
+            else{
+                out.write("left unused ");
+                writeNumber(report.getVersionsSinceLeftUnused());
+                out.write(" versions ago");
+            }
+            if (report.isUsed()){
+                out.write(", ");
+                if (report.getApiType() == report.getModelType()){
+                    out.write("types match");
+                }
+                else{
+                    out.write("types mismatch (");
+                    out.write(report.getApiType().toString());
+                    out.write(" in endpoint, ");
+                    out.write(report.getModelType().toString());
+                    out.write(" in model)");
+                }
+            }
+            int occurrences = report.getOccurrences();
+            int samples = report.getSamples();
+            if (occurrences < samples){
+                out.write(", optional, present in ");
+                writeNumber(occurrences);
+                out.write(" of ");
+                writeNumber(samples);
+                writePercentage(occurrences, samples);
+            }
+            if (report.getNulls() > 0){
+                out.write(", null in ");
+                writeNumber(report.getNulls());
+                out.write(" of ");
+                writeNumber(occurrences);
+                writePercentage(report.getNulls(), occurrences);
+            }
+            //Nulls are accounted for above, only list the actual types
+            int valueTypes = report.getObservedTypes() & ~(1 << JsonType.NULL.ordinal())
+                    & ~(1 << JsonType.NONE.ordinal());
+            if (Integer.bitCount(valueTypes) > 1){
+                out.write(", seen as ");
+                boolean first = true;
+                for (JsonType type:TYPES){
+                    if ((valueTypes & (1 << type.ordinal())) != 0){
+                        if (!first){
+                            out.write(", ");
+                        }
+                        out.write(type.toString());
+                        first = false;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes a ratio as a rounded percentage between parentheses.
+         *
+         * @param count the count.
+         * @param total the total.
+         * @throws IOException if the destination can't be written.
+         */
+        private void writePercentage(int count, int total) throws IOException{
+            out.write(" (");
+            writeNumber(Math.round(100.0*count/total));
+            out.write("%)");
+        }
+    }
+
+
+    /**
+     * Writes reports as JSON lines: a summary of the run, then one line per listed endpoint.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class JsonLinesWriter extends ReportWriter{
+        /**
+         * Constructor.
+         *
+         * @param out the destination.
+         */
+        private JsonLinesWriter(@NotNull Writer out){
+            super(out);
+        }
+
+        @Override
+        void write(@NotNull Report report) throws IOException{
+            List<Report.EndpointReport> endpointReports = report.getEndpointReports();
+            out.write("{\"type\":\"report\",\"endpoints\":");
+            writeNumber(endpointReports.size());
+            if (report.isIncremental()){
+                int changed = 0;
+                for (Report.EndpointReport endpointReport:endpointReports){
+                    if (!endpointReport.isUnchanged()){
+                        changed++;
+                    }
+                }
+                writeKey("changed");
+                writeNumber(changed);
+            }
+            if (report.getLogRecords() >= 0){
+                out.write(",\"trafficLog\":{\"records\":");
+                writeNumber(report.getLogRecords());
+                writeKey("unmatched");
+                writeNumber(report.getUnmatchedLogRecords());
+                writeKey("malformed");
+                writeNumber(report.getMalformedLogRecords());
+                out.write('}');
+            }
+            ConnectionPoolStats poolStats = report.getPoolStats();
+            if (poolStats != null){
+                out.write(",\"connectionPool\":{\"max\":");
+                writeNumber(poolStats.getMax());
+                writeKey("available");
+                writeNumber(poolStats.getAvailable());
+                writeKey("peakLeased");
+                writeNumber(poolStats.getPeakLeased());
+                writeKey("peakPending");
+                writeNumber(poolStats.getPeakPending());
+                out.write('}');
+            }
+            out.write("}\n");
+
+            for (Report.EndpointReport endpointReport:endpointReports){
+                if (isListed(report, endpointReport)){
+                    writeEndpoint(endpointReport);
+                    out.write('\n');
+                }
+            }
+        }
+
+        /**
+         * Writes an endpoint report as a JSON object.
+         *
+         * @param report the endpoint report.
+         * @throws IOException if the destination can't be written.
+         */
+        private void writeEndpoint(@NotNull Report.EndpointReport report) throws IOException{
+            out.write("{\"type\":\"endpoint\",\"endpoint\":");
+            JSONObject.quote(report.getEndpoint(), out);
+            writeKey("model");
+            JSONObject.quote(report.getModel().getName(), out);
+            if (report.isUnchanged()){
+                writeFlag("unchanged");
+            }
+
+            RequestResult requestResult = report.getRequestResult();
+            if (report.getLogRecords() >= 0){
+                writeKey("logRecords");
+                writeNumber(report.getLogRecords());
+                writeKey("logBytes");
+                writeNumber(report.getLogBytes());
+                writeAttributes(unwrapRoot(report.getAttributeReports()));
+            }
+            else if (requestResult.requestFailed()){
+                writeFlag("requestFailed");
+            }
+            else{
+                RequestTiming timing = requestResult.getTiming();
+                writeKey("statusCode");
+                writeNumber(requestResult.getStatusCode());
+                writeKey("requestTime");
+                writeNumber(timing.getTotal());
+                if (timing != RequestTiming.NONE){
+                    out.write(",\"phases\":{");
+                    boolean first = true;
+                    for (RequestTiming.Phase phase:RequestTiming.Phase.values()){
+                        if (phase != RequestTiming.Phase.TOTAL){
+                            if (!first){
+                                out.write(',');
+                            }
+                            out.write('"');
+                            out.write(phase.toString());
+                            out.write("\":");
+                            writeNumber(timing.getPhase(phase));
+                            first = false;
+                        }
+                    }
+                    out.write('}');
+                }
+                writeKey("responseSize");
+                writeNumber(report.getResponseSize());
+                if (timing != RequestTiming.NONE){
+                    writeKey("wireBytes");
+                    writeNumber(timing.getWireBytes());
+                }
+                writeKey("samples");
+                writeNumber(report.getSamples());
+                writeKey("pages");
+                writeNumber(report.getPages());
+                if (report.getLatency(RequestTiming.Phase.TOTAL) != null){
+                    out.write(",\"latency\":{");
+                    boolean first = true;
+                    for (RequestTiming.Phase phase:RequestTiming.Phase.values()){
+                        LatencyHistogram latency = report.getLatency(phase);
+                        if (!first){
+                            out.write(',');
+                        }
+                        out.write('"');
+                        out.write(phase.toString());
+                        out.write("\":{\"count\":");
+                        writeNumber(latency.getCount());
+                        writeKey("p50");
+                        writeNumber(latency.getPercentile(50));
+                        writeKey("p90");
+                        writeNumber(latency.getPercentile(90));
+                        writeKey("p99");
+                        writeNumber(latency.getPercentile(99));
+                        writeKey("max");
+                        writeNumber(latency.getMax());
+                        out.write('}');
+                        first = false;
+                    }
+                    out.write('}');
+                }
+                if (requestResult.isNotModified()){
+                    writeFlag("notModified");
+                }
+                if (requestResult.is4xx()){
+                    writeKey("serverResponse");
+                    JSONObject.quote(report.getServerResponse(), out);
+                }
+                else if (requestResult.isTruncated()){
+                    writeFlag("truncated");
+                }
+                else if (report.isResponseFormatError()){
+                    writeFlag("formatError");
+                }
+                else{
+                    writeAttributes(unwrapRoot(report.getAttributeReports()));
+                }
+            }
+            out.write('}');
+        }
+
+        /**
+         * Replaces the nameless object report of the root of a response with its attributes, as
+         * the other formats do, so that the endpoint's attributes are those of the response.
+         *
+         * @param reports the attribute reports of an endpoint.
+         * @return the reports, with the attributes of nameless object reports in their place.
+         */
+        private static @NotNull List<Report.AttributeReport> unwrapRoot(@NotNull List<Report.AttributeReport> reports){
+            List<Report.AttributeReport> unwrapped = new ArrayList<>();
+            for (Report.AttributeReport report:reports){
+                if (report instanceof Report.ObjectReport && report.getName().isEmpty()){
+                    unwrapped.addAll(((Report.ObjectReport)report).getAttributeReports());
+                }
+                else{
+                    unwrapped.add(report);
+                }
+            }
+            return unwrapped;
+        }
+
+        /**
+         * Writes a list of attribute reports as the "attributes" array of the current object.
+         *
+         * @param reports the attribute reports.
+         * @throws IOException if the destination can't be written.
+         */
+        private void writeAttributes(@NotNull List<Report.AttributeReport> reports) throws IOException{
+            out.write(",\"attributes\":[");
+            boolean first = true;
+            for (Report.AttributeReport report:reports){
+                if (!first){
+                    out.write(',');
+                }
+                writeAttribute(report);
+                first = false;
+            }
+            out.write(']');
+        }
+
+        /**
+         * Writes an attribute report as a JSON object.
+         *
+         * @param report the attribute report.
+         * @throws IOException if the destination can't be written.
+         */
+        private void writeAttribute(@NotNull Report.AttributeReport report) throws IOException{
+            out.write("{\"name\":");
+            JSONObject.quote(report.getName(), out);
+            writeKey("used");
+            out.write(report.isUsed() ? "true" : "false");
+            if (report.getVersionsSinceLeftUnused() != -1){
+                writeKey("leftUnusedVersionsAgo");
+                writeNumber(report.getVersionsSinceLeftUnused());
+            }
+            writeKey("apiType");
+            out.write('"');
+            out.write(report.getApiType().name());
+            out.write('"');
+            writeKey("modelType");
+            out.write('"');
+            out.write(report.getModelType().name());
+            out.write('"');
+            writeKey("occurrences");
+            writeNumber(report.getOccurrences());
+            writeKey("nulls");
+            writeNumber(report.getNulls());
+            writeKey("samples");
+            writeNumber(report.getSamples());
+            out.write(",\"types\":[");
+            writeTypes(report.getObservedTypes(), ",", true);
+            out.write(']');
+            if (report instanceof Report.ObjectReport){
+                writeAttributes(((Report.ObjectReport)report).getAttributeReports());
+            }
+            out.write('}');
+        }
+
+        /**
+         * Writes the key of a member that follows another one in the current object.
+         *
+         * @param key the key, which must not need escaping.
+         * @throws IOException if the destination can't be written.
+         */
+        private void writeKey(@NotNull String key) throws IOException{
+            out.write(",\"");
+            out.write(key);
+            out.write("\":");
+        }
+
+        /**
+         * Writes a member that is only present when true.
+         *
+         * @param key the key, which must not need escaping.
+         * @throws IOException if the destination can't be written.
+         */
+        private void writeFlag(@NotNull String key) throws IOException{
+            writeKey(key);
+            out.write("true");
+        }
+    }
+
+
+    /**
+     * Writes reports as CSV, one row per attribute, as per RFC 4180.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class CsvWriter extends ReportWriter{
+        private static final String HEADER = "endpoint,model,status_code,attribute,used,left_unused_versions_ago,"
+                + "api_type,model_type,occurrences,nulls,samples,types\r\n";
+
+
+        /**
+         * The dotted path of the attribute being written and the buffer it is copied through, reused
+         * across rows, and the endpoint, model and status code columns of the endpoint being written.
+         */
+        private final StringBuilder path;
+        private char[] pathChars;
+        private String endpointColumns;
+
+
+        /**
+         * Constructor.
+         *
+         * @param out the destination.
+         */
+        private CsvWriter(@NotNull Writer out){
+            super(out);
+            path = new StringBuilder();
+            pathChars = new char[64];
+            endpointColumns = "";
+        }
+
+        @Override
+        void write(@NotNull Report report) throws IOException{
+            out.write(HEADER);
+            for (Report.EndpointReport endpointReport:report.getEndpointReports()){
+                if (isListed(report, endpointReport)){
+                    writeEndpoint(endpointReport);
+                }
+            }
+        }
+
+        /**
+         * Writes the rows of an endpoint report.
+         *
+         * @param report the endpoint report.
+         * @throws IOException if the destination can't be written.
+         */
+        private void writeEndpoint(@NotNull Report.EndpointReport report) throws IOException{
+            RequestResult requestResult = report.getRequestResult();
+            //Only analyzed responses have attributes worth listing
+            boolean analyzed = report.getLogRecords() > 0 || (report.getLogRecords() < 0
+                    && !requestResult.requestFailed() && !requestResult.is4xx() && !requestResult.isTruncated()
+                    && !report.isResponseFormatError());
+
+            StringBuilder columns = new StringBuilder();
+            appendField(columns, report.getEndpoint());
+            columns.append(',');
+            appendField(columns, report.getModel().getName());
+            columns.append(',');
+            if (report.getLogRecords() < 0){
+                columns.append(requestResult.getStatusCode());
+            }
+            endpointColumns = columns.toString();
+
+            int rows = 0;
+            if (analyzed){
+                path.setLength(0);
+                for (Report.AttributeReport attributeReport:report.getAttributeReports()){
+                    rows += writeAttribute(attributeReport);
+                }
+            }
+            if (rows == 0){
+                out.write(endpointColumns);
+                out.write(",,,,,,,,,\r\n");
+            }
+        }
+
+        /**
+         * Writes the row of an attribute report and those of its attributes, if it is an object or an array.
+         *
+         * @param report the attribute report.
+         * @return the number of rows written.
+         * @throws IOException if the destination can't be written.
+         */
+        private int writeAttribute(@NotNull Report.AttributeReport report) throws IOException{
+
+            int length = path.length();
+            int rows = 0;
+            if (!report.getName().isEmpty()){
+                if (length > 0){
+                    path.append('.');
+                }
+                path.append(report.getName());
+
+                out.write(endpointColumns);
+                out.write(',');
+                writePath();
+                out.write(report.isUsed() ? ",true," : ",false,");
+                if (report.getVersionsSinceLeftUnused() != -1){
+                    writeNumber(report.getVersionsSinceLeftUnused());
+                }
+                out.write(',');
+                out.write(report.getApiType().name());
+                out.write(',');
+                out.write(report.getModelType().name());
+                out.write(',');
+                writeNumber(report.getOccurrences());
+                out.write(',');
+                writeNumber(report.getNulls());
+                out.write(',');
+                writeNumber(report.getSamples());
+                out.write(',');
+                writeTypes(report.getObservedTypes(), "|", false);
+                out.write("\r\n");
+                rows++;
+            }
+            if (report instanceof Report.ObjectReport){
+                for (Report.AttributeReport attributeReport:((Report.ObjectReport)report).getAttributeReports()){
+                    rows += writeAttribute(attributeReport);
+                }
+            }
+            path.setLength(length);
+            return rows;
+        }
+
+        /**
+         * Writes the path of the current attribute, quoted if needed.
+         *
+         * @throws IOException if the destination can't be written.
+         */
+        private void writePath() throws IOException{
+            if (needsQuotes(path)){
+                StringBuilder quoted = new StringBuilder();
+                appendField(quoted, path);
+                out.write(quoted.toString());
+                return;
+            }
+            if (pathChars.length < path.length()){
+                pathChars = new char[Math.max(path.length(), pathChars.length*2)];
+            }
+            path.getChars(0, path.length(), pathChars, 0);
+            out.write(pathChars, 0, path.length());
+        }
+
+        /**
+         * Appends a field, quoted if it contains separators, quotes or line breaks.
+         *
+         * @param to the destination.
+         * @param field the field.
+         */
+        private static void appendField(@NotNull StringBuilder to, @NotNull CharSequence field){
+            if (!needsQuotes(field)){
+                to.append(field);
+                return;
+            }
+            to.append('"');
+            for (int i = 0; i < field.length(); i++){
+                char c = field.charAt(i);
+                if (c == '"'){
+                    to.append('"');
+                }
+                to.append(c);
+            }
+            to.append('"');
+        }
+
+        /**
+         * Tells whether a field needs to be quoted.
+         *
+         * @param field the field.
+         * @return true if it contains separators, quotes or line breaks, false otherwise.
+         */
+        private static boolean needsQuotes(@NotNull CharSequence field){
+            for (int i = 0; i < field.length(); i++){
+                char c = field.charAt(i);
+                if (c == ',' || c == '"' || c == '\n' || c == '\r'){
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
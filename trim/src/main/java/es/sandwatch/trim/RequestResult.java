@@ -0,0 +1,199 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.Charset;
+
+
+/**
+ * Class containing the relevant information about the result of a request, whatever the source
+ * of the response. Sources set through {@link Specification#setResponseSource(ResponseSource)}
+ * create results with {@link #of(int, byte[], Charset)} and {@link #failed()}.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+public class RequestResult{
+    /**
+     * Creates the result of a request that got a response.
+     *
+     * @param statusCode the status code of the response.
+     * @param body the body of the response, which isn't copied.
+     * @param charset the charset of the body.
+     * @return the result.
+     */
+    public static @NotNull RequestResult of(int statusCode, @NotNull byte[] body, @NotNull Charset charset){
+        return new RequestResult(RequestTiming.NONE, statusCode, ResponseBody.of(body, charset), false, null, false,
+                false);
+    }
+
+    /**
+     * Creates the result of a request that failed before getting to the server.
+     *
+     * @return the result.
+     */
+    public static @NotNull RequestResult failed(){
+        return new RequestResult();
+    }
+
+
+    private final RequestTiming timing;
+    private final int statusCode;
+    private final ResponseBody body;
+    private final boolean truncated;
+    private final String cacheKey;
+    private final boolean stored;
+    private final boolean notModified;
+
+
+    /**
+     * Constructor. Call if the request failed.
+     */
+    RequestResult(){
+        this(RequestTiming.NONE, -1, ResponseBody.of("Request failed"), false, null, false, false);
+    }
+
+    /**
+     * Constructor. Call if the request got through to the server.
+     *
+     * @param timing the time every phase of the request took and the size of the body on the wire.
+     * @param statusCode the status code of the request.
+     * @param body the body of the response to the request.
+     * @param truncated whether the body was cut short because it went over the size cap.
+     * @param cacheKey the key of the request in the response cache, or null if there's no cache.
+     * @param stored whether the body was stored in the response cache by this request.
+     * @param notModified whether the server said the cached response is still good.
+     */
+    RequestResult(@NotNull RequestTiming timing, int statusCode, @NotNull ResponseBody body, boolean truncated,
+                  @Nullable String cacheKey, boolean stored, boolean notModified){
+
+        this.timing = timing;
+        this.statusCode = statusCode;
+        this.body = body;
+        this.truncated = truncated;
+        this.cacheKey = cacheKey;
+        this.stored = stored;
+        this.notModified = notModified;
+    }
+
+    /**
+     * Timing getter.
+     *
+     * @return the time every phase of the request took and the size of the body on the wire.
+     */
+    @NotNull RequestTiming getTiming(){
+        return timing;
+    }
+
+    /**
+     * Tells whether the request failed before it was sent.
+     *
+     * @return true if the request failed, false otherwise.
+     */
+    boolean requestFailed(){
+        return statusCode == -1;
+    }
+
+    /**
+     * Tells whether the request yielded a 2xx status code.
+     *
+     * @return true if the request yielded a 2xx status code, false otherwise.
+     */
+    boolean is2xx(){
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * Tells whether the request yielded a 3xx status code.
+     *
+     * @return true if the request yielded a 3xx status code, false otherwise.
+     */
+    boolean is3xx(){
+        return statusCode >= 300 && statusCode < 400;
+    }
+
+    /**
+     * Tells whether the request yielded a 4xx status code.
+     *
+     * @return true if the request yielded a 4xx status code, false otherwise.
+     */
+    boolean is4xx(){
+        return statusCode >= 400 && statusCode < 500;
+    }
+
+    /**
+     * Tells whether the request yielded a 5xx status code.
+     *
+     * @return true if the request yielded a 5xx status code, false otherwise.
+     */
+    boolean is5xx(){
+        return statusCode >= 500 && statusCode < 600;
+    }
+
+    /**
+     * Status code getter.
+     *
+     * @return the status code.
+     */
+    int getStatusCode(){
+        return statusCode;
+    }
+
+    /**
+     * Body getter.
+     *
+     * @return the body of the response.
+     */
+    @NotNull ResponseBody getBody(){
+        return body;
+    }
+
+    /**
+     * Tells whether the body was cut short because it went over the size cap.
+     *
+     * @return true if it was, false otherwise.
+     */
+    boolean isTruncated(){
+        return truncated;
+    }
+
+    /**
+     * Cache key getter.
+     *
+     * @return the key of the request in the response cache, or null if there's no cache.
+     */
+    @Nullable String getCacheKey(){
+        return cacheKey;
+    }
+
+    /**
+     * Tells whether the body was stored in the response cache by this request.
+     *
+     * @return true if it was, false otherwise.
+     */
+    boolean isStored(){
+        return stored;
+    }
+
+    /**
+     * Tells whether the body comes from the response cache because the server said it's still good.
+     *
+     * @return true if it does, false otherwise.
+     */
+    boolean isNotModified(){
+        return notModified;
+    }
+
+    /**
+     * Deletes any temporary file holding the body. The body can't be read afterwards.
+     */
+    void release(){
+        body.release();
+    }
+
+    @Override
+    public String toString() {
+        return "Status code: " + statusCode + ", response size: " + body.length();
+    }
+}
@@ -0,0 +1,248 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+
+
+/**
+ * The time a request spent in every phase, in nanoseconds, and the number of bytes of its body
+ * both as transferred and after decoding. Phases that didn't happen, like resolving and connecting
+ * when a pooled connection is reused, take no time.
+ *
+ * The HTTP client runs every phase of a request in the thread that executes it, so the timing of
+ * the request in progress is bound to that thread while it runs, and the hooks installed in the
+ * client record their phases into it through {@link #current()}.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class RequestTiming{
+    /**
+     * The timing of responses that didn't go through the network, all zeros.
+     */
+    static final RequestTiming NONE = new RequestTiming();
+
+    private static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<>();
+
+
+    /**
+     * The phases of a request, in the order they happen.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    enum Phase{
+        /**
+         * Waiting for a connection to be leased from the pool.
+         */
+        QUEUE("queue"),
+
+        /**
+         * Resolving the address of the host.
+         */
+        DNS("dns"),
+
+        /**
+         * Establishing the TCP connection.
+         */
+        CONNECT("connect"),
+
+        /**
+         * Performing the TLS handshake.
+         */
+        TLS("tls"),
+
+        /**
+         * From the moment the request starts being sent until the head of the response is received.
+         */
+        WAIT("wait"),
+
+        /**
+         * Reading the body of the response.
+         */
+        DOWNLOAD("download"),
+
+        /**
+         * The whole request, from start to end.
+         */
+        TOTAL("total");
+
+
+        private final String label;
+
+
+        /**
+         * Constructor.
+         *
+         * @param label the name of the phase in reports.
+         */
+        Phase(@NotNull String label){
+            this.label = label;
+        }
+
+        @Override
+        public String toString(){
+            return label;
+        }
+    }
+
+
+    /**
+     * Binds a new timing to the current thread, where it will record the phases of the request
+     * about to be executed.
+     *
+     * @return the timing.
+     */
+    static @NotNull RequestTiming start(){
+        RequestTiming timing = new RequestTiming();
+        timing.start = System.nanoTime();
+        CURRENT.set(timing);
+        return timing;
+    }
+
+    /**
+     * Unbinds the timing of the request executed in the current thread, once it is done.
+     */
+    static void unbind(){
+        CURRENT.remove();
+    }
+
+    /**
+     * Gets the timing of the request being executed in the current thread.
+     *
+     * @return the timing, or null if the current thread isn't executing a request.
+     */
+    static @Nullable RequestTiming current(){
+        return CURRENT.get();
+    }
+
+    /**
+     * Formats a duration for reports.
+     *
+     * @param nanos the duration, in nanoseconds.
+     * @return the duration in milliseconds, with three decimals.
+     */
+    static @NotNull String format(long nanos){
+        return String.format(Locale.ROOT, "%.3fms", nanos/1e6);
+    }
+
+
+    private final long[] phases;
+    private long start;
+    private long sendStart;
+    private long headReceived;
+    private long wireBytes;
+    private long decodedBytes;
+
+
+    /**
+     * Constructor.
+     */
+    private RequestTiming(){
+        phases = new long[Phase.values().length];
+        start = 0;
+        sendStart = 0;
+        headReceived = 0;
+        wireBytes = 0;
+        decodedBytes = 0;
+    }
+
+    /**
+     * Adds time to a phase. Called from the hooks in the HTTP client.
+     *
+     * @param phase the phase.
+     * @param nanos the time spent in the phase, in nanoseconds.
+     */
+    void addPhase(@NotNull Phase phase, long nanos){
+        phases[phase.ordinal()] += nanos;
+    }
+
+    /**
+     * Marks the moment the request starts being sent. Everything before it, other than resolving,
+     * connecting and the handshake, was spent waiting for a connection.
+     */
+    void markSendStart(){
+        sendStart = System.nanoTime();
+        phases[Phase.QUEUE.ordinal()] = Math.max(0, sendStart - start - phases[Phase.DNS.ordinal()]
+                - phases[Phase.CONNECT.ordinal()] - phases[Phase.TLS.ordinal()]);
+    }
+
+    /**
+     * Marks the moment the head of the response is received.
+     */
+    void markHeadReceived(){
+        headReceived = System.nanoTime();
+        phases[Phase.WAIT.ordinal()] = headReceived - (sendStart == 0 ? start : sendStart);
+    }
+
+    /**
+     * Adds bytes of the body as transferred, before decompression. Called from the hooks in the HTTP client.
+     *
+     * @param bytes the number of bytes.
+     */
+    void addWireBytes(long bytes){
+        wireBytes += bytes;
+    }
+
+    /**
+     * Marks the end of the request.
+     *
+     * @param decodedBytes the number of bytes of the body after decompression.
+     */
+    void finish(long decodedBytes){
+        long end = System.nanoTime();
+        this.decodedBytes = decodedBytes;
+        phases[Phase.DOWNLOAD.ordinal()] = headReceived == 0 ? 0 : end - headReceived;
+        phases[Phase.TOTAL.ordinal()] = end - start;
+    }
+
+    /**
+     * Gets the time spent in a phase.
+     *
+     * @param phase the phase.
+     * @return the time, in nanoseconds.
+     */
+    long getPhase(@NotNull Phase phase){
+        return phases[phase.ordinal()];
+    }
+
+    /**
+     * Total time getter.
+     *
+     * @return the time the whole request took, in nanoseconds.
+     */
+    long getTotal(){
+        return phases[Phase.TOTAL.ordinal()];
+    }
+
+    /**
+     * Wire bytes getter.
+     *
+     * @return the number of bytes of the body as transferred, before decompression.
+     */
+    long getWireBytes(){
+        return wireBytes;
+    }
+
+    /**
+     * Decoded bytes getter.
+     *
+     * @return the number of bytes of the body after decompression.
+     */
+    long getDecodedBytes(){
+        return decodedBytes;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder result = new StringBuilder();
+        for (Phase phase:Phase.values()){
+            if (phase != Phase.TOTAL){
+                result.append(result.length() == 0 ? "" : ", ").append(phase).append(" ").append(format(getPhase(phase)));
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,539 @@
+package es.sandwatch.trim;
+
+import org.apache.http.ParseException;
+import org.apache.http.entity.ContentType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The raw bytes of a response, along with their charset. Small bodies are kept in memory, in
+ * buffers taken from the buffer pool; bodies above the spill threshold are written to a temporary
+ * file and read back through read only memory mapped buffers, so they never exist as a whole in
+ * the heap. Bodies are handed to the parser as they are, never decoded as a whole.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class ResponseBody{
+    /**
+     * The maximum size of a single mapped region.
+     */
+    private static final long MAX_REGION_SIZE = Integer.MAX_VALUE;
+
+
+    private ByteBuffer[] chunks;
+    private final boolean pooled;
+    private final Path file;
+    private final boolean ownsFile;
+    private final long offset;
+    private final long length;
+    private final Charset charset;
+    private ByteBuffer[] regions;
+
+
+    /**
+     * Creates a body kept in memory.
+     *
+     * @param chunks the contents of the body, ready to be read.
+     * @param pooled whether the chunks go back to the buffer pool when the body is released.
+     * @param length the total number of bytes in the chunks.
+     * @param charset the charset of the body.
+     */
+    private ResponseBody(@NotNull ByteBuffer[] chunks, boolean pooled, long length, @NotNull Charset charset){
+        this.chunks = chunks;
+        this.pooled = pooled;
+        this.file = null;
+        this.ownsFile = false;
+        this.offset = 0;
+        this.length = length;
+        this.charset = charset;
+    }
+
+    /**
+     * Creates a body backed by a file.
+     *
+     * @param file the file containing the body.
+     * @param ownsFile whether the file is deleted when the body is released.
+     * @param offset where the body starts in the file.
+     * @param length the size of the body.
+     * @param charset the charset of the body.
+     */
+    private ResponseBody(@NotNull Path file, boolean ownsFile, long offset, long length, @NotNull Charset charset){
+        this.chunks = null;
+        this.pooled = false;
+        this.file = file;
+        this.ownsFile = ownsFile;
+        this.offset = offset;
+        this.length = length;
+        this.charset = charset;
+    }
+
+    /**
+     * Creates a body kept in memory from a string.
+     *
+     * @param contents the contents of the body.
+     * @return the body, UTF-8 encoded.
+     */
+    static @NotNull ResponseBody of(@NotNull String contents){
+        return of(contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a UTF-8 encoded body kept in memory from raw bytes.
+     *
+     * @param bytes the contents of the body, which must not be modified afterwards.
+     * @return the body.
+     */
+    static @NotNull ResponseBody of(@NotNull byte[] bytes){
+        return of(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates a body kept in memory from raw bytes.
+     *
+     * @param bytes the contents of the body, which must not be modified afterwards.
+     * @param charset the charset of the body.
+     * @return the body.
+     */
+    static @NotNull ResponseBody of(@NotNull byte[] bytes, @NotNull Charset charset){
+        return new ResponseBody(new ByteBuffer[]{ByteBuffer.wrap(bytes)}, false, bytes.length, charset);
+    }
+
+    /**
+     * Creates a UTF-8 encoded body backed by a file that outlives it, such as a recorded response.
+     *
+     * @param file the file containing the body.
+     * @param length the size of the file.
+     * @return the body.
+     */
+    static @NotNull ResponseBody ofFile(@NotNull Path file, long length){
+        return ofFile(file, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates a body backed by a file that outlives it, such as a cached response.
+     *
+     * @param file the file containing the body.
+     * @param length the size of the file.
+     * @param charset the charset of the body.
+     * @return the body.
+     */
+    static @NotNull ResponseBody ofFile(@NotNull Path file, long length, @NotNull Charset charset){
+        return ofFile(file, 0, length, charset);
+    }
+
+    /**
+     * Creates a body backed by a region of a file that outlives it, such as a response recorded in
+     * an archive.
+     *
+     * @param file the file containing the body.
+     * @param offset where the body starts in the file.
+     * @param length the size of the body.
+     * @param charset the charset of the body.
+     * @return the body.
+     */
+    static @NotNull ResponseBody ofFile(@NotNull Path file, long offset, long length, @NotNull Charset charset){
+        return new ResponseBody(file, false, offset, length, charset);
+    }
+
+    /**
+     * Finds the charset of a body in its Content-Type.
+     *
+     * @param contentType the value of the Content-Type header, if any.
+     * @return the charset named in it, or UTF-8, JSON's default, if none or an unsupported one is.
+     */
+    static @NotNull Charset charsetOf(@Nullable String contentType){
+        if (contentType != null){
+            try{
+                Charset charset = ContentType.parse(contentType).getCharset();
+                if (charset != null){
+                    return charset;
+                }
+            }
+            catch (ParseException | IllegalArgumentException x){
+                //Fall back to the default
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Length getter.
+     *
+     * @return the size of the body in bytes.
+     */
+    long length(){
+        return length;
+    }
+
+    /**
+     * Charset getter.
+     *
+     * @return the charset of the body.
+     */
+    @NotNull Charset getCharset(){
+        return charset;
+    }
+
+    /**
+     * Tells whether the body was spilled to disk.
+     *
+     * @return true if it was, false if it is in memory.
+     */
+    boolean isSpilled(){
+        return file != null;
+    }
+
+    /**
+     * Gets views of the buffers holding the body. Views are independent, the body can be read any
+     * number of times and by many threads at once.
+     *
+     * @return the views, in order. Heap buffers are backed by accessible arrays.
+     * @throws IOException if the body's file can't be mapped or the body was released.
+     */
+    @NotNull ByteBuffer[] getBuffers() throws IOException{
+        ByteBuffer[] buffers = file == null ? getChunks() : getRegions();
+        ByteBuffer[] views = new ByteBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++){
+            views[i] = buffers[i].duplicate();
+        }
+        return views;
+    }
+
+    /**
+     * Opens a stream over the body. Streams are independent, the body can be read any number of times.
+     *
+     * @return the stream.
+     * @throws IOException if the body's file can't be mapped or the body was released.
+     */
+    @NotNull InputStream openStream() throws IOException{
+        return new BufferInputStream(getBuffers());
+    }
+
+    /**
+     * Decodes the body as text in its charset.
+     *
+     * @return the decoded body.
+     * @throws IOException if the body's file can't be mapped or the body was released.
+     */
+    @NotNull String decode() throws IOException{
+        ByteBuffer[] buffers = getBuffers();
+        if (buffers.length == 1 && buffers[0].hasArray()){
+            ByteBuffer only = buffers[0];
+            return new String(only.array(), only.arrayOffset() + only.position(), only.remaining(), charset);
+        }
+        try (Reader reader = new InputStreamReader(new BufferInputStream(buffers), charset)){
+            StringBuilder builder = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1){
+                builder.append(buffer, 0, read);
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Decodes the body as text in its charset, for display.
+     *
+     * @return the decoded body, or a note saying why it can't be read.
+     */
+    @NotNull String asString(){
+        try{
+            return decode();
+        }
+        catch (IOException iox){
+            return "Response body unavailable: " + iox.getMessage();
+        }
+    }
+
+    /**
+     * Returns the body's buffers to the pool and deletes its temporary file, if any. The body
+     * can't be read afterwards.
+     */
+    void release(){
+        if (pooled){
+            synchronized (this){
+                if (chunks != null){
+                    for (ByteBuffer chunk:chunks){
+                        BufferPool.release(chunk);
+                    }
+                    chunks = null;
+                }
+            }
+        }
+        if (ownsFile){
+            try{
+                Files.deleteIfExists(file);
+            }
+            catch (IOException iox){
+                iox.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Gets the buffers of a body kept in memory.
+     *
+     * @return the buffers, in order.
+     * @throws IOException if the body was released and its buffers reused.
+     */
+    private synchronized @NotNull ByteBuffer[] getChunks() throws IOException{
+        if (chunks == null){
+            throw new IOException("The response body was already released");
+        }
+        return chunks;
+    }
+
+    /**
+     * Maps the body's region of its file into memory, lazily and once.
+     *
+     * @return the read only mapped regions of the body, in order.
+     * @throws IOException if the file can't be mapped.
+     */
+    private synchronized @NotNull ByteBuffer[] getRegions() throws IOException{
+        if (regions == null){
+            List<ByteBuffer> mapped = new ArrayList<>();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+                for (long position = 0; position < length; position += MAX_REGION_SIZE){
+                    long size = Math.min(MAX_REGION_SIZE, length - position);
+                    MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, offset + position, size);
+                    mapped.add(region);
+                }
+            }
+            regions = mapped.toArray(new ByteBuffer[mapped.size()]);
+        }
+        return regions;
+    }
+
+
+    /**
+     * Collects the bytes of a body as they are read from the network into pooled buffers, spilling
+     * them to a temporary file once they go past a threshold and discarding anything past the size
+     * cap.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    static class Builder implements Closeable{
+        private final long spillThreshold;
+        private final long maxSize;
+        private final File spillDirectory;
+
+        private List<ByteBuffer> chunks;
+        private Path file;
+        private OutputStream fileStream;
+        private long length;
+        private boolean truncated;
+        private boolean built;
+
+
+        /**
+         * Constructor.
+         *
+         * @param spillThreshold the size above which the body is written to disk, in bytes.
+         * @param maxSize the maximum number of bytes kept, the rest are discarded.
+         * @param spillDirectory the directory for temporary files, or null to use the default one.
+         */
+        Builder(long spillThreshold, long maxSize, @Nullable File spillDirectory){
+            this.spillThreshold = spillThreshold;
+            this.maxSize = maxSize;
+            this.spillDirectory = spillDirectory;
+            this.chunks = new ArrayList<>();
+            this.length = 0;
+            this.truncated = false;
+            this.built = false;
+        }
+
+        /**
+         * Appends bytes to the body.
+         *
+         * @param src the source array.
+         * @param offset the offset of the first byte to append.
+         * @param len the number of bytes to append.
+         * @return false if the size cap was hit and the body was truncated, true otherwise.
+         * @throws IOException if the bytes can't be spilled.
+         */
+        boolean write(@NotNull byte[] src, int offset, int len) throws IOException{
+            if (length + len > maxSize){
+                len = (int)(maxSize - length);
+                truncated = true;
+            }
+            if (file == null && length + len > spillThreshold){
+                spill();
+            }
+            if (file != null){
+                fileStream.write(src, offset, len);
+            }
+            else{
+                //Fill the last buffer, taking new ones from the pool as they fill up
+                int written = 0;
+                while (written < len){
+                    ByteBuffer last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+                    if (last == null || !last.hasRemaining()){
+                        last = BufferPool.acquire();
+                        chunks.add(last);
+                    }
+                    int count = Math.min(len - written, last.remaining());
+                    last.put(src, offset + written, count);
+                    written += count;
+                }
+            }
+            length += len;
+            return !truncated;
+        }
+
+        /**
+         * Tells whether the size cap was hit.
+         *
+         * @return true if it was, false otherwise.
+         */
+        boolean isTruncated(){
+            return truncated;
+        }
+
+        /**
+         * Creates the body. The builder shouldn't be written to afterwards.
+         *
+         * @param charset the charset of the body.
+         * @return the body.
+         * @throws IOException if the spilled bytes can't be flushed.
+         */
+        @NotNull ResponseBody build(@NotNull Charset charset) throws IOException{
+            built = true;
+            if (file == null){
+                for (ByteBuffer chunk:chunks){
+                    //Through Buffer, so that it links against the Java 8 signatures
+                    ((Buffer)chunk).flip();
+                }
+                return new ResponseBody(chunks.toArray(new ByteBuffer[chunks.size()]), true, length, charset);
+            }
+            fileStream.close();
+            return new ResponseBody(file, true, 0, length, charset);
+        }
+
+        /**
+         * Moves the bytes collected so far to a new temporary file.
+         *
+         * @throws IOException if the file can't be created or written.
+         */
+        private void spill() throws IOException{
+            if (spillDirectory == null){
+                file = Files.createTempFile("trim-", ".body");
+            }
+            else{
+                file = Files.createTempFile(spillDirectory.toPath(), "trim-", ".body");
+            }
+            fileStream = new BufferedOutputStream(Files.newOutputStream(file), 65536);
+            for (ByteBuffer chunk:chunks){
+                fileStream.write(chunk.array(), chunk.arrayOffset(), chunk.position());
+            }
+            releaseChunks();
+        }
+
+        /**
+         * Returns the buffers collected so far to the pool.
+         */
+        private void releaseChunks(){
+            for (ByteBuffer chunk:chunks){
+                BufferPool.release(chunk);
+            }
+            chunks.clear();
+        }
+
+        /**
+         * Returns the buffers to the pool and deletes the temporary file if the body was never built.
+         */
+        @Override
+        public void close(){
+            if (!built){
+                releaseChunks();
+            }
+            if (!built && file != null){
+                try{
+                    fileStream.close();
+                    Files.deleteIfExists(file);
+                }
+                catch (IOException iox){
+                    iox.printStackTrace();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Input stream over a sequence of buffers, which it consumes. Streams are given their own views
+     * of the buffers, so many streams can read the same body at once.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class BufferInputStream extends InputStream{
+        private final ByteBuffer[] buffers;
+        private int current;
+
+
+        /**
+         * Constructor.
+         *
+         * @param buffers the buffers to read, in order, which are consumed.
+         */
+        private BufferInputStream(@NotNull ByteBuffer[] buffers){
+            this.buffers = buffers;
+            this.current = 0;
+        }
+
+        @Override
+        public int read(){
+            ByteBuffer buffer = currentBuffer();
+            return buffer == null ? -1 : buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(@NotNull byte[] destination, int offset, int length){
+            if (length == 0){
+                return 0;
+            }
+            ByteBuffer buffer = currentBuffer();
+            if (buffer == null){
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(destination, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available(){
+            ByteBuffer buffer = currentBuffer();
+            return buffer == null ? 0 : buffer.remaining();
+        }
+
+        /**
+         * Gets the buffer being read, moving on to the next one if it has been consumed.
+         *
+         * @return the current buffer, or null if all of them have been read.
+         */
+        private @Nullable ByteBuffer currentBuffer(){
+            while (current < buffers.length && !buffers[current].hasRemaining()){
+                current++;
+            }
+            return current < buffers.length ? buffers[current] : null;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+
+/**
+ * On disk cache of endpoint responses, revalidated through ETag and Last-Modified. Every entry is
+ * made of up to three files named after the entry's key: the response's metadata, its body and the
+ * shape parsed from it. The cache is bounded in size; the entries used least recently are evicted
+ * first, where an entry's last use is the modification time of its metadata file.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class ResponseCache{
+    private static final String META_EXTENSION = ".meta";
+    private static final String BODY_EXTENSION = ".body";
+    private static final String SHAPE_EXTENSION = ".shape";
+
+    private static final String URL = "url";
+    private static final String STATUS_CODE = "statusCode";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String CHARSET = "charset";
+
+
+    /**
+     * Opens a cache, creating its directory if necessary.
+     *
+     * @param directory the directory holding the cache.
+     * @param maxSize the maximum size of the cache, in bytes.
+     * @return the cache.
+     * @throws IOException if the directory can't be created or read.
+     */
+    static @NotNull ResponseCache open(@NotNull File directory, long maxSize) throws IOException{
+        ResponseCache cache = new ResponseCache(directory.toPath(), maxSize);
+        cache.load();
+        return cache;
+    }
+
+    /**
+     * Creates the key of a request.
+     *
+     * @param url the url of the request.
+     * @param headers the effective headers of the request.
+     * @return the key, a hex encoded hash of the url and the sorted headers.
+     */
+    static @NotNull String createKey(@NotNull String url, @NotNull Map<String, String> headers){
+        StringBuilder source = new StringBuilder(url);
+        for (Map.Entry<String, String> header:new TreeMap<>(headers).entrySet()){
+            source.append('\n').append(header.getKey()).append(": ").append(header.getValue());
+        }
+        try{
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(source.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b:hash){
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        }
+        catch (NoSuchAlgorithmException nsax){
+            //Every JVM is required to support SHA-256
+            throw new IllegalStateException(nsax);
+        }
+    }
+
+
+    private final Path directory;
+    private final long maxSize;
+
+    /**
+     * Entry sizes in least recently used order.
+     */
+    private final LinkedHashMap<String, Long> entries;
+
+    /**
+     * Entries used during this run, which can't be evicted because their files may still be read.
+     */
+    private final Set<String> pinned;
+    private long size;
+
+
+    /**
+     * Constructor.
+     *
+     * @param directory the directory holding the cache.
+     * @param maxSize the maximum size of the cache, in bytes.
+     */
+    private ResponseCache(@NotNull Path directory, long maxSize){
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.pinned = new HashSet<>();
+        this.size = 0;
+    }
+
+    /**
+     * Indexes the entries already in the cache's directory, oldest first.
+     *
+     * @throws IOException if the directory can't be created or read.
+     */
+    private void load() throws IOException{
+        Files.createDirectories(directory);
+        List<Path> metaFiles = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + META_EXTENSION)){
+            for (Path metaFile:stream){
+                metaFiles.add(metaFile);
+            }
+        }
+        final Map<Path, FileTime> times = new HashMap<>();
+        for (Path metaFile:metaFiles){
+            times.put(metaFile, Files.getLastModifiedTime(metaFile));
+        }
+        metaFiles.sort(Comparator.comparing(times::get));
+        for (Path metaFile:metaFiles){
+            String name = metaFile.getFileName().toString();
+            String key = name.substring(0, name.length() - META_EXTENSION.length());
+            long entrySize = getEntrySize(key);
+            entries.put(key, entrySize);
+            size += entrySize;
+        }
+    }
+
+    /**
+     * Looks up an entry and marks it as used.
+     *
+     * @param key the key of the request.
+     * @return the entry, or null if there's none.
+     */
+    @Nullable Entry lookup(@NotNull String key){
+        synchronized (this){
+            if (!entries.containsKey(key)){
+                return null;
+            }
+            pinned.add(key);
+        }
+        Path metaFile = getPath(key, META_EXTENSION);
+        Path bodyFile = getPath(key, BODY_EXTENSION);
+        Properties meta = new Properties();
+        try (InputStream in = Files.newInputStream(metaFile)){
+            meta.load(in);
+            Files.setLastModifiedTime(metaFile, FileTime.fromMillis(System.currentTimeMillis()));
+            //Entries written before charsets were kept are UTF-8
+            Charset charset = Charset.forName(meta.getProperty(CHARSET, StandardCharsets.UTF_8.name()));
+            return new Entry(Integer.parseInt(meta.getProperty(STATUS_CODE)), meta.getProperty(ETAG),
+                    meta.getProperty(LAST_MODIFIED), ResponseBody.ofFile(bodyFile, Files.size(bodyFile), charset));
+        }
+        catch (IOException | RuntimeException x){
+            //A broken entry is as good as no entry
+            return null;
+        }
+    }
+
+    /**
+     * Stores a response, replacing any previous entry for the same request.
+     *
+     * @param key the key of the request.
+     * @param url the url of the request.
+     * @param statusCode the status code of the response.
+     * @param etag the ETag of the response, if any.
+     * @param lastModified the Last-Modified date of the response, if any.
+     * @param body the body of the response.
+     * @return true if the response was stored, false otherwise.
+     */
+    boolean store(@NotNull String key, @NotNull String url, int statusCode, @Nullable String etag,
+               @Nullable String lastModified, @NotNull ResponseBody body){
+
+        Properties meta = new Properties();
+        meta.setProperty(URL, url);
+        meta.setProperty(STATUS_CODE, Integer.toString(statusCode));
+        meta.setProperty(CHARSET, body.getCharset().name());
+        if (etag != null){
+            meta.setProperty(ETAG, etag);
+        }
+        if (lastModified != null){
+            meta.setProperty(LAST_MODIFIED, lastModified);
+        }
+
+        try{
+            //Write to temporary files first, so readers never see half written entries
+            Path bodyTemp = Files.createTempFile(directory, key, BODY_EXTENSION);
+            try (InputStream in = body.openStream()){
+                Files.copy(in, bodyTemp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Path metaTemp = Files.createTempFile(directory, key, META_EXTENSION + ".tmp");
+            try (OutputStream out = Files.newOutputStream(metaTemp)){
+                meta.store(out, null);
+            }
+            Files.deleteIfExists(getPath(key, SHAPE_EXTENSION));
+            Files.move(bodyTemp, getPath(key, BODY_EXTENSION), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(metaTemp, getPath(key, META_EXTENSION), StandardCopyOption.REPLACE_EXISTING);
+            updateEntry(key);
+            return true;
+        }
+        catch (IOException iox){
+            iox.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Loads the shape parsed from an entry's body.
+     *
+     * @param key the key of the request.
+     * @param sampler the sampler the shape must have been parsed with.
+     * @return the shape, or null if there's none for the given sampler.
+     */
+    @Nullable Shape loadShape(@NotNull String key, @NotNull ArraySampler sampler){
+        Path shapeFile = getPath(key, SHAPE_EXTENSION);
+        if (!Files.exists(shapeFile)){
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(shapeFile)))){
+            if (!in.readUTF().equals(sampler.toString())){
+                return null;
+            }
+            return ShapeCodec.read(in);
+        }
+        catch (IOException iox){
+            return null;
+        }
+    }
+
+    /**
+     * Stores the shape parsed from an entry's body.
+     *
+     * @param key the key of the request.
+     * @param sampler the sampler the shape was parsed with.
+     * @param shape the shape.
+     */
+    void storeShape(@NotNull String key, @NotNull ArraySampler sampler, @NotNull Shape shape){
+        synchronized (this){
+            if (!entries.containsKey(key)){
+                return;
+            }
+        }
+        try{
+            Path shapeTemp = Files.createTempFile(directory, key, SHAPE_EXTENSION);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(shapeTemp)))){
+                out.writeUTF(sampler.toString());
+                ShapeCodec.write(shape, out);
+            }
+            Files.move(shapeTemp, getPath(key, SHAPE_EXTENSION), StandardCopyOption.REPLACE_EXISTING);
+            updateEntry(key);
+        }
+        catch (IOException iox){
+            iox.printStackTrace();
+        }
+    }
+
+    /**
+     * Deletes the shape parsed from an entry's body, if there is one.
+     *
+     * @param key the key of the request.
+     */
+    void dropShape(@NotNull String key){
+        synchronized (this){
+            if (!entries.containsKey(key)){
+                return;
+            }
+        }
+        try{
+            if (Files.deleteIfExists(getPath(key, SHAPE_EXTENSION))){
+                updateEntry(key);
+            }
+        }
+        catch (IOException iox){
+            iox.printStackTrace();
+        }
+    }
+
+    /**
+     * Updates the size of an entry, marks it as used and evicts old entries if the cache got too big.
+     *
+     * @param key the key of the entry.
+     * @throws IOException if the sizes of the entry's files can't be read.
+     */
+    private void updateEntry(@NotNull String key) throws IOException{
+        long entrySize = getEntrySize(key);
+        List<String> evicted = new ArrayList<>();
+        synchronized (this){
+            Long previous = entries.put(key, entrySize);
+            size += entrySize - (previous == null ? 0 : previous);
+            pinned.add(key);
+
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+            while (size > maxSize && iterator.hasNext()){
+                Map.Entry<String, Long> entry = iterator.next();
+                if (!pinned.contains(entry.getKey())){
+                    size -= entry.getValue();
+                    evicted.add(entry.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+        for (String evictedKey:evicted){
+            Files.deleteIfExists(getPath(evictedKey, META_EXTENSION));
+            Files.deleteIfExists(getPath(evictedKey, BODY_EXTENSION));
+            Files.deleteIfExists(getPath(evictedKey, SHAPE_EXTENSION));
+        }
+    }
+
+    /**
+     * Adds up the size of the files of an entry.
+     *
+     * @param key the key of the entry.
+     * @return the size of the entry, in bytes.
+     * @throws IOException if the sizes can't be read.
+     */
+    private long getEntrySize(@NotNull String key) throws IOException{
+        long entrySize = 0;
+        for (String extension:new String[]{META_EXTENSION, BODY_EXTENSION, SHAPE_EXTENSION}){
+            Path path = getPath(key, extension);
+            if (Files.exists(path)){
+                entrySize += Files.size(path);
+            }
+        }
+        return entrySize;
+    }
+
+    /**
+     * Gets the path of one of the files of an entry.
+     *
+     * @param key the key of the entry.
+     * @param extension the extension of the file.
+     * @return the path.
+     */
+    private @NotNull Path getPath(@NotNull String key, @NotNull String extension){
+        return directory.resolve(key + extension);
+    }
+
+
+    /**
+     * A cached response.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    static class Entry{
+        private final int statusCode;
+        private final String etag;
+        private final String lastModified;
+        private final ResponseBody body;
+
+
+        /**
+         * Constructor.
+         *
+         * @param statusCode the status code of the cached response.
+         * @param etag the ETag of the cached response, if any.
+         * @param lastModified the Last-Modified date of the cached response, if any.
+         * @param body the body of the cached response.
+         */
+        private Entry(int statusCode, @Nullable String etag, @Nullable String lastModified, @NotNull ResponseBody body){
+            this.statusCode = statusCode;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+
+        /**
+         * Status code getter.
+         *
+         * @return the status code of the cached response.
+         */
+        int getStatusCode(){
+            return statusCode;
+        }
+
+        /**
+         * ETag getter.
+         *
+         * @return the ETag of the cached response, or null if it had none.
+         */
+        @Nullable String getEtag(){
+            return etag;
+        }
+
+        /**
+         * Last modified getter.
+         *
+         * @return the Last-Modified date of the cached response, or null if it had none.
+         */
+        @Nullable String getLastModified(){
+            return lastModified;
+        }
+
+        /**
+         * Body getter.
+         *
+         * @return the body of the cached response.
+         */
+        @NotNull ResponseBody getBody(){
+            return body;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+
+
+/**
+ * Where the responses to analyze come from. By default, the live endpoints are hit, or responses
+ * recorded earlier are replayed; any other source can be set through
+ * {@link Specification#setResponseSource(ResponseSource)}. Sources are shared by every thread of
+ * a run, so implementations must be thread safe.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+public interface ResponseSource extends Closeable{
+    /**
+     * Gets the response to a request on behalf of a model's endpoint.
+     *
+     * @param model the model containing endpoint and header data.
+     * @param url the address requested, the model's endpoint or one of its pages or samples.
+     * @return a bundle containing request code and result.
+     */
+    @NotNull RequestResult getEndpointData(@NotNull Class<?> model, @NotNull String url);
+
+    /**
+     * Gets the use the source's connection pool saw so far.
+     *
+     * @return the size of the pool and the peaks of leased and pending connections, or null if the
+     *         source doesn't use connections.
+     */
+    @Nullable ConnectionPoolStats getPoolStats();
+
+    /**
+     * Releases the resources held by the source.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,105 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * The schema of a model class: the fields of the class and its superclasses, sorted by the
+ * symbol of the attribute they map to, so that the field matching an attribute of a response is
+ * found by comparing integers. The schemas of nested classes are shared, so schemas may be cyclic
+ * graphs. Schemas are filled by the parser once every class they reach is known, and never
+ * modified after that.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+final class Schema{
+    /**
+     * The schema of fields whose own attributes aren't inspected.
+     */
+    static final Schema EMPTY = new Schema();
+
+
+    private int[] symbols;
+    private ModelField[] fields;
+    private Schema[] children;
+
+
+    /**
+     * Constructor. Creates a schema with no fields.
+     */
+    Schema(){
+        this.symbols = new int[0];
+        this.fields = new ModelField[0];
+        this.children = new Schema[0];
+    }
+
+    /**
+     * Sets the fields of the schema.
+     *
+     * @param fields the fields, one per attribute.
+     * @param children the schema of each field's model class, in the same order, EMPTY for fields
+     *                 whose attributes aren't inspected.
+     */
+    void setFields(@NotNull List<ModelField> fields, @NotNull List<Schema> children){
+        //Sort by symbol, carrying the position of every field in the low bits
+        long[] order = new long[fields.size()];
+        for (int i = 0; i < order.length; i++){
+            order[i] = (long)Symbols.intern(fields.get(i).getName()) << 32 | i;
+        }
+        Arrays.sort(order);
+
+        symbols = new int[order.length];
+        this.fields = new ModelField[order.length];
+        this.children = new Schema[order.length];
+        for (int i = 0; i < order.length; i++){
+            int position = (int)order[i];
+            symbols[i] = (int)(order[i] >>> 32);
+            this.fields[i] = fields.get(position);
+            this.children[i] = children.get(position);
+        }
+    }
+
+    /**
+     * Finds the field mapping to an attribute.
+     *
+     * @param symbol the symbol of the attribute's name.
+     * @return the position of the field, or -1 if no field maps to the attribute.
+     */
+    int indexOf(int symbol){
+        int position = Arrays.binarySearch(symbols, symbol);
+        return position < 0 ? -1 : position;
+    }
+
+    /**
+     * Size getter.
+     *
+     * @return the number of fields.
+     */
+    int size(){
+        return fields.length;
+    }
+
+    /**
+     * Field getter.
+     *
+     * @param position the position of the field.
+     * @return the field.
+     */
+    @NotNull ModelField getField(int position){
+        return fields[position];
+    }
+
+    /**
+     * Children getter.
+     *
+     * @param position the position of the field.
+     * @return the schema of the field's model class, EMPTY if its attributes aren't inspected.
+     */
+    @NotNull Schema getChildren(int position){
+        return children[position];
+    }
+}
@@ -0,0 +1,24 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+
+/**
+ * Registry of the model schemas generated at build time by the Trim annotation processor, one per
+ * package of models. Registries are found through a ServiceLoader in the class loader of every
+ * model, and the schema of a model found in one is used instead of reflecting the model. Models
+ * without one are reflected as usual.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+public interface SchemaRegistry{
+    /**
+     * Gets the schemas in the registry.
+     *
+     * @return the list of schemas.
+     */
+    @NotNull List<GeneratedSchema> getSchemas();
+}
@@ -0,0 +1,701 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The shape of a json document: the fields found in it, their types and how often they were seen.
+ * Nodes are kept in an arena of parallel arrays and referred to by index, the root being node 0,
+ * and names are interned {@link Symbols}, so a shape costs a few dozen bytes per distinct field
+ * and no objects at all. Names past the bound of the symbol table get negative symbols local to
+ * the shape, which never match those of a schema. Children are linked in the order they were
+ * found and looked up through an open addressing index keyed by parent and symbol. Children are
+ * always added after their parents, so they have higher indices.
+ *
+ * The children of a node are either unparsed, for scalars and objects that couldn't be read, or
+ * a possibly empty list. Arrays hold the merged children of their items, and empty arrays hold a
+ * single nameless NONE node, a placeholder that gives way to the children of any later item.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+final class Shape{
+    /**
+     * The node of the document's root object.
+     */
+    static final int ROOT = 0;
+
+    /**
+     * The first child of nodes whose children weren't parsed, and the end of a list of children.
+     */
+    private static final int UNPARSED = -2;
+    private static final int NONE = -1;
+
+    private static final JsonType[] TYPES = JsonType.values();
+
+
+    /**
+     * The type of every node, as an ordinal, and the bit set of the types it was seen with.
+     */
+    private byte[] kinds;
+    private byte[] typeSets;
+    private int[] names;
+    private int[] parents;
+    private int[] firstChildren;
+    private int[] lastChildren;
+    private int[] nextSiblings;
+
+    /**
+     * The number of times every node was seen in the objects merged into its parent, how many of
+     * those it was null, and the number of objects merged into its own children.
+     */
+    private int[] occurrences;
+    private int[] nulls;
+    private int[] samples;
+    private int size;
+
+    /**
+     * The nodes other than the root by parent and symbol, -1 where empty. Nodes that were removed
+     * stay in the index until it grows, with no parent, so that they are never matched.
+     */
+    private int[] index;
+    private int indexed;
+
+    /**
+     * The names that got a local symbol, the complement of their position, and their symbols by
+     * name. Null until one is needed.
+     */
+    private List<String> localNames;
+    private Map<String, Integer> localSymbols;
+
+
+    /**
+     * Creates a shape whose root is unparsed and has never been seen.
+     */
+    Shape(){
+        kinds = new byte[16];
+        typeSets = new byte[16];
+        names = new int[16];
+        parents = new int[16];
+        firstChildren = new int[16];
+        lastChildren = new int[16];
+        nextSiblings = new int[16];
+        occurrences = new int[16];
+        nulls = new int[16];
+        samples = new int[16];
+        index = new int[32];
+        clear();
+    }
+
+    /**
+     * Creates the shape of a document that couldn't be read as an object.
+     *
+     * @return the shape, whose root is an unparsed object.
+     */
+    static @NotNull Shape unparsed(){
+        Shape shape = new Shape();
+        shape.observe(ROOT, JsonType.OBJECT);
+        return shape;
+    }
+
+    /**
+     * Picks the type that best describes a field seen with two different types. Nulls and empty
+     * values give way to anything else and ints widen to floats; otherwise the first type stays.
+     *
+     * @param first the type seen first.
+     * @param second the type seen later.
+     * @return the merged type.
+     */
+    private static @NotNull JsonType mergeTypes(@NotNull JsonType first, @NotNull JsonType second){
+        if (first == JsonType.NULL || first == JsonType.NONE){
+            return second == JsonType.NONE ? first : second;
+        }
+        if (first == JsonType.NUMBER_INT && second == JsonType.NUMBER_FLOAT){
+            return second;
+        }
+        return first;
+    }
+
+    /**
+     * Empties the shape, keeping its buffers.
+     */
+    void clear(){
+        size = 1;
+        kinds[ROOT] = (byte)JsonType.NONE.ordinal();
+        typeSets[ROOT] = 0;
+        names[ROOT] = Symbols.EMPTY;
+        parents[ROOT] = NONE;
+        firstChildren[ROOT] = UNPARSED;
+        lastChildren[ROOT] = NONE;
+        nextSiblings[ROOT] = NONE;
+        occurrences[ROOT] = 0;
+        nulls[ROOT] = 0;
+        samples[ROOT] = 0;
+        Arrays.fill(index, -1);
+        indexed = 0;
+        localNames = null;
+        localSymbols = null;
+    }
+
+    /**
+     * Size getter.
+     *
+     * @return the number of nodes in the shape, including the root and removed placeholders.
+     */
+    int size(){
+        return size;
+    }
+
+    /**
+     * Gets the symbol of a name in this shape, that of {@link Symbols} unless the table is full,
+     * in which case the shape keeps the name itself.
+     *
+     * @param name the name.
+     * @return the symbol, negative if it is local to the shape.
+     */
+    int symbolOf(@NotNull String name){
+        if (localSymbols != null){
+            Integer symbol = localSymbols.get(name);
+            if (symbol != null){
+                return symbol;
+            }
+        }
+        int symbol = Symbols.internResponseName(name);
+        if (symbol == -1){
+            if (localSymbols == null){
+                localNames = new ArrayList<>();
+                localSymbols = new HashMap<>();
+            }
+            symbol = ~localNames.size();
+            localNames.add(name);
+            localSymbols.put(name, symbol);
+        }
+        return symbol;
+    }
+
+    /**
+     * Tells whether any name of the shape got a local symbol.
+     *
+     * @return true if one did, false otherwise.
+     */
+    boolean hasLocalNames(){
+        return localSymbols != null;
+    }
+
+    /**
+     * Gets the name of a symbol of this shape.
+     *
+     * @param symbol the symbol.
+     * @return the name.
+     */
+    @NotNull String nameOf(int symbol){
+        return symbol >= 0 ? Symbols.name(symbol) : localNames.get(~symbol);
+    }
+
+    /**
+     * Finds a child of a node.
+     *
+     * @param parent the node.
+     * @param name the symbol of the child's name.
+     * @return the child, or -1 if the node has no such child.
+     */
+    int findChild(int parent, int name){
+        int mask = index.length - 1;
+        for (int slot = slotOf(parent, name) & mask; ; slot = (slot + 1) & mask){
+            int node = index[slot];
+            if (node == -1 || (parents[node] == parent && names[node] == name)){
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Adds a child that has never been seen to a node whose children were parsed.
+     *
+     * @param parent the node.
+     * @param name the symbol of the child's name.
+     * @return the child.
+     */
+    int addChild(int parent, int name){
+        if (size == kinds.length){
+            grow();
+        }
+        int node = size++;
+        kinds[node] = (byte)JsonType.NONE.ordinal();
+        typeSets[node] = 0;
+        names[node] = name;
+        parents[node] = parent;
+        firstChildren[node] = UNPARSED;
+        lastChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        occurrences[node] = 0;
+        nulls[node] = 0;
+        samples[node] = 0;
+
+        if (firstChildren[parent] < 0){
+            firstChildren[parent] = node;
+        }
+        else{
+            nextSiblings[lastChildren[parent]] = node;
+        }
+        lastChildren[parent] = node;
+
+        if ((indexed + 1)*2 > index.length){
+            rehash(index.length*2);
+        }
+        insert(node);
+        return node;
+    }
+
+    /**
+     * Records that a node was seen once more, with the given type.
+     *
+     * @param node the node.
+     * @param type the type it was seen with.
+     */
+    void observe(int node, @NotNull JsonType type){
+        kinds[node] = (byte)mergeTypes(TYPES[kinds[node]], type).ordinal();
+        occurrences[node]++;
+        if (type == JsonType.NULL){
+            nulls[node]++;
+        }
+        typeSets[node] |= 1 << type.ordinal();
+    }
+
+    /**
+     * Adds to the number of objects merged into a node's children.
+     *
+     * @param node the node.
+     * @param count the number of objects.
+     */
+    void addSamples(int node, int count){
+        samples[node] += count;
+    }
+
+    /**
+     * Gets a node ready to have the fields of an object merged into its children, dropping the
+     * placeholder of empty arrays.
+     *
+     * @param node the node.
+     */
+    void parseObject(int node){
+        if (firstChildren[node] == UNPARSED || isEmptyArrayShape(node)){
+            resetChildren(node);
+        }
+    }
+
+    /**
+     * Records that an array with no items was merged into a node. Unless the node already has
+     * children of its own, it gets the placeholder of empty arrays.
+     *
+     * @param node the node.
+     */
+    void parseEmptyArray(int node){
+        if (firstChildren[node] == UNPARSED){
+            firstChildren[node] = NONE;
+            observe(addChild(node, Symbols.EMPTY), JsonType.NONE);
+        }
+    }
+
+    /**
+     * Merges another shape into this one. Occurrence and sample counts are added up, children
+     * present in either shape are kept, and types are widened where they differ.
+     *
+     * @param source the shape to merge, which isn't modified.
+     */
+    void merge(@NotNull Shape source){
+        mergeNode(ROOT, source, ROOT);
+    }
+
+    /**
+     * Merges a node of another shape into a node of this one.
+     *
+     * @param target the node to merge into.
+     * @param source the shape the node to merge belongs to.
+     * @param node the node to merge.
+     */
+    private void mergeNode(int target, @NotNull Shape source, int node){
+        JsonType type = mergeTypes(TYPES[kinds[target]], TYPES[source.kinds[node]]);
+        //Reading the values one after the other would have turned an integer into a float on any later float
+        if (type == JsonType.NUMBER_INT && (source.typeSets[node] & 1 << JsonType.NUMBER_FLOAT.ordinal()) != 0){
+            type = JsonType.NUMBER_FLOAT;
+        }
+        kinds[target] = (byte)type.ordinal();
+        occurrences[target] += source.occurrences[node];
+        nulls[target] += source.nulls[node];
+        typeSets[target] |= source.typeSets[node];
+        mergeContents(target, source, node);
+    }
+
+    /**
+     * Merges the children and sample count of a node of another shape into a node of this one,
+     * as is done with the merged items of an array.
+     *
+     * @param target the node to merge into.
+     * @param source the shape the node to merge belongs to.
+     * @param node the node whose children are to be merged.
+     */
+    void mergeContents(int target, @NotNull Shape source, int node){
+        samples[target] += source.samples[node];
+        if (source.isParsedObject(node) && !source.isEmptyArrayShape(node)){
+            if (!isParsedObject(target) || isEmptyArrayShape(target)){
+                resetChildren(target);
+                copyChildren(target, source, node);
+            }
+            else{
+                for (int child = source.firstChildren[node]; child >= 0; child = source.nextSiblings[child]){
+                    int targetChild = findChild(target, translate(source, source.names[child]));
+                    if (targetChild == -1){
+                        copyNode(target, source, child);
+                    }
+                    else{
+                        mergeNode(targetChild, source, child);
+                    }
+                }
+            }
+        }
+        else if (!isParsedObject(target) && source.isParsedObject(node)){
+            firstChildren[target] = NONE;
+            copyChildren(target, source, node);
+        }
+    }
+
+    /**
+     * Copies the children of a node of another shape, and everything under them, into a node of
+     * this one that has no children.
+     *
+     * @param target the node to copy into.
+     * @param source the shape the node to copy belongs to.
+     * @param node the node whose children are to be copied.
+     */
+    private void copyChildren(int target, @NotNull Shape source, int node){
+        for (int child = source.firstChildren[node]; child >= 0; child = source.nextSiblings[child]){
+            copyNode(target, source, child);
+        }
+    }
+
+    /**
+     * Copies a node of another shape, and everything under it, as a new child of a node of this one.
+     *
+     * @param parent the node to add the copy to.
+     * @param source the shape the node to copy belongs to.
+     * @param node the node to copy.
+     */
+    private void copyNode(int parent, @NotNull Shape source, int node){
+        int copy = addChild(parent, translate(source, source.names[node]));
+        kinds[copy] = source.kinds[node];
+        typeSets[copy] = source.typeSets[node];
+        occurrences[copy] = source.occurrences[node];
+        nulls[copy] = source.nulls[node];
+        samples[copy] = source.samples[node];
+        if (source.isParsedObject(node)){
+            firstChildren[copy] = NONE;
+            copyChildren(copy, source, node);
+        }
+    }
+
+    /**
+     * Turns the symbol of a name in another shape into its symbol in this one.
+     *
+     * @param source the other shape.
+     * @param symbol the symbol in the other shape.
+     * @return the symbol in this shape.
+     */
+    private int translate(@NotNull Shape source, int symbol){
+        //Global symbols are shared unless this shape got a local one for the name before the table took it
+        if (symbol < 0 || localSymbols != null){
+            return symbolOf(source.nameOf(symbol));
+        }
+        return symbol;
+    }
+
+    /**
+     * Recreates the state of a node from its persisted values.
+     *
+     * @param node the node.
+     * @param type the node's type.
+     * @param occurrences the number of times the field was seen.
+     * @param nulls the number of times the field was null.
+     * @param types the bit set of the json types seen, indexed by ordinal.
+     * @param samples the number of objects merged into the node's children.
+     * @param parsed whether the node's children were parsed.
+     */
+    void restore(int node, @NotNull JsonType type, int occurrences, int nulls, int types, int samples,
+                 boolean parsed){
+
+        this.kinds[node] = (byte)type.ordinal();
+        this.occurrences[node] = occurrences;
+        this.nulls[node] = nulls;
+        this.typeSets[node] = (byte)types;
+        this.samples[node] = samples;
+        if (parsed && firstChildren[node] == UNPARSED){
+            firstChildren[node] = NONE;
+        }
+    }
+
+    /**
+     * Type getter.
+     *
+     * @param node the node.
+     * @return the type that best describes the node.
+     */
+    @NotNull JsonType getType(int node){
+        return TYPES[kinds[node]];
+    }
+
+    /**
+     * Symbol getter.
+     *
+     * @param node the node.
+     * @return the symbol of the name of the field in {@link Symbols}, or -1 if it has none.
+     */
+    int getSymbol(int node){
+        return names[node] >= 0 ? names[node] : Symbols.lookup(localNames.get(~names[node]));
+    }
+
+    /**
+     * Name getter.
+     *
+     * @param node the node.
+     * @return the name of the field.
+     */
+    @NotNull String getName(int node){
+        return nameOf(names[node]);
+    }
+
+    /**
+     * Parent getter.
+     *
+     * @param node the node.
+     * @return the node the node is a child of, or -1 for the root and removed placeholders.
+     */
+    int getParent(int node){
+        return parents[node];
+    }
+
+    /**
+     * Occurrences getter.
+     *
+     * @param node the node.
+     * @return the number of times the field was seen in the objects merged into its parent.
+     */
+    int getOccurrences(int node){
+        return occurrences[node];
+    }
+
+    /**
+     * Nulls getter.
+     *
+     * @param node the node.
+     * @return the number of times the field was null in the objects merged into its parent.
+     */
+    int getNulls(int node){
+        return nulls[node];
+    }
+
+    /**
+     * Types getter.
+     *
+     * @param node the node.
+     * @return the bit set of the json types the field was seen with, indexed by ordinal.
+     */
+    int getTypes(int node){
+        return typeSets[node] & 0xFF;
+    }
+
+    /**
+     * Samples getter.
+     *
+     * @param node the node.
+     * @return the number of objects merged into the node's children.
+     */
+    int getSamples(int node){
+        return samples[node];
+    }
+
+    /**
+     * Tells whether the children of a node were parsed.
+     *
+     * @param node the node.
+     * @return true if they were, false otherwise.
+     */
+    boolean isParsedObject(int node){
+        return firstChildren[node] != UNPARSED;
+    }
+
+    /**
+     * Tells whether the root of the document was parsed.
+     *
+     * @return true if it was, false otherwise.
+     */
+    boolean isParsedObject(){
+        return isParsedObject(ROOT);
+    }
+
+    /**
+     * First child getter.
+     *
+     * @param node the node.
+     * @return the first child of the node, or -1 if it has none or they weren't parsed.
+     */
+    int getFirstChild(int node){
+        return firstChildren[node] < 0 ? -1 : firstChildren[node];
+    }
+
+    /**
+     * Next sibling getter.
+     *
+     * @param node the node.
+     * @return the child of the same parent found after the node, or -1 if it is the last one.
+     */
+    int getNextSibling(int node){
+        return nextSiblings[node];
+    }
+
+    /**
+     * Counts the children of a node.
+     *
+     * @param node the node.
+     * @return the number of children, or -1 if they weren't parsed.
+     */
+    int getChildCount(int node){
+        if (!isParsedObject(node)){
+            return -1;
+        }
+        int count = 0;
+        for (int child = getFirstChild(node); child != -1; child = nextSiblings[child]){
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the nodes under every node, the node itself included. Placeholders that were removed
+     * count as nothing.
+     *
+     * @return the size of the subtree of every node, indexed by node.
+     */
+    @NotNull int[] getSubtreeSizes(){
+        int[] sizes = new int[size];
+        for (int node = size - 1; node >= ROOT; node--){
+            sizes[node]++;
+            if (parents[node] != NONE){
+                sizes[parents[node]] += sizes[node];
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Tells whether the children of a node are the placeholder created for empty arrays.
+     *
+     * @param node the node to be checked.
+     * @return true if they are, false otherwise.
+     */
+    private boolean isEmptyArrayShape(int node){
+        int child = firstChildren[node];
+        return child >= 0 && child == lastChildren[node] && names[child] == Symbols.EMPTY
+                && kinds[child] == JsonType.NONE.ordinal();
+    }
+
+    /**
+     * Leaves a node with an empty list of children, removing the placeholder of empty arrays if
+     * it had one.
+     *
+     * @param node the node.
+     */
+    private void resetChildren(int node){
+        for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]){
+            parents[child] = NONE;
+        }
+        firstChildren[node] = NONE;
+        lastChildren[node] = NONE;
+    }
+
+    /**
+     * Doubles the capacity of the arena.
+     */
+    private void grow(){
+        int capacity = kinds.length*2;
+        kinds = Arrays.copyOf(kinds, capacity);
+        typeSets = Arrays.copyOf(typeSets, capacity);
+        names = Arrays.copyOf(names, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        lastChildren = Arrays.copyOf(lastChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        occurrences = Arrays.copyOf(occurrences, capacity);
+        nulls = Arrays.copyOf(nulls, capacity);
+        samples = Arrays.copyOf(samples, capacity);
+    }
+
+    /**
+     * Rebuilds the index with the given capacity, leaving removed nodes out.
+     *
+     * @param capacity the number of slots, a power of two.
+     */
+    private void rehash(int capacity){
+        index = new int[capacity];
+        Arrays.fill(index, -1);
+        indexed = 0;
+        for (int node = ROOT + 1; node < size; node++){
+            if (parents[node] != NONE){
+                insert(node);
+            }
+        }
+    }
+
+    /**
+     * Adds a node to the index.
+     *
+     * @param node the node.
+     */
+    private void insert(int node){
+        int mask = index.length - 1;
+        int slot = slotOf(parents[node], names[node]) & mask;
+        while (index[slot] != -1){
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = node;
+        indexed++;
+    }
+
+    /**
+     * Spreads a parent and a symbol into the hash of an index slot.
+     *
+     * @param parent the parent.
+     * @param name the symbol.
+     * @return the hash.
+     */
+    private static int slotOf(int parent, int name){
+        int hash = (parent*31 + name)*0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder result = new StringBuilder();
+        append(result, ROOT, "");
+        return result.toString();
+    }
+
+    /**
+     * String generation method with spacing to make hierarchy clear when printing.
+     *
+     * @param result the builder to append the hierarchy to.
+     * @param node the root of the hierarchy.
+     * @param spacing the spacing to be included before field names.
+     */
+    private void append(@NotNull StringBuilder result, int node, @NotNull String spacing){
+        result.append("\n").append(spacing).append(getType(node)).append(" ").append(getName(node));
+        for (int child = getFirstChild(node); child != -1; child = nextSiblings[child]){
+            append(result, child, spacing + "  ");
+        }
+    }
+}
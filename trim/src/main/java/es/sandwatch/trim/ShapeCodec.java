@@ -0,0 +1,99 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+
+/**
+ * Compact binary encoding of response shapes, used to persist them.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class ShapeCodec{
+    private static final int MAGIC = 0x5452494D;
+    private static final int VERSION = 2;
+
+    private static final JsonType[] TYPES = JsonType.values();
+
+
+    /**
+     * Writes a shape.
+     *
+     * @param shape the shape.
+     * @param out the destination.
+     * @throws IOException if the destination can't be written.
+     */
+    static void write(@NotNull Shape shape, @NotNull DataOutputStream out) throws IOException{
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeNode(shape, Shape.ROOT, out);
+    }
+
+    /**
+     * Reads a shape written by {@link #write(Shape, DataOutputStream)}.
+     *
+     * @param in the source.
+     * @return the shape.
+     * @throws IOException if the source can't be read or wasn't written by this codec.
+     */
+    static @NotNull Shape read(@NotNull DataInputStream in) throws IOException{
+        if (in.readInt() != MAGIC || in.readInt() != VERSION){
+            throw new IOException("Not a shape or written by an incompatible version");
+        }
+        Shape shape = new Shape();
+        readNode(shape, -1, in);
+        return shape;
+    }
+
+    /**
+     * Writes a node and its children.
+     *
+     * @param shape the shape the node belongs to.
+     * @param node the node.
+     * @param out the destination.
+     * @throws IOException if the destination can't be written.
+     */
+    private static void writeNode(@NotNull Shape shape, int node, @NotNull DataOutputStream out) throws IOException{
+        out.writeByte(shape.getType(node).ordinal());
+        out.writeUTF(shape.getName(node));
+        out.writeInt(shape.getOccurrences(node));
+        out.writeInt(shape.getNulls(node));
+        out.writeInt(shape.getTypes(node));
+        out.writeInt(shape.getSamples(node));
+        out.writeInt(shape.getChildCount(node));
+        for (int child = shape.getFirstChild(node); child != -1; child = shape.getNextSibling(child)){
+            writeNode(shape, child, out);
+        }
+    }
+
+    /**
+     * Reads a node and its children.
+     *
+     * @param shape the shape being read.
+     * @param parent the parent of the node, or -1 if it is the root.
+     * @param in the source.
+     * @throws IOException if the source can't be read.
+     */
+    private static void readNode(@NotNull Shape shape, int parent, @NotNull DataInputStream in) throws IOException{
+        int type = in.readUnsignedByte();
+        if (type >= TYPES.length){
+            throw new IOException("Unknown json type " + type);
+        }
+        String name = in.readUTF();
+        int occurrences = in.readInt();
+        int nulls = in.readInt();
+        int types = in.readInt();
+        int samples = in.readInt();
+        int childCount = in.readInt();
+
+        int node = parent == -1 ? Shape.ROOT : shape.addChild(parent, shape.symbolOf(name));
+        shape.restore(node, TYPES[type], occurrences, nulls, types, samples, childCount >= 0);
+        for (int i = 0; i < childCount; i++){
+            readNode(shape, node, in);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Persisted state of the last run, used by incremental runs. For every model, the snapshot keeps
+ * the structural hash of its endpoint's response shape, the structural hash of its schema and the
+ * encoded attribute reports created from both. Reports are only decoded when they are reused, so
+ * the cost of a run that changes nothing is one hash comparison per endpoint.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class Snapshot{
+    private static final int MAGIC = 0x54524953;
+    private static final int VERSION = 2;
+
+
+    /**
+     * Loads a snapshot. Snapshots taken with a different application version are discarded, since
+     * the reports depend on it.
+     *
+     * @param file the file holding the snapshot, which may not exist yet.
+     * @param appVersion the current version of the application.
+     * @return the snapshot, empty if the file doesn't exist or can't be read.
+     */
+    static @NotNull Snapshot load(@NotNull File file, int appVersion){
+        Snapshot snapshot = new Snapshot(file, appVersion);
+        if (file.exists()){
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+                if (in.readInt() != MAGIC || in.readInt() != VERSION){
+                    throw new IOException("Not a snapshot or written by an incompatible version");
+                }
+                if (in.readInt() == appVersion){
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++){
+                        String model = in.readUTF();
+                        long shapeHash = in.readLong();
+                        long schemaHash = in.readLong();
+                        byte[] report = new byte[in.readInt()];
+                        in.readFully(report);
+                        snapshot.entries.put(model, new Entry(shapeHash, schemaHash, report));
+                    }
+                }
+            }
+            catch (IOException iox){
+                //Start over rather than trusting a partial snapshot
+                iox.printStackTrace();
+                snapshot.entries.clear();
+            }
+        }
+        return snapshot;
+    }
+
+
+    private final File file;
+    private final int appVersion;
+    private final ConcurrentMap<String, Entry> entries;
+
+
+    /**
+     * Constructor.
+     *
+     * @param file the file holding the snapshot.
+     * @param appVersion the current version of the application.
+     */
+    private Snapshot(@NotNull File file, int appVersion){
+        this.file = file;
+        this.appVersion = appVersion;
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Gets the report created in the last run for a model, provided nothing changed since.
+     *
+     * @param model the model.
+     * @param shapeHash the structural hash of the shape of the current response.
+     * @param schemaHash the structural hash of the current schema of the model.
+     * @return the previous report, or null if the model is new, either hash changed or the report
+     *         can't be decoded.
+     */
+    @Nullable Report.ObjectReport getReport(@NotNull Class<?> model, long shapeHash, long schemaHash){
+        Entry entry = entries.get(model.getName());
+        if (entry == null || entry.shapeHash != shapeHash || entry.schemaHash != schemaHash){
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry.report))){
+            Report.AttributeReport report = Report.AttributeReport.read(in);
+            return report instanceof Report.ObjectReport ? (Report.ObjectReport)report : null;
+        }
+        catch (IOException | RuntimeException x){
+            return null;
+        }
+    }
+
+    /**
+     * Records the report created in this run for a model.
+     *
+     * @param model the model.
+     * @param shapeHash the structural hash of the shape of the response.
+     * @param schemaHash the structural hash of the schema of the model.
+     * @param report the report.
+     */
+    void putReport(@NotNull Class<?> model, long shapeHash, long schemaHash, @NotNull Report.ObjectReport report){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)){
+            report.write(out);
+        }
+        catch (IOException iox){
+            //Can't happen when writing to memory
+            throw new IllegalStateException(iox);
+        }
+        entries.put(model.getName(), new Entry(shapeHash, schemaHash, bytes.toByteArray()));
+    }
+
+    /**
+     * Writes the snapshot to its file. The file is replaced atomically, so a run that dies halfway
+     * leaves the previous snapshot intact. Entries of models that weren't part of this run are kept.
+     */
+    void save(){
+        Path target = file.getAbsoluteFile().toPath();
+        try{
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))){
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(appVersion);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> entry:entries.entrySet()){
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().shapeHash);
+                    out.writeLong(entry.getValue().schemaHash);
+                    out.writeInt(entry.getValue().report.length);
+                    out.write(entry.getValue().report);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException iox){
+            iox.printStackTrace();
+        }
+    }
+
+
+    /**
+     * The state of a single model.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class Entry{
+        private final long shapeHash;
+        private final long schemaHash;
+        private final byte[] report;
+
+
+        /**
+         * Constructor.
+         *
+         * @param shapeHash the structural hash of the shape of the response.
+         * @param schemaHash the structural hash of the schema of the model.
+         * @param report the encoded report.
+         */
+        private Entry(long shapeHash, long schemaHash, @NotNull byte[] report){
+            this.shapeHash = shapeHash;
+            this.schemaHash = schemaHash;
+            this.report = report;
+        }
+    }
+}
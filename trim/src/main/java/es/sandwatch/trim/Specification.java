@@ -1,7 +1,14 @@
 package es.sandwatch.trim;
 
+import es.sandwatch.trim.annotation.ArraySampling;
+import es.sandwatch.trim.annotation.Endpoint;
+import es.sandwatch.trim.annotation.Paginated;
+import es.sandwatch.trim.annotation.Parameters;
+import es.sandwatch.trim.annotation.Samples;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -21,15 +28,140 @@ public class Specification{
     private int appVersion;
 
     /**
-     * The list of models to be inspected.
+     * The list of models to be inspected. Models added from the index are null until the
+     * specification is locked, when they are loaded.
      */
     private List<Class<?>> models;
 
+    /**
+     * The binary names of the models added from the index, by position in the list of models, and
+     * the class loader they were indexed in.
+     */
+    private Map<Integer, String> indexedModels;
+    private ClassLoader indexLoader;
+
     /**
      * The headers that apply to all endpoints in the API.
      */
     private Map<String, String> headers;
 
+    /**
+     * The maximum number of endpoints to be fetched and analyzed at the same time.
+     */
+    private int maxConcurrency;
+
+    /**
+     * The number of threads parsing responses and building reports when running concurrently.
+     */
+    private int parseThreads;
+    private int analyzeThreads;
+
+    /**
+     * The sampler used to inspect arrays in models without an ArraySampling annotation.
+     */
+    private ArraySampler arraySampler;
+
+    /**
+     * The pagination followed in models without a Paginated annotation, or null if it isn't.
+     */
+    private Pagination pagination;
+
+    /**
+     * The number of times endpoints of models without a Samples annotation are hit.
+     */
+    private int samples;
+
+    /**
+     * Connection pool limits. 0 means they follow the maximum concurrency.
+     */
+    private int maxConnections;
+    private int maxConnectionsPerHost;
+
+    /**
+     * Transport timeouts in milliseconds; 0 means no timeout.
+     */
+    private int connectTimeout;
+    private int readTimeout;
+    private int poolTimeout;
+
+    /**
+     * How long idle connections are kept alive when the server doesn't say, in milliseconds.
+     */
+    private int keepAlive;
+
+    /**
+     * The maximum number of requests per second to a single host, 0 meaning no limit, and how many
+     * can be sent at once after a host has been idle.
+     */
+    private double rateLimit;
+    private int rateBurst;
+
+    /**
+     * The number of times requests throttled with a 429 or a 503 are retried.
+     */
+    private int maxRetries;
+
+    /**
+     * The number of bytes of array items parsed by every fork join subtask, which responses
+     * must exceed to be split at all, and the number of nodes a part of a response's shape must
+     * have for its report to be built by a subtask. 0 means never.
+     */
+    private int parallelParseSize;
+    private int parallelReportSize;
+
+    /**
+     * Whether compressed responses are requested.
+     */
+    private boolean compression;
+
+    /**
+     * Response bodies above this size are written to disk, in bytes.
+     */
+    private long spillThreshold;
+
+    /**
+     * The directory where response bodies are spilled, or null to use the default temporary directory.
+     */
+    private File spillDirectory;
+
+    /**
+     * Responses are cut short past this size, in bytes.
+     */
+    private long maxResponseSize;
+
+    /**
+     * The directory of the on disk response cache, or null if responses aren't cached, and its size limit in bytes.
+     */
+    private File responseCacheDirectory;
+    private long responseCacheSize;
+
+    /**
+     * The file holding the snapshot of the last run, or null if runs aren't incremental.
+     */
+    private File snapshotFile;
+
+    /**
+     * The directory or HAR archive holding recorded responses, or null if endpoints are hit.
+     */
+    private File recording;
+
+    /**
+     * The source of responses set by the caller, or null if endpoints are hit or replayed.
+     */
+    private ResponseSource responseSource;
+
+    /**
+     * The names of the fields holding the endpoint and the response in every record of a traffic log.
+     */
+    private String logEndpointField;
+    private String logResponseField;
+
+    /**
+     * The registry receiving the metrics of runs, and the listener of their events or null if there's none.
+     */
+    private MetricsRegistry metricsRegistry;
+    private Trim.EventListener eventListener;
+
     /**
      * Control flag. Indicates whether the user has run this specification, if so, prevents him from modifying it.
      */
@@ -42,7 +174,39 @@ public class Specification{
     public Specification(){
         appVersion = -1;
         models = new ArrayList<>();
+        indexedModels = new HashMap<>();
+        indexLoader = null;
         headers = new HashMap<>();
+        maxConcurrency = 1;
+        parseThreads = Runtime.getRuntime().availableProcessors();
+        analyzeThreads = Math.max(1, parseThreads/2);
+        arraySampler = ArraySampler.ALL;
+        pagination = null;
+        samples = 1;
+        maxConnections = 0;
+        maxConnectionsPerHost = 0;
+        connectTimeout = 10000;
+        readTimeout = 60000;
+        poolTimeout = 60000;
+        keepAlive = 30000;
+        rateLimit = 0;
+        rateBurst = 1;
+        maxRetries = 3;
+        parallelParseSize = 4*1024*1024;
+        parallelReportSize = 16*1024;
+        compression = true;
+        spillThreshold = 8*1024*1024;
+        spillDirectory = null;
+        maxResponseSize = Long.MAX_VALUE;
+        responseCacheDirectory = null;
+        responseCacheSize = 0;
+        snapshotFile = null;
+        recording = null;
+        responseSource = null;
+        logEndpointField = "endpoint";
+        logResponseField = "response";
+        metricsRegistry = MetricsRegistry.NONE;
+        eventListener = null;
         locked = false;
     }
 
@@ -69,6 +233,42 @@ public class Specification{
         return this;
     }
 
+    /**
+     * Adds every model in the index generated at build time by the Trim annotation processor, in
+     * every jar and class directory visible to the context class loader. Models are found without
+     * scanning the class path and aren't loaded until the specification is run.
+     *
+     * @return this object.
+     * @throws java.io.UncheckedIOException if the index can't be read.
+     */
+    public Specification addAllIndexedModels(){
+        return addAllIndexedModels("");
+    }
+
+    /**
+     * Adds every model in the index generated at build time by the Trim annotation processor that
+     * belongs to a package or any of its subpackages. Models are found without scanning the class
+     * path and aren't loaded until the specification is run.
+     *
+     * @param packageName the name of the package, empty for every model.
+     * @return this object.
+     * @throws java.io.UncheckedIOException if the index can't be read.
+     */
+    public Specification addAllIndexedModels(@NotNull String packageName){
+        if (!locked){
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if (loader == null){
+                loader = Specification.class.getClassLoader();
+            }
+            for (String model:ModelIndex.read(loader, packageName)){
+                indexedModels.put(models.size(), model);
+                models.add(null);
+            }
+            indexLoader = loader;
+        }
+        return this;
+    }
+
     /**
      * Adds a header to this specification.
      *
@@ -84,9 +284,378 @@ public class Specification{
     }
 
     /**
-     * Locks the specification.
+     * Sets the maximum number of endpoints to be fetched at the same time. A value of 1, the
+     * default, analyzes endpoints one after the other in the calling thread, unless the run is
+     * asynchronous.
+     *
+     * @param maxConcurrency the maximum number of endpoints to be analyzed concurrently.
+     * @return this object.
+     */
+    public Specification setMaxConcurrency(int maxConcurrency){
+        if (maxConcurrency < 1){
+            throw new IllegalArgumentException("maxConcurrency must be at least 1, got " + maxConcurrency);
+        }
+        if (!locked){
+            this.maxConcurrency = maxConcurrency;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the number of threads in the parse and analyze stages, used when running concurrently or
+     * asynchronously. By default, there's one parse thread per processor and half as many analyze threads.
+     *
+     * @param parseThreads the number of threads parsing responses.
+     * @param analyzeThreads the number of threads building endpoint reports.
+     * @return this object.
+     */
+    public Specification setStageThreads(int parseThreads, int analyzeThreads){
+        if (parseThreads < 1 || analyzeThreads < 1){
+            throw new IllegalArgumentException("Stages need at least 1 thread");
+        }
+        if (!locked){
+            this.parseThreads = parseThreads;
+            this.analyzeThreads = analyzeThreads;
+        }
+        return this;
+    }
+
+    /**
+     * Sets how array items are inspected for models without an ArraySampling annotation. By default,
+     * every item of every array is inspected.
+     *
+     * @param strategy the sampling strategy.
+     * @param size the number of items to inspect per array, ignored by ALL.
+     * @return this object.
+     */
+    public Specification setArraySampling(@NotNull ArraySampling.Strategy strategy, int size){
+        ArraySampler arraySampler = ArraySampler.create(strategy, size);
+        if (!locked){
+            this.arraySampler = arraySampler;
+        }
+        return this;
+    }
+
+    /**
+     * Makes Trim follow next page links in models without a Paginated annotation. The shapes of all
+     * the pages of an endpoint, up to the cap, are merged before the model is compared against them.
+     * By default, only the first page is analyzed.
+     *
+     * @param next the name of the field in the root of every page holding the link to the next page.
+     * @param maxPages the maximum number of pages fetched per endpoint.
+     * @return this object.
+     */
+    public Specification setPagination(@NotNull String next, int maxPages){
+        Pagination pagination = new Pagination(next, null, null, maxPages);
+        if (!locked){
+            this.pagination = pagination;
+        }
+        return this;
+    }
+
+    /**
+     * Sets how many times the endpoints of models without a Samples annotation are hit. The shapes
+     * of all the responses are merged, so attributes are reported with how often they are present
+     * and null. By default, endpoints are hit once.
+     *
+     * @param samples the number of times every endpoint is hit.
+     * @return this object.
+     */
+    public Specification setSamples(int samples){
+        if (samples < 1){
+            throw new IllegalArgumentException("samples must be at least 1, got " + samples);
+        }
+        if (!locked){
+            this.samples = samples;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the limits of the HTTP connection pool. By default, both follow the maximum concurrency.
+     *
+     * @param maxConnections the maximum number of connections open at the same time.
+     * @param maxConnectionsPerHost the maximum number of connections to a single host open at the same time.
+     * @return this object.
+     */
+    public Specification setConnectionLimits(int maxConnections, int maxConnectionsPerHost){
+        if (maxConnections < 1 || maxConnectionsPerHost < 1){
+            throw new IllegalArgumentException("Connection limits must be at least 1");
+        }
+        if (!locked){
+            this.maxConnections = maxConnections;
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the HTTP transport timeouts. 0 means no timeout.
+     *
+     * @param connectTimeout the time to wait for a connection to be established, in milliseconds.
+     * @param readTimeout the maximum time to wait for data once connected, in milliseconds.
+     * @param poolTimeout the time to wait for a free connection in the pool, in milliseconds.
+     * @return this object.
+     */
+    public Specification setTimeouts(int connectTimeout, int readTimeout, int poolTimeout){
+        if (connectTimeout < 0 || readTimeout < 0 || poolTimeout < 0){
+            throw new IllegalArgumentException("Timeouts can't be negative");
+        }
+        if (!locked){
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+            this.poolTimeout = poolTimeout;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the rate limit of requests to every host. Hosts aren't rate limited by default, but the
+     * number of concurrent requests to a host always adapts to the host: it halves when the host
+     * throttles requests and slowly grows back up to the maximum number of connections per host.
+     *
+     * @param requestsPerSecond the maximum number of requests per second to a single host.
+     * @param burst the number of requests to a host that can be sent at once after it has been idle.
+     * @return this object.
+     */
+    public Specification setRateLimit(double requestsPerSecond, int burst){
+        if (!(requestsPerSecond > 0) || burst < 1){
+            throw new IllegalArgumentException("The rate must be positive and the burst at least 1");
+        }
+        if (!locked){
+            this.rateLimit = requestsPerSecond;
+            this.rateBurst = burst;
+        }
+        return this;
+    }
+
+    /**
+     * Sets how many times a request is retried when the host throttles it with a 429 or a 503.
+     * Retries wait for as long as the Retry-After header says, or for a random, exponentially
+     * growing time if there's none. The default is 3.
+     *
+     * @param maxRetries the number of retries, 0 to never retry.
+     * @return this object.
+     */
+    public Specification setMaxRetries(int maxRetries){
+        if (maxRetries < 0){
+            throw new IllegalArgumentException("maxRetries can't be negative, got " + maxRetries);
+        }
+        if (!locked){
+            this.maxRetries = maxRetries;
+        }
+        return this;
+    }
+
+    /**
+     * Sets when large responses are parsed and analyzed by fork join subtasks rather than by a
+     * single thread. The arrays of responses larger than the parse threshold are split into batches
+     * of items of about that size, parsed concurrently and merged; the attributes of a response
+     * whose shape has at least as many nodes as the report threshold are compared against the model
+     * concurrently. Defaults to 4 MiB and 16 Ki nodes.
+     *
+     * @param parseSize the number of bytes of array items parsed by every subtask, 0 to never split.
+     * @param reportSize the number of nodes a part of a shape needs to be analyzed by a subtask, 0 to never split.
+     * @return this object.
+     */
+    public Specification setParallelThresholds(int parseSize, int reportSize){
+        if (parseSize < 0 || reportSize < 0){
+            throw new IllegalArgumentException("Thresholds can't be negative, got " + parseSize + " and " + reportSize);
+        }
+        if (!locked){
+            this.parallelParseSize = parseSize;
+            this.parallelReportSize = reportSize;
+        }
+        return this;
+    }
+
+    /**
+     * Sets for how long idle connections are kept for reuse when the server doesn't specify it.
+     *
+     * @param keepAlive the keep alive time, in milliseconds.
+     * @return this object.
+     */
+    public Specification setKeepAlive(int keepAlive){
+        if (keepAlive < 1){
+            throw new IllegalArgumentException("keepAlive must be at least 1, got " + keepAlive);
+        }
+        if (!locked){
+            this.keepAlive = keepAlive;
+        }
+        return this;
+    }
+
+    /**
+     * Sets whether gzip and deflate compressed responses are requested. Enabled by default.
+     *
+     * @param compression true to request compressed responses, false otherwise.
+     * @return this object.
+     */
+    public Specification setCompression(boolean compression){
+        if (!locked){
+            this.compression = compression;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the size above which response bodies are written to a temporary file and analyzed
+     * through a memory mapped buffer rather than kept in memory. Defaults to 8 MiB.
+     *
+     * @param spillThreshold the threshold, in bytes.
+     * @param spillDirectory the directory for the temporary files, or null to use the system's default.
+     * @return this object.
+     */
+    public Specification setSpillThreshold(long spillThreshold, @Nullable File spillDirectory){
+        if (spillThreshold < 0){
+            throw new IllegalArgumentException("spillThreshold can't be negative, got " + spillThreshold);
+        }
+        if (!locked){
+            this.spillThreshold = spillThreshold;
+            this.spillDirectory = spillDirectory;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the maximum size of a response. Responses going past it are cut short and reported as
+     * truncated instead of being analyzed. There's no limit by default.
+     *
+     * @param maxResponseSize the maximum size of a response, in bytes.
+     * @return this object.
+     */
+    public Specification setMaxResponseSize(long maxResponseSize){
+        if (maxResponseSize < 1){
+            throw new IllegalArgumentException("maxResponseSize must be at least 1, got " + maxResponseSize);
+        }
+        if (!locked){
+            this.maxResponseSize = maxResponseSize;
+        }
+        return this;
+    }
+
+    /**
+     * Enables the on disk response cache. Responses carrying an ETag or a Last-Modified header are
+     * stored along with the shape parsed from them, and revalidated in later runs; when the server
+     * says they haven't changed, neither the body is downloaded nor the shape parsed again. The
+     * least recently used responses are evicted once the cache goes over its maximum size.
+     *
+     * @param directory the directory holding the cache, which can be shared between runs.
+     * @param maxSize the maximum size of the cache, in bytes.
+     * @return this object.
+     */
+    public Specification setResponseCache(@NotNull File directory, long maxSize){
+        if (maxSize < 1){
+            throw new IllegalArgumentException("maxSize must be at least 1, got " + maxSize);
+        }
+        if (!locked){
+            this.responseCacheDirectory = directory;
+            this.responseCacheSize = maxSize;
+        }
+        return this;
+    }
+
+    /**
+     * Makes runs incremental. The shape of every endpoint's response and the schema of every model
+     * are recorded in the given file along with their reports; later runs reuse the reports of
+     * endpoints where neither changed, and the report only lists the endpoints that did.
+     *
+     * @param snapshotFile the file holding the snapshot of the last run, created if it doesn't exist.
+     * @return this object.
+     */
+    public Specification setIncremental(@NotNull File snapshotFile){
+        if (!locked){
+            this.snapshotFile = snapshotFile;
+        }
+        return this;
+    }
+
+    /**
+     * Replays recorded responses instead of hitting the endpoints. The recording is either a HAR
+     * archive or a directory with a file per address, named after the address without its scheme
+     * with every character other than letters, digits, dots, dashes and underscores replaced by an
+     * underscore, plus a .json extension. Addresses missing from the recording get a 404.
+     *
+     * @param recording a directory or a file with a .har extension.
+     * @return this object.
+     */
+    public Specification setRecording(@NotNull File recording){
+        if (!locked){
+            this.recording = recording;
+        }
+        return this;
+    }
+
+    /**
+     * Gets responses from the given source instead of hitting the endpoints or replaying a
+     * recording. The source belongs to the caller, so runs don't close it.
+     *
+     * @param responseSource the source, shared by every thread of a run.
+     * @return this object.
+     */
+    public Specification setResponseSource(@NotNull ResponseSource responseSource){
+        if (!locked){
+            this.responseSource = responseSource;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the names of the fields holding the endpoint and the response in every record of the
+     * traffic logs passed to {@link Trim#analyzeLog(Specification, File)}. Default to "endpoint"
+     * and "response".
+     *
+     * @param endpointField the name of the field holding the endpoint, a string.
+     * @param responseField the name of the field holding the response, an object.
+     * @return this object.
+     */
+    public Specification setTrafficLogFields(@NotNull String endpointField, @NotNull String responseField){
+        if (!locked){
+            this.logEndpointField = endpointField;
+            this.logResponseField = responseField;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the registry receiving the metrics of runs, such as a {@link JmxMetricsRegistry}.
+     * Metrics are discarded by default.
+     *
+     * @param metricsRegistry the registry.
+     * @return this object.
+     */
+    public Specification setMetricsRegistry(@NotNull MetricsRegistry metricsRegistry){
+        if (!locked){
+            this.metricsRegistry = metricsRegistry;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the listener of the events of runs, such as requests being sent and responses being
+     * received and parsed. There's none by default.
+     *
+     * @param eventListener the listener.
+     * @return this object.
+     */
+    public Specification setEventListener(@NotNull Trim.EventListener eventListener){
+        if (!locked){
+            this.eventListener = eventListener;
+        }
+        return this;
+    }
+
+    /**
+     * Locks the specification and loads the models added from the index.
+     *
+     * @throws IllegalStateException if an indexed model can't be found.
      */
     void lock(){
+        if (!locked){
+            for (Map.Entry<Integer, String> entry:indexedModels.entrySet()){
+                models.set(entry.getKey(), ModelIndex.load(indexLoader, entry.getValue()));
+            }
+        }
         locked = true;
     }
 
@@ -116,4 +685,316 @@ public class Specification{
     @NotNull Map<String, String> getHeaders(){
         return headers;
     }
+
+    /**
+     * Max concurrency getter.
+     *
+     * @return the maximum number of endpoints to be analyzed at the same time.
+     */
+    int getMaxConcurrency(){
+        return maxConcurrency;
+    }
+
+    /**
+     * Parse threads getter.
+     *
+     * @return the number of threads parsing responses.
+     */
+    int getParseThreads(){
+        return parseThreads;
+    }
+
+    /**
+     * Analyze threads getter.
+     *
+     * @return the number of threads building endpoint reports.
+     */
+    int getAnalyzeThreads(){
+        return analyzeThreads;
+    }
+
+    /**
+     * Max connections getter.
+     *
+     * @return the maximum number of connections open at the same time.
+     */
+    int getMaxConnections(){
+        return maxConnections == 0 ? Math.max(maxConcurrency, getMaxConnectionsPerHost()) : maxConnections;
+    }
+
+    /**
+     * Max connections per host getter.
+     *
+     * @return the maximum number of connections to a single host open at the same time.
+     */
+    int getMaxConnectionsPerHost(){
+        return maxConnectionsPerHost == 0 ? maxConcurrency : maxConnectionsPerHost;
+    }
+
+    /**
+     * Connect timeout getter.
+     *
+     * @return the connect timeout, in milliseconds.
+     */
+    int getConnectTimeout(){
+        return connectTimeout;
+    }
+
+    /**
+     * Read timeout getter.
+     *
+     * @return the read timeout, in milliseconds.
+     */
+    int getReadTimeout(){
+        return readTimeout;
+    }
+
+    /**
+     * Pool timeout getter.
+     *
+     * @return the time to wait for a free pooled connection, in milliseconds.
+     */
+    int getPoolTimeout(){
+        return poolTimeout;
+    }
+
+    /**
+     * Keep alive getter.
+     *
+     * @return the default keep alive time, in milliseconds.
+     */
+    int getKeepAlive(){
+        return keepAlive;
+    }
+
+    /**
+     * Rate limit getter.
+     *
+     * @return the maximum number of requests per second to a single host, or 0 if there's no limit.
+     */
+    double getRateLimit(){
+        return rateLimit;
+    }
+
+    /**
+     * Rate burst getter.
+     *
+     * @return the number of requests to a host that can be sent at once after it has been idle.
+     */
+    int getRateBurst(){
+        return rateBurst;
+    }
+
+    /**
+     * Max retries getter.
+     *
+     * @return the number of times throttled requests are retried.
+     */
+    int getMaxRetries(){
+        return maxRetries;
+    }
+
+    /**
+     * Parallel parse size getter.
+     *
+     * @return the number of bytes of array items parsed by every subtask, 0 if arrays aren't split.
+     */
+    int getParallelParseSize(){
+        return parallelParseSize;
+    }
+
+    /**
+     * Parallel report size getter.
+     *
+     * @return the number of nodes a part of a shape needs to be analyzed by a subtask, 0 if reports aren't split.
+     */
+    int getParallelReportSize(){
+        return parallelReportSize;
+    }
+
+    /**
+     * Tells whether compressed responses are requested.
+     *
+     * @return true if they are, false otherwise.
+     */
+    boolean isCompressionEnabled(){
+        return compression;
+    }
+
+    /**
+     * Spill threshold getter.
+     *
+     * @return the size above which response bodies are written to disk, in bytes.
+     */
+    long getSpillThreshold(){
+        return spillThreshold;
+    }
+
+    /**
+     * Spill directory getter.
+     *
+     * @return the directory for spilled bodies, or null to use the system's default.
+     */
+    @Nullable File getSpillDirectory(){
+        return spillDirectory;
+    }
+
+    /**
+     * Max response size getter.
+     *
+     * @return the maximum size of a response, in bytes.
+     */
+    long getMaxResponseSize(){
+        return maxResponseSize;
+    }
+
+    /**
+     * Response cache directory getter.
+     *
+     * @return the directory of the response cache, or null if responses aren't cached.
+     */
+    @Nullable File getResponseCacheDirectory(){
+        return responseCacheDirectory;
+    }
+
+    /**
+     * Response cache size getter.
+     *
+     * @return the maximum size of the response cache, in bytes.
+     */
+    long getResponseCacheSize(){
+        return responseCacheSize;
+    }
+
+    /**
+     * Snapshot file getter.
+     *
+     * @return the file holding the snapshot of the last run, or null if runs aren't incremental.
+     */
+    @Nullable File getSnapshotFile(){
+        return snapshotFile;
+    }
+
+    /**
+     * Recording getter.
+     *
+     * @return the directory or HAR archive holding recorded responses, or null if endpoints are hit.
+     */
+    @Nullable File getRecording(){
+        return recording;
+    }
+
+    /**
+     * Response source getter.
+     *
+     * @return the source of responses set by the caller, or null if endpoints are hit or replayed.
+     */
+    @Nullable ResponseSource getResponseSource(){
+        return responseSource;
+    }
+
+    /**
+     * Metrics registry getter.
+     *
+     * @return the registry receiving the metrics of runs.
+     */
+    @NotNull MetricsRegistry getMetricsRegistry(){
+        return metricsRegistry;
+    }
+
+    /**
+     * Event listener getter.
+     *
+     * @return the listener of the events of runs, or null if there's none.
+     */
+    @Nullable Trim.EventListener getEventListener(){
+        return eventListener;
+    }
+
+    /**
+     * Log endpoint field getter.
+     *
+     * @return the name of the field holding the endpoint in every record of a traffic log.
+     */
+    @NotNull String getLogEndpointField(){
+        return logEndpointField;
+    }
+
+    /**
+     * Log response field getter.
+     *
+     * @return the name of the field holding the response in every record of a traffic log.
+     */
+    @NotNull String getLogResponseField(){
+        return logResponseField;
+    }
+
+    /**
+     * Gets the sampler to be used to inspect the arrays in a model's endpoint response.
+     *
+     * @param model the model.
+     * @return the sampler in the model's ArraySampling annotation, or the default one if there's none.
+     */
+    @NotNull ArraySampler getArraySampler(@NotNull Class<?> model){
+        ArraySampling annotation = model.getAnnotation(ArraySampling.class);
+        if (annotation == null){
+            return arraySampler;
+        }
+        return ArraySampler.create(annotation);
+    }
+
+    /**
+     * Gets the addresses to be hit to sample a model's endpoint, either the endpoint itself as many
+     * times as samples are taken or the endpoint with each of the query strings of the model's
+     * Samples annotation. The model's annotation, if any, overrides the specification's default.
+     *
+     * @param model the model.
+     * @return the addresses, one per sample.
+     */
+    @NotNull List<String> getSampleUrls(@NotNull Class<?> model){
+        String endpoint = model.getAnnotation(Endpoint.class).value();
+        Samples annotation = model.getAnnotation(Samples.class);
+        List<String> urls = new ArrayList<>();
+        if (annotation != null && annotation.queries().length > 0){
+            for (String query:annotation.queries()){
+                urls.add(endpoint + (endpoint.contains("?") ? "&" : "?") + query);
+            }
+        }
+        else{
+            int count = annotation == null ? samples : Math.max(1, annotation.value());
+            for (int i = 0; i < count; i++){
+                urls.add(endpoint);
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Gets the template a model's endpoint is expanded from.
+     *
+     * @param model the model.
+     * @return the template, or null if the model's endpoint is a plain address.
+     */
+    @Nullable EndpointTemplate getEndpointTemplate(@NotNull Class<?> model){
+        Parameters annotation = model.getAnnotation(Parameters.class);
+        if (annotation == null){
+            return null;
+        }
+        return EndpointTemplate.create(model.getAnnotation(Endpoint.class).value(), annotation);
+    }
+
+    /**
+     * Gets the pagination to be followed in a model's endpoint. The model's annotation, if any,
+     * overrides the specification's default.
+     *
+     * @param model the model.
+     * @return the pagination, or null if only the first page is to be analyzed.
+     */
+    @Nullable Pagination getPagination(@NotNull Class<?> model){
+        Paginated annotation = model.getAnnotation(Paginated.class);
+        if (annotation == null){
+            return pagination;
+        }
+        return Pagination.create(annotation);
+    }
 }
@@ -0,0 +1,111 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Process wide table of interned field names, shared by response shapes and model schemas so that
+ * names are stored once and compared as integers. Symbols are dense, starting at 0, and are never
+ * released, so they only make sense for names, not for arbitrary values. Names found in responses
+ * are only interned while the table is below a bound, so that APIs keyed by ids can't grow it
+ * forever; past it, shapes keep those names themselves. Symbols aren't stable across runs;
+ * anything persisted uses the names.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+final class Symbols{
+    /**
+     * The number of symbols past which names found in responses are no longer interned.
+     */
+    static final int RESPONSE_LIMIT = 1 << 16;
+
+    private static final ConcurrentMap<String, Integer> symbols = new ConcurrentHashMap<>();
+
+    /**
+     * The name of every symbol, indexed by symbol. Grown under the class lock; a symbol is only
+     * handed out after its name is in place, so readers never see a missing name.
+     */
+    private static volatile String[] names = new String[1024];
+    private static int count = 0;
+
+    /**
+     * The symbol of the empty name, that of the root of shapes and of the items of empty arrays.
+     */
+    static final int EMPTY = intern("");
+
+
+    /**
+     * Gets the symbol of a name, creating it the first time.
+     *
+     * @param name the name.
+     * @return the symbol.
+     */
+    static int intern(@NotNull String name){
+        Integer symbol = symbols.get(name);
+        if (symbol == null){
+            synchronized (Symbols.class){
+                symbol = symbols.get(name);
+                if (symbol == null){
+                    if (count == names.length){
+                        names = Arrays.copyOf(names, count*2);
+                    }
+                    names[count] = name;
+                    symbol = count++;
+                    symbols.put(name, symbol);
+                }
+            }
+        }
+        return symbol;
+    }
+
+    /**
+     * Gets the symbol of a name found in a response, creating it only while the table holds fewer
+     * than {@link #RESPONSE_LIMIT} symbols.
+     *
+     * @param name the name.
+     * @return the symbol, or -1 if the name has none and the table is full.
+     */
+    static int internResponseName(@NotNull String name){
+        Integer symbol = symbols.get(name);
+        if (symbol != null){
+            return symbol;
+        }
+        synchronized (Symbols.class){
+            return count < RESPONSE_LIMIT ? intern(name) : lookup(name);
+        }
+    }
+
+    /**
+     * Gets the symbol of a name without creating it.
+     *
+     * @param name the name.
+     * @return the symbol, or -1 if the name has none.
+     */
+    static int lookup(@NotNull String name){
+        Integer symbol = symbols.get(name);
+        return symbol == null ? -1 : symbol;
+    }
+
+    /**
+     * Gets the name of a symbol.
+     *
+     * @param symbol the symbol.
+     * @return the name.
+     */
+    static @NotNull String name(int symbol){
+        return names[symbol];
+    }
+
+
+    /**
+     * Constructor. Not instantiable.
+     */
+    private Symbols(){
+
+    }
+}
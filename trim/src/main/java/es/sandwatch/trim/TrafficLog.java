@@ -0,0 +1,409 @@
+package es.sandwatch.trim;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+
+/**
+ * Reads a traffic log, a newline delimited JSON file where every line is a record holding a
+ * response and the endpoint it came from, and merges the shapes of the responses of every endpoint.
+ *
+ * The log is memory mapped and split into chunks that end at line boundaries, which are read
+ * concurrently. Every chunk is mapped on its own as it is read and yields the merged shapes of the
+ * endpoints in it, which are merged in turn once the chunk is done, so memory depends on the
+ * number of chunks in flight and the number of distinct fields rather than on the size of the log.
+ * Responses of endpoints no model is interested in are skipped without building anything.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+class TrafficLog{
+    private static final long MIN_CHUNK_SIZE = 1024*1024;
+    private static final long MAX_CHUNK_SIZE = 64*1024*1024;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int SCAN_BUFFER_SIZE = 64*1024;
+
+    /**
+     * The number of endpoint tags whose resolution is remembered per chunk. Tags may carry query
+     * strings, so there can be as many distinct ones as records.
+     */
+    private static final int MAX_RESOLVED_TAGS = 4096;
+
+
+    private final Path file;
+    private final String endpointField;
+    private final String responseField;
+    private final Map<String, ArraySampler> samplers;
+
+
+    /**
+     * Constructor.
+     *
+     * @param file the log.
+     * @param endpointField the name of the field holding the endpoint in every record.
+     * @param responseField the name of the field holding the response in every record.
+     * @param samplers the array sampler of every endpoint of interest.
+     */
+    TrafficLog(@NotNull Path file, @NotNull String endpointField, @NotNull String responseField,
+               @NotNull Map<String, ArraySampler> samplers){
+
+        this.file = file;
+        this.endpointField = endpointField;
+        this.responseField = responseField;
+        this.samplers = samplers;
+    }
+
+    /**
+     * Reads the log.
+     *
+     * @param threads the number of threads reading chunks.
+     * @return the merged shapes of the responses of every endpoint of interest.
+     * @throws IOException if the log can't be read.
+     */
+    @NotNull Summary read(int threads) throws IOException{
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            List<Long> boundaries = split(channel, threads);
+            ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "trim-log");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try{
+                List<Future<Summary>> chunks = new ArrayList<>();
+                for (int i = 1; i < boundaries.size(); i++){
+                    long start = boundaries.get(i-1);
+                    long end = boundaries.get(i);
+                    chunks.add(executor.submit(() -> readChunk(channel, start, end)));
+                }
+
+                //Merge in order, so the result doesn't depend on which chunk finishes first
+                Summary summary = new Summary();
+                for (Future<Summary> chunk:chunks){
+                    summary.merge(chunk.get());
+                }
+                return summary;
+            }
+            catch (InterruptedException ix){
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading " + file, ix);
+            }
+            catch (ExecutionException ex){
+                if (ex.getCause() instanceof IOException){
+                    throw (IOException)ex.getCause();
+                }
+                throw new IOException("Couldn't read " + file, ex.getCause());
+            }
+            finally{
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Splits the log into chunks that start and end at line boundaries.
+     *
+     * @param channel the channel of the log.
+     * @param threads the number of threads reading chunks.
+     * @return the offsets where chunks start, followed by the size of the log.
+     * @throws IOException if the log can't be read.
+     */
+    private @NotNull List<Long> split(@NotNull FileChannel channel, int threads) throws IOException{
+        long size = channel.size();
+        long chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, size/(threads*CHUNKS_PER_THREAD)));
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        long boundary = 0;
+        while (boundary < size){
+            boundary = findLineStart(channel, boundary + chunkSize, size);
+            if (boundary - boundaries.get(boundaries.size()-1) > Integer.MAX_VALUE){
+                throw new IOException("Lines over 2 GiB can't be read in " + file);
+            }
+            boundaries.add(boundary);
+        }
+        return boundaries;
+    }
+
+    /**
+     * Finds the first line that starts at or after an offset.
+     *
+     * @param channel the channel of the log.
+     * @param offset the offset.
+     * @param size the size of the log.
+     * @return the offset where the line starts, or the size of the log if there's no such line.
+     * @throws IOException if the log can't be read.
+     */
+    private static long findLineStart(@NotNull FileChannel channel, long offset, long size) throws IOException{
+        if (offset >= size){
+            return size;
+        }
+        //The line starts right at the offset if the previous byte ends a line
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = offset - 1;
+        while (position < size){
+            ((Buffer)buffer).clear();
+            int read = channel.read(buffer, position);
+            if (read == -1){
+                break;
+            }
+            for (int i = 0; i < read; i++){
+                if (buffer.get(i) == '\n'){
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Reads the records in a chunk of the log.
+     *
+     * @param channel the channel of the log.
+     * @param start the offset where the chunk starts.
+     * @param end the offset where the chunk ends.
+     * @return the merged shapes of the responses in the chunk.
+     * @throws IOException if the chunk can't be read.
+     */
+    private @NotNull Summary readChunk(@NotNull FileChannel channel, long start, long end) throws IOException{
+        MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        ByteBuffer line = bytes.duplicate();
+        JsonShapeReader reader = new JsonShapeReader(new ByteBuffer[]{line}, StandardCharsets.UTF_8,
+                ArraySampler.ALL, 0);
+        Map<String, String> resolved = new HashMap<>();
+        Summary summary = new Summary();
+
+        int limit = bytes.limit();
+        int lineStart = 0;
+        while (lineStart < limit){
+            int lineEnd = lineStart;
+            while (lineEnd < limit && bytes.get(lineEnd) != '\n'){
+                lineEnd++;
+            }
+            //Skip blank lines, including those ending in a carriage return
+            if (lineEnd - lineStart > 1 || (lineEnd - lineStart == 1 && bytes.get(lineStart) != '\r')){
+                //Through Buffer, so that it links against the Java 8 signatures
+                ((Buffer)line).limit(lineEnd);
+                ((Buffer)line).position(lineStart);
+                reader.reset(line);
+                try{
+                    JsonShapeReader.LogRecord record = reader.readLogRecord(endpointField, responseField,
+                            tag -> samplers.get(resolve(tag, resolved)));
+                    if (record == null){
+                        summary.malformed++;
+                    }
+                    else{
+                        String endpoint = resolve(record.getEndpoint(), resolved);
+                        if (endpoint == null || record.getResponse() == null){
+                            summary.unmatched++;
+                        }
+                        else{
+                            summary.add(endpoint, record.getResponse(), lineEnd - lineStart);
+                        }
+                    }
+                }
+                catch (IOException iox){
+                    summary.malformed++;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return summary;
+    }
+
+    /**
+     * Finds the endpoint of interest a record was tagged with. Tags may carry a query string that
+     * the endpoint doesn't have.
+     *
+     * @param tag the endpoint in the record.
+     * @param resolved the endpoints already resolved in the chunk, by tag.
+     * @return the endpoint, or null if no model is interested in it.
+     */
+    private @Nullable String resolve(@NotNull String tag, @NotNull Map<String, String> resolved){
+        if (resolved.containsKey(tag)){
+            return resolved.get(tag);
+        }
+        String endpoint = null;
+        if (samplers.containsKey(tag)){
+            endpoint = tag;
+        }
+        else if (tag.indexOf('?') != -1 && samplers.containsKey(tag.substring(0, tag.indexOf('?')))){
+            endpoint = tag.substring(0, tag.indexOf('?'));
+        }
+        if (resolved.size() < MAX_RESOLVED_TAGS){
+            resolved.put(tag, endpoint);
+        }
+        return endpoint;
+    }
+
+
+    /**
+     * The merged shapes of the responses of every endpoint in the log or in a chunk of it.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    static class Summary{
+        private final Map<String, EndpointTraffic> endpoints;
+        private long unmatched;
+        private long malformed;
+
+
+        /**
+         * Constructor.
+         */
+        private Summary(){
+            this.endpoints = new HashMap<>();
+            this.unmatched = 0;
+            this.malformed = 0;
+        }
+
+        /**
+         * Adds a record.
+         *
+         * @param endpoint the endpoint the response came from.
+         * @param response the shape of the response.
+         * @param bytes the size of the record.
+         */
+        private void add(@NotNull String endpoint, @NotNull Shape response, long bytes){
+            EndpointTraffic traffic = endpoints.get(endpoint);
+            if (traffic == null){
+                endpoints.put(endpoint, new EndpointTraffic(response, 1, bytes));
+            }
+            else{
+                traffic.response.merge(response);
+                traffic.records++;
+                traffic.bytes += bytes;
+            }
+        }
+
+        /**
+         * Merges the summary of a later chunk into this one.
+         *
+         * @param other the summary of the chunk, which shouldn't be used afterwards.
+         */
+        private void merge(@NotNull Summary other){
+            for (Map.Entry<String, EndpointTraffic> entry:other.endpoints.entrySet()){
+                EndpointTraffic traffic = endpoints.get(entry.getKey());
+                if (traffic == null){
+                    endpoints.put(entry.getKey(), entry.getValue());
+                }
+                else{
+                    traffic.response.merge(entry.getValue().response);
+                    traffic.records += entry.getValue().records;
+                    traffic.bytes += entry.getValue().bytes;
+                }
+            }
+            unmatched += other.unmatched;
+            malformed += other.malformed;
+        }
+
+        /**
+         * Gets the traffic of an endpoint.
+         *
+         * @param endpoint the endpoint.
+         * @return the traffic of the endpoint, or null if the log has no records of it.
+         */
+        @Nullable EndpointTraffic getEndpointTraffic(@NotNull String endpoint){
+            return endpoints.get(endpoint);
+        }
+
+        /**
+         * Gets the number of records that were read.
+         *
+         * @return the number of records, including those that were skipped.
+         */
+        long getRecords(){
+            long records = unmatched + malformed;
+            for (EndpointTraffic traffic:endpoints.values()){
+                records += traffic.records;
+            }
+            return records;
+        }
+
+        /**
+         * Unmatched getter.
+         *
+         * @return the number of records of endpoints no model is interested in.
+         */
+        long getUnmatched(){
+            return unmatched;
+        }
+
+        /**
+         * Malformed getter.
+         *
+         * @return the number of records that weren't well formed or lacked the endpoint or the response.
+         */
+        long getMalformed(){
+            return malformed;
+        }
+    }
+
+
+    /**
+     * The merged shape of the responses of an endpoint.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    static class EndpointTraffic{
+        private final Shape response;
+        private int records;
+        private long bytes;
+
+
+        /**
+         * Constructor.
+         *
+         * @param response the shape of the first response.
+         * @param records the number of records.
+         * @param bytes the size of the records.
+         */
+        private EndpointTraffic(@NotNull Shape response, int records, long bytes){
+            this.response = response;
+            this.records = records;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Response getter.
+         *
+         * @return the merged shape of the responses.
+         */
+        @NotNull Shape getResponse(){
+            return response;
+        }
+
+        /**
+         * Records getter.
+         *
+         * @return the number of records.
+         */
+        int getRecords(){
+            return records;
+        }
+
+        /**
+         * Bytes getter.
+         *
+         * @return the size of the records.
+         */
+        long getBytes(){
+            return bytes;
+        }
+    }
+}
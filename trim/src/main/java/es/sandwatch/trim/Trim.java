@@ -1,12 +1,19 @@
 package es.sandwatch.trim;
 
 import es.sandwatch.trim.annotation.Endpoint;
-import es.sandwatch.trim.annotation.UnusedSinceVersion;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.lang.reflect.Field;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -39,9 +46,86 @@ public class Trim{
         return trim.run();
     }
 
+    /**
+     * Triggers the analysis in the background without setting a progress listener.
+     *
+     * @param specification the Specification object containing all API and model information.
+     * @return a future that completes with the report object.
+     */
+    public static @NotNull CompletableFuture<Report> runAsync(@NotNull Specification specification){
+        return runAsync(specification, null);
+    }
+
+    /**
+     * Triggers the analysis in the background with a progress listener. Fetching, parsing and
+     * analyzing run as separate stages in Trim's own threads, so the calling thread is never blocked.
+     * Opening the snapshot, the recording and the response cache happens in those threads too, and
+     * any failure to do so completes the future exceptionally.
+     *
+     * @param specification the Specification object containing all API and model information.
+     * @param listener the progress listener or null if you are not interested in progress updates.
+     * @return a future that completes with the report object.
+     */
+    public static @NotNull CompletableFuture<Report> runAsync(@NotNull Specification specification,
+                                                              @Nullable ProgressListener listener){
+        specification.lock();
+        Trim trim = new Trim(specification, listener);
+        return trim.runAsync();
+    }
+
+    /**
+     * Analyzes a traffic log instead of hitting the endpoints, without setting a progress listener.
+     *
+     * @param specification the Specification object containing all API and model information.
+     * @param log the traffic log.
+     * @return the report object.
+     */
+    public static @NotNull Report analyzeLog(@NotNull Specification specification, @NotNull File log){
+        return analyzeLog(specification, log, null);
+    }
+
+    /**
+     * Analyzes a traffic log instead of hitting the endpoints, with a progress listener. The log is
+     * a newline delimited JSON file; every line is an object holding the endpoint a response came
+     * from and the response itself, in the fields set through
+     * {@link Specification#setTrafficLogFields(String, String)}. The shapes of all responses of
+     * an endpoint are merged and analyzed against its models. Endpoints in the log may carry query
+     * strings that the models' endpoints don't have.
+     *
+     * @param specification the Specification object containing all API and model information.
+     * @param log the traffic log.
+     * @param listener the progress listener or null if you are not interested in progress updates.
+     * @return the report object.
+     * @throws UncheckedIOException if the log can't be read.
+     */
+    public static @NotNull Report analyzeLog(@NotNull Specification specification, @NotNull File log,
+                                             @Nullable ProgressListener listener){
+
+        specification.lock();
+        Trim trim = new Trim(specification, listener);
+        return trim.analyzeLog(log);
+    }
+
+
+    /**
+     * Whether there's more than one processor to share the parsing and analysis of large responses.
+     */
+    private static final boolean PARALLEL = Runtime.getRuntime().availableProcessors() > 1;
+
 
     private Specification specification;
     private ProgressListener listener;
+    private ResponseCache responseCache;
+    private Snapshot snapshot;
+    private Instrumentation instrumentation;
+    private int completed;
+
+    /**
+     * The attribute reports of the objects analyzed so far, by the schema they were compared
+     * against and the structural hash of their contents, so that objects of the same shape found
+     * in several places, within an endpoint or across endpoints, are compared only once.
+     */
+    private ConcurrentMap<ReportKey, List<Report.AttributeReport>> attributeReports;
 
 
     /**
@@ -50,9 +134,14 @@ public class Trim{
      * @param specification the Specification object containing all API and model information.
      * @param listener the progress listener or null if you are not interested in progress updates.
      */
-    private Trim(@NotNull Specification specification, @Nullable ProgressListener listener){
+    Trim(@NotNull Specification specification, @Nullable ProgressListener listener){
         this.specification = specification;
         this.listener = listener;
+        this.responseCache = null;
+        this.snapshot = null;
+        this.instrumentation = new Instrumentation(specification);
+        this.completed = 0;
+        this.attributeReports = new ConcurrentHashMap<>();
     }
 
     /**
@@ -61,61 +150,764 @@ public class Trim{
      * @return the report object.
      */
     private @NotNull Report run(){
-        //Create the fetcher and the report objects
-        Fetcher fetcher = new Fetcher(specification.getHeaders());
+        if (specification.getMaxConcurrency() > 1){
+            try{
+                return runAsync().join();
+            }
+            catch (CompletionException cx){
+                if (cx.getCause() instanceof RuntimeException){
+                    throw (RuntimeException)cx.getCause();
+                }
+                throw cx;
+            }
+        }
+
+        //Create the response source and the report objects
+        loadSnapshot();
+        ResponseSource source = createSource();
         Report report = new Report();
+        try{
+            //Execute the requests to endpoints
+            for (Class<?> model:specification.getModels()){
+                EndpointTemplate template = specification.getEndpointTemplate(model);
+                List<String> urls = template == null ? specification.getSampleUrls(model)
+                        : getTemplateUrls(source, template);
+                Pagination pagination = specification.getPagination(model);
+                if (urls.isEmpty()){
+                    //There was nothing to expand the template with
+                    report.addEndpointReport(createEndpointReport(model, new RequestResult(), null));
+                }
+                else if (urls.size() > 1){
+                    report.addEndpointReport(sampleEndpoint(source, model, urls));
+                }
+                else if (pagination != null){
+                    report.addEndpointReport(crawlEndpoint(source, model, urls.get(0), pagination));
+                }
+                else{
+                    RequestResult result = source.getEndpointData(model, urls.get(0));
+                    Shape endpointObject = parseResponse(model, result);
+                    report.addEndpointReport(createEndpointReport(model, result, endpointObject));
+                }
+                notifyEndpointReportComplete(model);
+            }
+            completeReport(report, source.getPoolStats());
+        }
+        finally{
+            source.close();
+        }
+        return report;
+    }
 
-        //Initialize a counter
-        int completed = 0;
+    /**
+     * Loads the snapshot of the last run if the run is incremental.
+     */
+    private void loadSnapshot(){
+        File snapshotFile = specification.getSnapshotFile();
+        if (snapshotFile != null){
+            snapshot = Snapshot.load(snapshotFile, specification.getAppVersion());
+        }
+    }
 
-        //Execute the requests to endpoints
-        for (Class<?> model:specification.getModels()){
-            Fetcher.RequestResult result = fetcher.getEndpointData(model);
-            report.addEndpointReport(createEndpointReport(model, result));
+    /**
+     * Creates the measured source of responses: the one set by the caller, if any, the recorded
+     * responses if the run is a replay, otherwise a fetcher backed by the response cache, if enabled.
+     *
+     * @return the source.
+     */
+    private @NotNull ResponseSource createSource(){
+        ResponseSource responseSource = specification.getResponseSource();
+        if (responseSource != null){
+            return instrumentation.instrumentShared(responseSource);
+        }
 
-            if (listener != null){
-                listener.onEndpointReportComplete(model, ++completed);
+        File recording = specification.getRecording();
+        if (recording != null){
+            try{
+                return instrumentation.instrument(RecordedResponses.open(recording));
+            }
+            catch (IOException iox){
+                throw new UncheckedIOException("Can't read the recorded responses in " + recording, iox);
+            }
+        }
+
+        File cacheDirectory = specification.getResponseCacheDirectory();
+        if (cacheDirectory != null){
+            try{
+                responseCache = ResponseCache.open(cacheDirectory, specification.getResponseCacheSize());
+            }
+            catch (IOException iox){
+                //Carry on without a cache
+                iox.printStackTrace();
             }
         }
+        return instrumentation.instrument(new Fetcher(specification, responseCache));
+    }
+
+    /**
+     * Expands the template of a model's endpoint with every value of its parameter source. Values
+     * held in another model's endpoint's response are taken from that response, fetched from the
+     * source of the run.
+     *
+     * @param source the source of the endpoint's responses.
+     * @param template the template of the model's endpoint.
+     * @return the addresses, empty if the parameter source holds no values.
+     */
+    private @NotNull List<String> getTemplateUrls(@NotNull ResponseSource source, @NotNull EndpointTemplate template){
+        Class<?> sourceModel = template.getSourceModel();
+        if (sourceModel == null){
+            return template.getUrls(template.getListedValues());
+        }
+        RequestResult result = source.getEndpointData(sourceModel, sourceModel.getAnnotation(Endpoint.class).value());
+        try{
+            if (!result.is2xx()){
+                return Collections.emptyList();
+            }
+            return template.getUrls(template.findValues(result.getBody()));
+        }
+        finally{
+            result.release();
+        }
+    }
 
+    /**
+     * Fetches and parses the samples of an endpoint one after the other, and creates the report of
+     * the endpoint from the merged shape of every sample.
+     *
+     * @param source the source of the endpoint's responses.
+     * @param model the model to be analyzed.
+     * @param urls the addresses to hit, one per sample.
+     * @return the endpoint report.
+     */
+    private @NotNull Report.EndpointReport sampleEndpoint(@NotNull ResponseSource source, @NotNull Class<?> model,
+                                                          @NotNull List<String> urls){
+
+        Crawl crawl = new Crawl(model, null, urls.get(0), urls);
+        for (int i = 0; i < urls.size(); i++){
+            RequestResult result = source.getEndpointData(model, urls.get(i));
+            crawl.addPage(i + 1, result, parseResponse(model, result));
+        }
+        Report.EndpointReport report = createEndpointReport(model, crawl.first, crawl.getEndpointObject());
+        report.setSamples(crawl.responses);
+        crawl.recordTimings(report);
         return report;
     }
 
-    private @NotNull Report.EndpointReport createEndpointReport(Class<?> model, Fetcher.RequestResult result){
-        Report.EndpointReport report = new Report.EndpointReport(model, result);
+    /**
+     * Fetches and parses the pages of a paginated endpoint one after the other, and creates the
+     * report of the endpoint from the merged shape of every page.
+     *
+     * @param source the source of the endpoint's responses.
+     * @param model the model to be analyzed.
+     * @param endpoint the address of the first page.
+     * @param pagination the pagination of the model's endpoint.
+     * @return the endpoint report.
+     */
+    private @NotNull Report.EndpointReport crawlEndpoint(@NotNull ResponseSource source, @NotNull Class<?> model,
+                                                         @NotNull String endpoint, @NotNull Pagination pagination){
+
+        RequestResult first = source.getEndpointData(model, endpoint);
+        List<RequestTiming> timings = new ArrayList<>();
+        timings.add(first.getTiming());
+        Shape endpointObject = parseResponse(model, first);
+        String next = findNextPage(first, pagination);
+        String url = endpoint;
+        int pages = 1;
+        while (endpointObject != null && endpointObject.isParsedObject() && next != null
+                && pages < pagination.getMaxPages()){
+
+            if (pagination.isNumbered()){
+                url = pagination.getPageUrl(endpoint, pages + 1);
+            }
+            else{
+                url = pagination.getNextUrl(endpoint, url, next);
+                if (url == null){
+                    break;
+                }
+            }
+            RequestResult result = source.getEndpointData(model, url);
+            timings.add(result.getTiming());
+            next = findNextPage(result, pagination);
+            Shape page = parseResponse(model, result);
+            result.release();
+            if (page == null || !page.isParsedObject()){
+                break;
+            }
+            endpointObject.merge(page);
+            pages++;
+        }
+        Report.EndpointReport report = createEndpointReport(model, first, endpointObject);
+        report.setPages(pages);
+        for (RequestTiming timing:timings){
+            report.recordTiming(timing);
+        }
+        return report;
+    }
+
+    /**
+     * Finds the value of the next field in a page without parsing the rest of it.
+     *
+     * @param result the result of the request for the page.
+     * @param pagination the pagination of the endpoint.
+     * @return the link to or the cursor of the next page, or null if this page is the last one.
+     */
+    private static @Nullable String findNextPage(@NotNull RequestResult result,
+                                                 @NotNull Pagination pagination){
+
+        if (!result.is2xx() || result.isTruncated()){
+            return null;
+        }
+        return Parser.findRootString(result.getBody(), pagination.getNextField());
+    }
+
+    /**
+     * Runs the analysis as a pipeline of fetch, parse and analyze stages. The snapshot and the
+     * source of responses are set up by the first fetch task, which then submits every model.
+     *
+     * @return a future that completes with the report object.
+     */
+    private @NotNull CompletableFuture<Report> runAsync(){
+        Pipeline pipeline = new Pipeline(specification);
+        CompletableFuture<ResponseSource> setUp = new CompletableFuture<>();
+        pipeline.fetch(() -> {
+            loadSnapshot();
+            setUp.complete(createSource());
+        }, setUp);
+
+        CompletableFuture<Report> future = setUp.thenCompose(source -> submitModels(pipeline, source));
+        future.whenComplete((report, throwable) -> pipeline.shutdown());
+        return future;
+    }
+
+    /**
+     * Sends every model through the stages of the pipeline and collects their reports. The source
+     * is closed once the run is over.
+     *
+     * @param pipeline the pipeline.
+     * @param source the source of the responses.
+     * @return a future that completes with the report object.
+     */
+    private @NotNull CompletableFuture<Report> submitModels(@NotNull Pipeline pipeline,
+                                                           @NotNull ResponseSource source){
+
+        //Endpoint reports are collected in specification order regardless of completion order
+        List<CompletableFuture<Report.EndpointReport>> futures = new ArrayList<>();
+        for (Class<?> model:specification.getModels()){
+            EndpointTemplate template = specification.getEndpointTemplate(model);
+            if (template == null){
+                futures.add(submitUrls(pipeline, source, model, specification.getSampleUrls(model)));
+            }
+            else{
+                futures.add(submitTemplate(pipeline, source, model, template));
+            }
+        }
+
+        CompletableFuture<Report> future = CompletableFuture
+                .allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+                .thenApply(ignored -> {
+                    Report report = new Report();
+                    for (CompletableFuture<Report.EndpointReport> endpointFuture:futures){
+                        report.addEndpointReport(endpointFuture.join());
+                    }
+                    completeReport(report, source.getPoolStats());
+                    return report;
+                });
+        future.whenComplete((report, throwable) -> source.close());
+        return future;
+    }
+
+    /**
+     * Sends a model through the stages of the pipeline, as a plain, sampled or paginated endpoint
+     * depending on the addresses to hit and the model's pagination.
+     *
+     * @param pipeline the pipeline.
+     * @param source the source of the endpoint's responses.
+     * @param model the model to be analyzed.
+     * @param urls the addresses to hit, one per sample.
+     * @return a future that completes with the model's endpoint report.
+     */
+    private @NotNull CompletableFuture<Report.EndpointReport> submitUrls(@NotNull Pipeline pipeline,
+                                                                        @NotNull ResponseSource source,
+                                                                        @NotNull Class<?> model,
+                                                                        @NotNull List<String> urls){
+
+        Pagination pagination = specification.getPagination(model);
+        if (urls.isEmpty()){
+            //There was nothing to expand the template with
+            CompletableFuture<Report.EndpointReport> future = new CompletableFuture<>();
+            pipeline.analyze(() -> {
+                Report.EndpointReport endpointReport = createEndpointReport(model, new RequestResult(), null);
+                notifyEndpointReportComplete(model);
+                future.complete(endpointReport);
+            }, future);
+            return future;
+        }
+        else if (urls.size() > 1){
+            return submitSamples(pipeline, source, model, urls);
+        }
+        else if (pagination != null){
+            return submitCrawl(pipeline, source, model, urls.get(0), pagination);
+        }
+        else{
+            return submitEndpoint(pipeline, source, model, urls.get(0));
+        }
+    }
+
+    /**
+     * Expands the template of a model's endpoint in the fetch stage, since its parameters may be
+     * held in another endpoint's response, and sends the model through the stages of the pipeline
+     * with the concrete addresses.
+     *
+     * @param pipeline the pipeline.
+     * @param source the source of the endpoint's responses.
+     * @param model the model to be analyzed.
+     * @param template the template of the model's endpoint.
+     * @return a future that completes with the model's endpoint report.
+     */
+    private @NotNull CompletableFuture<Report.EndpointReport> submitTemplate(@NotNull Pipeline pipeline,
+                                                                            @NotNull ResponseSource source,
+                                                                            @NotNull Class<?> model,
+                                                                            @NotNull EndpointTemplate template){
+
+        CompletableFuture<Report.EndpointReport> future = new CompletableFuture<>();
+        pipeline.fetch(() -> submitUrls(pipeline, source, model, getTemplateUrls(source, template))
+                .whenComplete((endpointReport, throwable) -> {
+                    if (throwable == null){
+                        future.complete(endpointReport);
+                    }
+                    else{
+                        future.completeExceptionally(throwable);
+                    }
+                }), future);
+        return future;
+    }
+
+    /**
+     * Sends a model through the stages of the pipeline. Each stage hands its output over to the
+     * next one from its own thread.
+     *
+     * @param pipeline the pipeline.
+     * @param source the source of the endpoint's responses.
+     * @param model the model to be analyzed.
+     * @param url the address of the endpoint.
+     * @return a future that completes with the model's endpoint report.
+     */
+    private @NotNull CompletableFuture<Report.EndpointReport> submitEndpoint(@NotNull Pipeline pipeline,
+                                                                            @NotNull ResponseSource source,
+                                                                            @NotNull Class<?> model,
+                                                                            @NotNull String url){
+
+        CompletableFuture<Report.EndpointReport> future = new CompletableFuture<>();
+        pipeline.fetch(() -> {
+            RequestResult result = source.getEndpointData(model, url);
+            pipeline.parse(() -> {
+                Shape endpointObject = parseResponse(model, result);
+                pipeline.analyze(() -> {
+                    Report.EndpointReport endpointReport = createEndpointReport(model, result, endpointObject);
+                    notifyEndpointReportComplete(model);
+                    future.complete(endpointReport);
+                }, future);
+            }, future);
+        }, future);
+        return future;
+    }
+
+    /**
+     * Sends the samples of an endpoint through the stages of the pipeline in batches as large as
+     * the maximum concurrency, so that endpoints with many samples take turns with the rest. Once
+     * every sample is parsed, their merged shape is analyzed.
+     *
+     * @param pipeline the pipeline.
+     * @param source the source of the endpoint's responses.
+     * @param model the model to be analyzed.
+     * @param urls the addresses to hit, one per sample.
+     * @return a future that completes with the model's endpoint report.
+     */
+    private @NotNull CompletableFuture<Report.EndpointReport> submitSamples(@NotNull Pipeline pipeline,
+                                                                           @NotNull ResponseSource source,
+                                                                           @NotNull Class<?> model,
+                                                                           @NotNull List<String> urls){
+
+        Crawl crawl = new Crawl(model, null, urls.get(0), urls);
+        int batch = Math.min(specification.getMaxConcurrency(), urls.size());
+        crawl.pending.addAndGet(batch);
+        for (int i = 0; i < batch; i++){
+            int sample = i + 1;
+            String url = urls.get(i);
+            pipeline.fetch(() -> fetchPage(pipeline, source, crawl, sample, url), crawl.future);
+        }
+        return crawl.future;
+    }
+
+    /**
+     * Sends the pages of a paginated endpoint through the stages of the pipeline. The address of
+     * the next page is found as soon as a page is fetched, so fetching it overlaps with parsing the
+     * current one; numbered pages are fetched in waves as wide as the maximum concurrency. Once every
+     * page is parsed, their merged shape is analyzed.
+     *
+     * @param pipeline the pipeline.
+     * @param source the source of the endpoint's responses.
+     * @param model the model to be analyzed.
+     * @param endpoint the address of the first page.
+     * @param pagination the pagination of the model's endpoint.
+     * @return a future that completes with the model's endpoint report.
+     */
+    private @NotNull CompletableFuture<Report.EndpointReport> submitCrawl(@NotNull Pipeline pipeline,
+                                                                         @NotNull ResponseSource source,
+                                                                         @NotNull Class<?> model,
+                                                                         @NotNull String endpoint,
+                                                                         @NotNull Pagination pagination){
+
+        Crawl crawl = new Crawl(model, pagination, endpoint, null);
+        crawl.pending.incrementAndGet();
+        pipeline.fetch(() -> fetchPage(pipeline, source, crawl, 1, endpoint), crawl.future);
+        return crawl.future;
+    }
+
+    /**
+     * Fetches a page of a crawl, queues the pages it leads to and hands it over to the parse stage.
+     *
+     * @param pipeline the pipeline.
+     * @param source the source of the endpoint's responses.
+     * @param crawl the crawl.
+     * @param page the number of the page, starting at 1.
+     * @param url the address of the page.
+     */
+    private void fetchPage(@NotNull Pipeline pipeline, @NotNull ResponseSource source, @NotNull Crawl crawl, int page,
+                           @NotNull String url){
+
+        RequestResult result = source.getEndpointData(crawl.model, url);
+        String next = crawl.pagination == null ? null : findNextPage(result, crawl.pagination);
+        if (crawl.pagination != null && next == null){
+            crawl.setLastPage(page);
+        }
+
+        //Queue the following pages before handing this one over, so the crawl never looks finished early
+        if (crawl.samples != null){
+            //The first sample of a batch queues the next batch
+            int batch = specification.getMaxConcurrency();
+            if ((page - 1)%batch == 0){
+                for (int sample = page + batch; sample < page + 2*batch && sample <= crawl.samples.size(); sample++){
+                    int number = sample;
+                    String sampleUrl = crawl.samples.get(sample - 1);
+                    crawl.pending.incrementAndGet();
+                    pipeline.fetch(() -> fetchPage(pipeline, source, crawl, number, sampleUrl), crawl.future);
+                }
+            }
+        }
+        if (next != null){
+            Pagination pagination = crawl.pagination;
+            String endpoint = crawl.endpoint;
+            if (pagination.isNumbered()){
+                //The last page of a wave starts the next wave, unless an earlier page turned out to be the last
+                int wave = specification.getMaxConcurrency();
+                int lastPage = Math.min(crawl.getLastPage(), pagination.getMaxPages());
+                if ((page - 1)%wave == 0){
+                    for (int nextPage = page + 1; nextPage <= Math.min(page + wave, lastPage); nextPage++){
+                        int number = nextPage;
+                        String nextUrl = pagination.getPageUrl(endpoint, number);
+                        crawl.pending.incrementAndGet();
+                        pipeline.fetch(() -> fetchPage(pipeline, source, crawl, number, nextUrl), crawl.future);
+                    }
+                }
+            }
+            else if (page < pagination.getMaxPages()){
+                String nextUrl = pagination.getNextUrl(endpoint, url, next);
+                if (nextUrl != null){
+                    crawl.pending.incrementAndGet();
+                    pipeline.fetch(() -> fetchPage(pipeline, source, crawl, page + 1, nextUrl), crawl.future);
+                }
+            }
+        }
+
+        pipeline.parse(() -> {
+            crawl.addPage(page, result, parseResponse(crawl.model, result));
+            if (crawl.pending.decrementAndGet() == 0){
+                pipeline.analyze(() -> {
+                    Report.EndpointReport endpointReport = createEndpointReport(crawl.model, crawl.first,
+                            crawl.getEndpointObject());
+                    if (crawl.pagination == null){
+                        endpointReport.setSamples(crawl.responses);
+                    }
+                    else{
+                        endpointReport.setPages(crawl.responses);
+                    }
+                    crawl.recordTimings(endpointReport);
+                    notifyEndpointReportComplete(crawl.model);
+                    crawl.future.complete(endpointReport);
+                }, crawl.future);
+            }
+        }, crawl.future);
+    }
+
+    /**
+     * Analyzes a traffic log.
+     *
+     * @param log the traffic log.
+     * @return the report object.
+     */
+    private @NotNull Report analyzeLog(@NotNull File log){
+        loadSnapshot();
+        Map<String, ArraySampler> samplers = new HashMap<>();
+        for (Class<?> model:specification.getModels()){
+            samplers.putIfAbsent(model.getAnnotation(Endpoint.class).value(), specification.getArraySampler(model));
+        }
+
+        TrafficLog.Summary summary;
+        try{
+            summary = new TrafficLog(log.toPath(), specification.getLogEndpointField(),
+                    specification.getLogResponseField(), samplers).read(specification.getParseThreads());
+        }
+        catch (IOException iox){
+            throw new UncheckedIOException("Can't read the traffic log " + log, iox);
+        }
 
-        //If successful
-        if (result.is2xx()){
-            //Parse the response and create the usage map and the field list
-            Parser.FieldNode<JsonType> endpointObject = Parser.parseJson(result.getResponse());
-            if (!endpointObject.isParsedObject()){
-                report.setResponseFormatError();
+        Report report = new Report();
+        for (Class<?> model:specification.getModels()){
+            TrafficLog.EndpointTraffic traffic = summary.getEndpointTraffic(model.getAnnotation(Endpoint.class).value());
+            RequestResult result = new RequestResult(RequestTiming.NONE, 200, ResponseBody.of(""), false, null, false,
+                    false);
+            Report.EndpointReport endpointReport;
+            if (traffic == null){
+                endpointReport = createEndpointReport(model, result, null);
+                endpointReport.setLogRecords(0, 0);
             }
             else{
-                //Parse the model structure
-                Map<String, Parser.FieldNode<Field>> fields = Parser.parseClass(model);
-                report.addAttributeReport(createObjectReport(endpointObject, fields));
+                endpointReport = createEndpointReport(model, result, traffic.getResponse());
+                endpointReport.setLogRecords(traffic.getRecords(), traffic.getBytes());
             }
+            report.addEndpointReport(endpointReport);
+            notifyEndpointReportComplete(model);
         }
+        report.setTrafficLog(summary.getRecords(), summary.getUnmatched(), summary.getMalformed());
+        completeReport(report, null);
         return report;
     }
 
     /**
-     * Creates an ObjectReport for a Json FieldNode given a map of model fields.
+     * Adds the run wide information to a report once every endpoint report is in, and saves the
+     * snapshot if the run is incremental.
+     *
+     * @param report the report.
+     * @param poolStats the statistics of the connection pool used during the run, or null if there's none.
+     */
+    private void completeReport(@NotNull Report report, @Nullable ConnectionPoolStats poolStats){
+        if (poolStats != null){
+            report.setPoolStats(poolStats);
+        }
+        if (snapshot != null){
+            snapshot.save();
+            report.setIncremental();
+        }
+    }
+
+    /**
+     * Lets the listener know that an endpoint report has been completed. Calls are serialized, so
+     * listeners always see a strictly increasing completed count, even when running concurrently.
+     *
+     * @param model the model whose report has been completed.
+     */
+    private void notifyEndpointReportComplete(@NotNull Class<?> model){
+        if (listener != null){
+            synchronized (this){
+                listener.onEndpointReportComplete(model, ++completed);
+            }
+        }
+    }
+
+    /**
+     * Parses the response to a model's endpoint request.
+     *
+     * @param model the model whose endpoint was requested.
+     * @param result the result of the request.
+     * @return the shape of the response, or null if the request wasn't successful.
+     */
+    private @Nullable Shape parseResponse(@NotNull Class<?> model, @NotNull RequestResult result){
+        if (!result.is2xx() || result.isTruncated()){
+            return null;
+        }
+        long start = System.nanoTime();
+        ArraySampler sampler = specification.getArraySampler(model);
+        String cacheKey = result.getCacheKey();
+
+        //Responses that haven't changed since they were cached may have been parsed already
+        Shape endpointObject = null;
+        if (result.isNotModified()){
+            endpointObject = responseCache.loadShape(cacheKey, sampler);
+        }
+
+        if (endpointObject == null){
+            //Only split responses large enough for more than one batch of array items, and only if
+            //  there's more than one processor to parse them
+            int splitSize = specification.getParallelParseSize();
+            if (splitSize == 0 || result.getBody().length() <= splitSize || !PARALLEL){
+                splitSize = 0;
+            }
+            endpointObject = Parser.parseJson(result.getBody(), sampler, splitSize);
+            //The shape is only good for the cached body if it was parsed from it
+            if (cacheKey != null && endpointObject.isParsedObject() && (result.isStored() || result.isNotModified())){
+                responseCache.storeShape(cacheKey, sampler, endpointObject);
+            }
+            else if (cacheKey != null){
+                responseCache.dropShape(cacheKey);
+            }
+        }
+        instrumentation.responseParsed(model, System.nanoTime() - start, endpointObject.isParsedObject());
+        return endpointObject;
+    }
+
+    /**
+     * Creates the report of a model's endpoint. Releases the response body once done.
+     *
+     * @param model the model whose endpoint was requested.
+     * @param result the result of the request.
+     * @param endpointObject the shape of the response, or null if the request wasn't successful.
+     * @return the endpoint report.
+     */
+    private @NotNull Report.EndpointReport createEndpointReport(@NotNull Class<?> model,
+                                                                @NotNull RequestResult result,
+                                                                @Nullable Shape endpointObject){
+
+        long start = System.nanoTime();
+        try{
+            Report.EndpointReport report = new Report.EndpointReport(model, result);
+
+            //If successful
+            if (endpointObject != null){
+                if (!endpointObject.isParsedObject()){
+                    report.setResponseFormatError();
+                }
+                else if (snapshot == null){
+                    //Parse the model structure and create the usage report
+                    Schema schema = Parser.parseClass(model);
+                    long[] hashes = Parser.hashShape(endpointObject);
+                    int[] sizes = getSubtreeSizes(endpointObject);
+                    report.addAttributeReport(createObjectReport(endpointObject, hashes, sizes, Shape.ROOT, schema));
+                }
+                else{
+                    //Reuse the last run's report if neither the response nor the model changed
+                    long[] hashes = Parser.hashShape(endpointObject);
+                    long shapeHash = hashes[Shape.ROOT];
+                    long schemaHash = Parser.hashSchema(model);
+                    Report.ObjectReport objectReport = snapshot.getReport(model, shapeHash, schemaHash);
+                    if (objectReport != null){
+                        report.setUnchanged();
+                    }
+                    else{
+                        int[] sizes = getSubtreeSizes(endpointObject);
+                        objectReport = createObjectReport(endpointObject, hashes, sizes, Shape.ROOT, Parser.parseClass(model));
+                        snapshot.putReport(model, shapeHash, schemaHash, objectReport);
+                    }
+                    report.addAttributeReport(objectReport);
+                }
+            }
+            return report;
+        }
+        finally{
+            result.release();
+            instrumentation.endpointReported(model, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Creates an ObjectReport for a node of a shape given the schema of its model.
+     *
+     * @param shape the shape the node belongs to.
+     * @param node the node whose report is to be generated. Its type needs to be {@code JsonType.OBJECT}
+     *             or {@code JsonType.Array}.
+     * @param schema the schema of the model fields that share hierarchy with the node's children.
+     * @return the generated ObjectReport.
+     */
+    @NotNull Report.ObjectReport createObjectReport(@NotNull Shape shape, int node, @NotNull Schema schema){
+        return createObjectReport(shape, Parser.hashShape(shape), getSubtreeSizes(shape), node, schema);
+    }
+
+    /**
+     * Creates an AttributeReport for a node of a shape given the schema of its parent's model.
+     *
+     * @param shape the shape the node belongs to.
+     * @param node the node whose report is to be generated.
+     * @param schema the schema of the model fields that share hierarchy with the node's parent's children.
+     * @return the generated AttributeReport.
+     */
+    @NotNull Report.AttributeReport createAttributeReport(@NotNull Shape shape, int node, @NotNull Schema schema){
+        return createAttributeReport(shape, Parser.hashShape(shape), getSubtreeSizes(shape), node, schema);
+    }
+
+    /**
+     * Gets the subtree sizes used to decide which attributes of a shape are analyzed by fork join
+     * subtasks.
      *
-     * @param jsonNode the Json FieldNode whose report is to be generated. The payload needs to be of type
-     *                 {@code JsonType.OBJECT} or {@code JsonType.Array}.
-     * @param modelFields the set of fields in the model that share hierarchy with the Json FieldNode's children.
+     * @param shape the shape to analyze.
+     * @return the size of the subtree of every node, or null if the shape is to be analyzed by a single thread.
+     */
+    private @Nullable int[] getSubtreeSizes(@NotNull Shape shape){
+        int threshold = specification.getParallelReportSize();
+        if (threshold == 0 || shape.size() < 2*threshold || !PARALLEL){
+            return null;
+        }
+        return shape.getSubtreeSizes();
+    }
+
+    /**
+     * Creates an ObjectReport for a node of a shape given the schema of its model. The reports of
+     * the node's attributes are reused if an object with the same contents was already compared
+     * against the same schema.
+     *
+     * @param shape the shape the node belongs to.
+     * @param hashes the structural hash of every node of the shape.
+     * @param sizes the size of the subtree of every node of the shape, or null to analyze it in this thread.
+     *              The attributes whose subtrees reach the parallel report size are analyzed by subtasks.
+     * @param node the node whose report is to be generated.
+     * @param schema the schema of the model fields that share hierarchy with the node's children.
      * @return the generated ObjectReport.
      */
-    private @NotNull Report.ObjectReport createObjectReport(@NotNull Parser.FieldNode<JsonType> jsonNode,
-                                                            @NotNull Map<String, Parser.FieldNode<Field>> modelFields){
+    private @NotNull Report.ObjectReport createObjectReport(@NotNull Shape shape, @NotNull long[] hashes,
+                                                            @Nullable int[] sizes, int node, @NotNull Schema schema){
 
-        Report.ObjectReport report = new Report.ObjectReport(jsonNode.getName());
-        if (jsonNode.isParsedObject()){
-            //Generate AttributeReports for all children
-            for (Parser.FieldNode<JsonType> attribute:jsonNode.getChildren().values()){
-                report.addAttributeReport(createAttributeReport(attribute, modelFields));
+        Report.ObjectReport report = new Report.ObjectReport(shape.getName(node));
+        if (shape.isParsedObject(node)){
+            //The contents of an object are its children and the number of objects merged into them
+            long childrenHash = 0;
+            for (int attribute = shape.getFirstChild(node); attribute != -1; attribute = shape.getNextSibling(attribute)){
+                childrenHash += hashes[attribute];
+            }
+            ReportKey key = new ReportKey(schema, Parser.mix(shape.getSamples(node), childrenHash));
+            List<Report.AttributeReport> attributes = attributeReports.get(key);
+            if (attributes == null){
+                //Fork the large children first, so that they're analyzed while the rest are
+                Deque<ForkJoinTask<Report.AttributeReport>> forked = new ArrayDeque<>();
+                if (sizes != null){
+                    for (int attribute = shape.getFirstChild(node); attribute != -1;
+                         attribute = shape.getNextSibling(attribute)){
+
+                        if (sizes[attribute] >= specification.getParallelReportSize()){
+                            int child = attribute;
+                            forked.add(ForkJoinTask.adapt(() -> createAttributeReport(shape, hashes, sizes, child, schema))
+                                    .fork());
+                        }
+                    }
+                }
+
+                //Generate AttributeReports for all children
+                attributes = new ArrayList<>();
+                for (int attribute = shape.getFirstChild(node); attribute != -1;
+                     attribute = shape.getNextSibling(attribute)){
+
+                    Report.AttributeReport attributeReport;
+                    if (sizes != null && sizes[attribute] >= specification.getParallelReportSize()){
+                        attributeReport = forked.poll().join();
+                    }
+                    else{
+                        attributeReport = createAttributeReport(shape, hashes, sizes, attribute, schema);
+                    }
+                    attributes.add(attributeReport
+                            .setPresence(shape.getOccurrences(attribute), shape.getNulls(attribute), shape.getSamples(node))
+                            .setObservedTypes(shape.getTypes(attribute)));
+                }
+                attributeReports.putIfAbsent(key, attributes);
+            }
+            for (Report.AttributeReport attribute:attributes){
+                report.addAttributeReport(attribute);
             }
         }
 
@@ -123,38 +915,43 @@ public class Trim{
     }
 
     /**
-     * Creates an AttributeReport for a Json FieldNode given a map of model fields.
+     * Creates an AttributeReport for a node of a shape given the schema of its parent's model.
      *
-     * @param jsonObject the Json FieldNode whose report is to be generated.
-     * @param modelFields the set of fields in the model that share hierarchy with the Json FieldNode's children.
+     * @param shape the shape the node belongs to.
+     * @param hashes the structural hash of every node of the shape.
+     * @param sizes the size of the subtree of every node of the shape, or null to analyze it in this thread.
+     *              The attributes whose subtrees reach the parallel report size are analyzed by subtasks.
+     * @param node the node whose report is to be generated.
+     * @param schema the schema of the model fields that share hierarchy with the node's parent's children.
      * @return the generated AttributeReport.
      */
-    private Report.AttributeReport createAttributeReport(@NotNull Parser.FieldNode<JsonType> jsonObject,
-                                                         @NotNull Map<String, Parser.FieldNode<Field>> modelFields){
+    private @NotNull Report.AttributeReport createAttributeReport(@NotNull Shape shape, @NotNull long[] hashes,
+                                                                  @Nullable int[] sizes, int node,
+                                                                  @NotNull Schema schema){
 
         Report.AttributeReport report;
-        if (modelFields.containsKey(jsonObject.getName())){
-            Parser.FieldNode<Field> field = modelFields.get(jsonObject.getName());
+        int position = schema.indexOf(shape.getSymbol(node));
+        if (position != -1){
+            ModelField field = schema.getField(position);
             //If this is a JsonType.OBJECT or a JsonType.ARRAY, create an ObjectReport
-            if (jsonObject.isParsedObject()){
-                report = createObjectReport(jsonObject, field.getChildren());
+            if (shape.isParsedObject(node)){
+                report = createObjectReport(shape, hashes, sizes, node, schema.getChildren(position));
             }
             else{
-                report = new Report.AttributeReport(jsonObject.getName());
+                report = new Report.AttributeReport(shape.getName(node));
             }
             //Populate the report
-            JsonType apiType = jsonObject.getPayload();
-            JsonType modelType = JsonType.getTypeOf(field.getPayload().getType());
+            JsonType apiType = shape.getType(node);
+            JsonType modelType = field.getJsonType();
             report.setUsed(true)
                     .setTypes(apiType, modelType);
 
-            UnusedSinceVersion unusedSinceVersion = field.getPayload().getAnnotation(UnusedSinceVersion.class);
-            if (unusedSinceVersion != null){
-                report.setVersionsSinceLeftUnused(specification.getAppVersion()-unusedSinceVersion.value());
+            if (field.isUnused()){
+                report.setVersionsSinceLeftUnused(specification.getAppVersion()-field.getUnusedSinceVersion());
             }
         }
         else{
-            report = new Report.AttributeReport(jsonObject.getName());
+            report = new Report.AttributeReport(shape.getName(node));
             report.setUsed(false);
         }
 
@@ -162,6 +959,226 @@ public class Trim{
     }
 
 
+    /**
+     * The key of the attribute reports of an object: the schema the object was compared against,
+     * by identity, and the structural hash of the object's contents. Reports are immutable once
+     * built, so objects with the same key share them.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class ReportKey{
+        private final Schema schema;
+        private final long hash;
+
+
+        /**
+         * Constructor.
+         *
+         * @param schema the schema.
+         * @param hash the structural hash of the object's contents.
+         */
+        private ReportKey(@NotNull Schema schema, long hash){
+            this.schema = schema;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object object){
+            if (!(object instanceof ReportKey)){
+                return false;
+            }
+            ReportKey key = (ReportKey)object;
+            return schema == key.schema && hash == key.hash;
+        }
+
+        @Override
+        public int hashCode(){
+            return 31*System.identityHashCode(schema) + Long.hashCode(hash);
+        }
+    }
+
+
+    /**
+     * The state of the crawl of an endpoint whose responses are merged, either the pages of a
+     * paginated endpoint or the samples of a sampled one. Responses may be parsed in any order, but
+     * they are merged in page order, those parsed early being held until the ones before them are
+     * in. The first one decides whether the endpoint can be analyzed at all, and every other one
+     * that can be parsed is merged into the shape. Pages past the first one without a next page or
+     * that can't be parsed, which may have been fetched in the same wave, are dropped.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    private static class Crawl{
+        private final Class<?> model;
+        private final Pagination pagination;
+        private final String endpoint;
+        private final List<String> samples;
+        private final CompletableFuture<Report.EndpointReport> future;
+
+        /**
+         * The number of responses queued or being fetched or parsed.
+         */
+        private final AtomicInteger pending;
+
+        /**
+         * The timing of every response up to the last page, in page order.
+         */
+        private final List<RequestTiming> timings;
+
+        /**
+         * The shapes and timings of the responses parsed before some earlier one, by page.
+         */
+        private final Map<Integer, Shape> waiting;
+        private final Map<Integer, RequestTiming> waitingTimings;
+
+        private RequestResult first;
+        private Shape firstObject;
+        private Shape merged;
+        private int responses;
+
+        /**
+         * The next page to be merged, and the last page of the endpoint, MAX_VALUE until it's known.
+         */
+        private int nextPage;
+        private int lastPage;
+
+
+        /**
+         * Constructor.
+         *
+         * @param model the model to be analyzed.
+         * @param pagination the pagination of the model's endpoint, or null if it is being sampled.
+         * @param endpoint the address of the first response.
+         * @param samples the addresses of every sample, or null if the endpoint is paginated.
+         */
+        private Crawl(@NotNull Class<?> model, @Nullable Pagination pagination, @NotNull String endpoint,
+                      @Nullable List<String> samples){
+
+            this.model = model;
+            this.pagination = pagination;
+            this.endpoint = endpoint;
+            this.samples = samples;
+            this.future = new CompletableFuture<>();
+            this.pending = new AtomicInteger();
+            this.responses = 0;
+            this.timings = new ArrayList<>();
+            this.waiting = new HashMap<>();
+            this.waitingTimings = new HashMap<>();
+            this.nextPage = 1;
+            this.lastPage = Integer.MAX_VALUE;
+        }
+
+        /**
+         * Lets the crawl know that a page is the last one of a paginated endpoint, unless an earlier
+         * one already is. Later pages are dropped.
+         *
+         * @param page the number of the page.
+         */
+        private synchronized void setLastPage(int page){
+            if (page < lastPage){
+                lastPage = page;
+                waiting.keySet().removeIf(waitingPage -> waitingPage > page);
+                waitingTimings.keySet().removeIf(waitingPage -> waitingPage > page);
+            }
+        }
+
+        /**
+         * Last page getter.
+         *
+         * @return the last page of the endpoint, or MAX_VALUE if it isn't known yet.
+         */
+        private synchronized int getLastPage(){
+            return lastPage;
+        }
+
+        /**
+         * Adds a parsed response to the crawl, merging it and any response held for it once every
+         * earlier one is in. The results of every response but the first are released.
+         *
+         * @param page the number of the page or sample, starting at 1.
+         * @param result the result of the request.
+         * @param endpointObject the shape of the response, or null if the request wasn't successful.
+         */
+        private synchronized void addPage(int page, @NotNull RequestResult result, @Nullable Shape endpointObject){
+            if (page == 1){
+                first = result;
+                firstObject = endpointObject;
+            }
+            else{
+                result.release();
+            }
+            boolean parsed = endpointObject != null && endpointObject.isParsedObject();
+            //A page that can't be parsed ends a paginated endpoint, as the sequential crawl does
+            if (pagination != null && !parsed){
+                setLastPage(page);
+            }
+            if (page > lastPage){
+                return;
+            }
+            waiting.put(page, endpointObject);
+            waitingTimings.put(page, result.getTiming());
+
+            while (nextPage <= lastPage && waitingTimings.containsKey(nextPage)){
+                Shape next = waiting.remove(nextPage);
+                timings.add(waitingTimings.remove(nextPage));
+                if (next != null && next.isParsedObject()){
+                    if (merged == null){
+                        merged = next;
+                    }
+                    else{
+                        merged.merge(next);
+                    }
+                    responses++;
+                }
+                nextPage++;
+            }
+        }
+
+        /**
+         * Records the timing of every response of the crawl in the endpoint's report.
+         *
+         * @param report the report of the endpoint.
+         */
+        private synchronized void recordTimings(@NotNull Report.EndpointReport report){
+            for (RequestTiming timing:timings){
+                report.recordTiming(timing);
+            }
+        }
+
+        /**
+         * Gets the shape to be analyzed once every response has been added.
+         *
+         * @return the merged shape of every response, or the first one's if it couldn't be parsed.
+         */
+        private synchronized @Nullable Shape getEndpointObject(){
+            if (firstObject == null || !firstObject.isParsedObject()){
+                return firstObject;
+            }
+            return merged;
+        }
+    }
+
+
+    /**
+     * Interface used to listen to the events of a run, as they happen.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    public interface EventListener{
+        /**
+         * Called when something happens during a run. Calls may happen in worker threads and
+         * overlap when endpoints are analyzed concurrently, and they happen in the hot path, so
+         * listeners should return quickly.
+         *
+         * @param event the event.
+         */
+        void onEvent(@NotNull Event event);
+    }
+
+
     /**
      * Interface used to listen to progress updates from Trim.
      *
@@ -170,7 +1187,9 @@ public class Trim{
      */
     public interface ProgressListener{
         /**
-         * Called when the report about an individual endpoint has been completed.
+         * Called when the report about an individual endpoint has been completed. Calls never overlap
+         * and the completed count always increases by one, but when endpoints are analyzed concurrently
+         * the call may happen in a worker thread and models may complete out of specification order.
          *
          * @param model the model whose report has been complete.
          * @param completed the number of endpoints whose reports have been completed.
@@ -0,0 +1,46 @@
+package es.sandwatch.trim.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Tells Trim which items of the arrays in an endpoint's response should be inspected. The shapes
+ * of all inspected items are merged, so fields that only show up in some items are reported too.
+ * Overrides the strategy set in the Specification.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ArraySampling{
+    Strategy value();
+    int size() default 100;
+
+
+    /**
+     * Available array sampling strategies.
+     *
+     * @author Ismael Alonso
+     * @version 1.0.0
+     */
+    enum Strategy{
+        /**
+         * Inspects the first {@code size} items of every array.
+         */
+        FIRST_N,
+
+        /**
+         * Inspects {@code size} items picked uniformly at random from every array.
+         */
+        RESERVOIR,
+
+        /**
+         * Inspects every item of every array. {@code size} is ignored.
+         */
+        ALL
+    }
+}
@@ -0,0 +1,28 @@
+package es.sandwatch.trim.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Tells Trim that a model's endpoint is a paginated list. Every page is fetched, up to a cap, and
+ * the shapes of all of them are merged before the model is compared against them. The field named
+ * by {@code next} in the root of every page tells whether there are more pages: by default it holds
+ * the link to the next page; if {@code cursorParameter} is set it holds a cursor, which is passed to
+ * the endpoint in that query parameter. If {@code pageParameter} is set instead, pages are numbered
+ * through that query parameter and fetched concurrently. Overrides the pagination set in the
+ * Specification.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Paginated{
+    String next() default "next";
+    String cursorParameter() default "";
+    String pageParameter() default "";
+    int maxPages() default 10;
+}
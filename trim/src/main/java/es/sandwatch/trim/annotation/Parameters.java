@@ -0,0 +1,31 @@
+package es.sandwatch.trim.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Turns a model's endpoint into a URI template whose variable, named by {@code name} and written
+ * as in {@code https://example.com/api/users/{id}/actions/}, is bound to a source of values. The
+ * endpoint is hit once per value, up to {@code maxValues}, and the shapes of every response are
+ * merged before the model is compared against them. Values come from exactly one source:
+ * {@code values}, listed inline; {@code file}, the path of a file with one value per line; or
+ * {@code from}, another model, not a template itself, whose endpoint's response holds the
+ * values in the fields reached through {@code path}, a dot separated list of field names where
+ * arrays are walked through item by item. Overrides Samples.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Parameters{
+    String name() default "id";
+    String[] values() default {};
+    String file() default "";
+    Class<?> from() default Void.class;
+    String path() default "id";
+    int maxValues() default 100;
+}
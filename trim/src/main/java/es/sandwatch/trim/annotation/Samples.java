@@ -0,0 +1,23 @@
+package es.sandwatch.trim.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Tells Trim to hit a model's endpoint several times and merge the shapes of every response, so
+ * that attributes which are often absent or null are reported with their frequencies. The endpoint
+ * is hit {@code value} times as is or, if {@code queries} is set, once with each query string
+ * appended to it. Overrides the number of samples set in the Specification.
+ *
+ * @author Ismael Alonso
+ * @version 1.0.0
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Samples{
+    int value() default 1;
+    String[] queries() default {};
+}